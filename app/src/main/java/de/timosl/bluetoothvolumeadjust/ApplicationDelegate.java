@@ -2,35 +2,116 @@ package de.timosl.bluetoothvolumeadjust;
 
 import android.app.Application;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 
 import java.util.Set;
 
+import de.timosl.bluetoothvolumeadjust.util.BondedDeviceIndex;
 import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
 import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.MainThreadWatchdog;
 import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
 
 /**
  * Application delegate for this app. Used for initialization
  * for app-wide components.
+ * <p>
+ * The process is often started just to deliver a Bluetooth broadcast, so
+ * {@link #onCreate()} only does what is needed before anything else can run:
+ * initializing the logger and the {@link DeviceProfileStore}. Everything else
+ * is deferred until the main thread is idle, which is after the broadcast has
+ * been handed to the worker thread.
  */
 public class ApplicationDelegate extends Application {
 
+    /**
+     * The time in milliseconds the work in {@link #onCreate()} should take at most.
+     * Exceeding it is logged as a warning.
+     */
+    private static final long STARTUP_BUDGET = 50L;
+
+    /**
+     * The time in milliseconds the work in {@link #onCreate()} took.
+     */
+    private long startupTime;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        long startupBegin = SystemClock.uptimeMillis();
 
-        // Initializes the logging feature
+        // Initializes the logging feature (and loads the settings with it)
         L.init(this);
 
-        // Log some general app information
-        logAppInfo();
+        // Watch the main thread as early as possible, if the user asked for it
+        if(Preferences.getEnableDebugging(this) && Preferences.getDiagnostics(this)) {
+            MainThreadWatchdog.install(this);
+        }
+
+        // Defer everything else until the main thread has nothing to do
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                onIdle();
+                return false;
+            }
+        });
+
+        startupTime = SystemClock.uptimeMillis() - startupBegin;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Once our UI is hidden the process may be killed at any time,
+        // so make sure all changes have been written
+        if(level >= TRIM_MEMORY_UI_HIDDEN) {
+            DeviceProfileStore.get(this).flush();
+        }
     }
 
 
+    /**
+     * Runs the deferred startup work once the main thread is idle for the first time.
+     */
+    private void onIdle() {
+        // Keep the index of bonded devices up to date
+        BondedDeviceIndex.init(this);
+
+        // Nothing else to do if nobody will read it
+        if(!L.isEnabled()) {
+            return;
+        }
+
+        // Open the trace and log some general app information in the
+        // background, since it needs disk I/O and queries the Bluetooth service
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                TraceRecorder.init(ApplicationDelegate.this);
+                logAppInfo();
+            }
+        });
+    }
+
     /**
      * Logs some general application info for debugging.
      */
     private void logAppInfo() {
+        // Log how long the startup took
+        if(startupTime > STARTUP_BUDGET) {
+            L.w("(AppDelegate) Startup took %dms, exceeding the budget of %dms",startupTime,STARTUP_BUDGET);
+        } else {
+            L.i("(AppDelegate) Startup took %dms (budget %dms)",startupTime,STARTUP_BUDGET);
+        }
+
         // Get the devices that we currently have managed
         Set<String> devices = DeviceManagment.getDevices(this);
 
@@ -38,18 +119,19 @@ public class ApplicationDelegate extends Application {
             L.w("(AppDelegate) Bluetooth is disabled or the adapter is unavailable.");
         } else {
             // Log the app version
-            L.i(String.format("(AppDelegate) Application created. Version: %s (%d)",BuildConfig.VERSION_NAME,BuildConfig.VERSION_CODE));
+            L.i("(AppDelegate) Application created. Version: %s (%d)",BuildConfig.VERSION_NAME,BuildConfig.VERSION_CODE);
 
             // Log all managed devices
             for(String deviceAddress: devices) {
-                String deviceName = DeviceManagment.getDeviceByAddress(deviceAddress) != null ? DeviceManagment.getDeviceByAddress(deviceAddress).getName() : "<NULL_DEVICE>";
+                BluetoothDevice device = DeviceManagment.getDeviceByAddress(deviceAddress);
+                String deviceName = device != null ? BondedDeviceIndex.getName(device) : "<NULL_DEVICE>";
                 float deviceVolume = DeviceManagment.getDeviceVolume(this,deviceAddress);
 
-                L.i(String.format("(AppDelegate) Registered device %s (%s) at volume %f",deviceName,deviceAddress,deviceVolume));
+                L.i("(AppDelegate) Registered device %s (%s) at volume %f",deviceName,deviceAddress,deviceVolume);
             }
         }
 
         // Log preferences
-        L.i(String.format("(AppDelegate) Restoring volume is set to: %b", Preferences.getResetVolumeOnDisconnect(this)));
+        L.i("(AppDelegate) Restoring volume is set to: %b",Preferences.getResetVolumeOnDisconnect(this));
     }
 }
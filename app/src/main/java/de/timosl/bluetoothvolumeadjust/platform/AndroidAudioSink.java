@@ -0,0 +1,48 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+/**
+ * The {@link AudioSink} of a device, backed by the {@link AudioManager}.
+ */
+public class AndroidAudioSink implements AudioSink {
+
+    /**
+     * The {@link AudioManager} all calls are forwarded to.
+     */
+    private final AudioManager audioManager;
+
+    /**
+     * Creates a new {@link AndroidAudioSink}.
+     * @param context The applications {@link Context}
+     */
+    public AndroidAudioSink(Context context) {
+        this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    @Override
+    public int getStreamVolume(int streamType) {
+        return audioManager.getStreamVolume(streamType);
+    }
+
+    @Override
+    public int getStreamMaxVolume(int streamType) {
+        return audioManager.getStreamMaxVolume(streamType);
+    }
+
+    @Override
+    public void setStreamVolume(int streamType, int index, int flags) {
+        audioManager.setStreamVolume(streamType, index, flags);
+    }
+
+    @Override
+    public boolean isMusicActive() {
+        return audioManager.isMusicActive();
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        return audioManager.isBluetoothA2dpOn();
+    }
+}
@@ -0,0 +1,17 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import android.bluetooth.BluetoothDevice;
+
+import de.timosl.bluetoothvolumeadjust.util.BondedDeviceIndex;
+
+/**
+ * The {@link DeviceRegistry} of a device, backed by the {@link BondedDeviceIndex}.
+ */
+public class AndroidDeviceRegistry implements DeviceRegistry {
+
+    @Override
+    public String getName(String address) {
+        BluetoothDevice device = BondedDeviceIndex.getDevice(address);
+        return device != null ? BondedDeviceIndex.getName(device) : null;
+    }
+}
@@ -0,0 +1,33 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import de.timosl.bluetoothvolumeadjust.util.SilenceEngine;
+
+/**
+ * Creates the {@link Platform} of a device.
+ */
+public final class AndroidPlatform {
+
+    /**
+     * The name of the worker thread the receiver logic runs on.
+     */
+    private static final String THREAD_NAME = "VolumeAdjustment";
+
+    /**
+     * Creates the {@link Platform} of this device and starts the worker thread its
+     * {@link Scheduler} runs tasks on. The calls to the audio system are recorded
+     * in the trace, if it is open.
+     * @param context The applications {@link Context}
+     * @return The {@link Platform}
+     */
+    public static Platform create(Context context) {
+        HandlerThread thread = new HandlerThread(THREAD_NAME);
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        return new Platform(new RecordingAudioSink(new AndroidAudioSink(context)), new SilenceEngine(handler),
+                new AndroidDeviceRegistry(), new HandlerScheduler(handler));
+    }
+}
@@ -0,0 +1,49 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import android.media.AudioManager;
+
+/**
+ * The audio streams whose volumes are adjusted, as far as the receiver needs to know about
+ * them. On a device this is the {@link AudioManager} (see {@link AndroidAudioSink}).
+ */
+public interface AudioSink {
+
+    /**
+     * Returns the volume of a stream.
+     * @param streamType The stream type, e.g. {@link AudioManager#STREAM_MUSIC}
+     * @return The volume index
+     * @see AudioManager#getStreamVolume(int)
+     */
+    int getStreamVolume(int streamType);
+
+    /**
+     * Returns the maximum volume of a stream.
+     * @param streamType The stream type, e.g. {@link AudioManager#STREAM_MUSIC}
+     * @return The maximum volume index
+     * @see AudioManager#getStreamMaxVolume(int)
+     */
+    int getStreamMaxVolume(int streamType);
+
+    /**
+     * Sets the volume of a stream.
+     * @param streamType The stream type, e.g. {@link AudioManager#STREAM_MUSIC}
+     * @param index The volume index
+     * @param flags Flags like {@link AudioManager#FLAG_SHOW_UI}
+     * @see AudioManager#setStreamVolume(int, int, int)
+     */
+    void setStreamVolume(int streamType, int index, int flags);
+
+    /**
+     * Returns if anything is being played on the music stream.
+     * @return Returns 'true' if music is active
+     * @see AudioManager#isMusicActive()
+     */
+    boolean isMusicActive();
+
+    /**
+     * Returns if music is routed to a Bluetooth device.
+     * @return Returns 'true' if A2DP audio is on
+     * @see AudioManager#isBluetoothA2dpOn()
+     */
+    boolean isBluetoothA2dpOn();
+}
@@ -0,0 +1,15 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+/**
+ * The Bluetooth devices that are bonded with this device. On a device this is the
+ * {@link de.timosl.bluetoothvolumeadjust.util.BondedDeviceIndex} (see {@link AndroidDeviceRegistry}).
+ */
+public interface DeviceRegistry {
+
+    /**
+     * Returns the name of a bonded device.
+     * @param address The MAC-Address of the device
+     * @return The name of the device, or 'null' if it is not bonded or has no name
+     */
+    String getName(String address);
+}
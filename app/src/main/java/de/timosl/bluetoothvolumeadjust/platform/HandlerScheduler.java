@@ -0,0 +1,90 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link Scheduler} of a device, running all tasks on the thread of a {@link Handler}.
+ * Frame callbacks are delivered by the {@link Choreographer} of that thread, so the
+ * frame methods must be called on it.
+ */
+public class HandlerScheduler implements Scheduler {
+
+    /**
+     * The {@link Handler} all tasks are posted to.
+     */
+    private final Handler handler;
+
+    /**
+     * The {@link Choreographer.FrameCallback} wrapping each task that is waiting for
+     * the next frame, so it can be removed again. An entry is removed once its task
+     * has run or was removed. Only accessed on the thread of the {@link Handler}.
+     */
+    private final Map<Runnable, Choreographer.FrameCallback> frameCallbacks = new HashMap<>();
+
+    /**
+     * Creates a new {@link HandlerScheduler}.
+     * @param handler The {@link Handler} all tasks are posted to
+     */
+    public HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void postAtTime(Runnable task, Object token, long uptimeMillis) {
+        handler.postAtTime(task, token, uptimeMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public void removeCallbacksAndMessages(Object token) {
+        handler.removeCallbacksAndMessages(token);
+    }
+
+    @Override
+    public void postFrameCallback(final Runnable task) {
+        Choreographer.FrameCallback callback = frameCallbacks.get(task);
+        if(callback == null) {
+            callback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    frameCallbacks.remove(task);
+                    task.run();
+                }
+            };
+            frameCallbacks.put(task, callback);
+        }
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable task) {
+        Choreographer.FrameCallback callback = frameCallbacks.remove(task);
+        if(callback != null) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+/**
+ * Everything outside of the app the receiver logic depends on. On a device it is created
+ * by {@link AndroidPlatform#create(android.content.Context)}; other implementations let the
+ * receiver logic run on a plain JVM, e.g. in the simulator of the benchmarks.
+ */
+public final class Platform {
+
+    /**
+     * The {@link AudioSink} whose volumes are adjusted.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * The {@link PlaybackStarter} used to make the music stream active.
+     */
+    private final PlaybackStarter playbackStarter;
+
+    /**
+     * The {@link DeviceRegistry} of the bonded devices.
+     */
+    private final DeviceRegistry deviceRegistry;
+
+    /**
+     * The {@link Scheduler} all work is run on.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * Creates a new {@link Platform}.
+     * @param audioSink The {@link AudioSink} whose volumes are adjusted
+     * @param playbackStarter The {@link PlaybackStarter} used to make the music stream active.
+     *                        Must call its listeners on the thread of the {@link Scheduler}.
+     * @param deviceRegistry The {@link DeviceRegistry} of the bonded devices
+     * @param scheduler The {@link Scheduler} all work is run on
+     */
+    public Platform(AudioSink audioSink, PlaybackStarter playbackStarter, DeviceRegistry deviceRegistry, Scheduler scheduler) {
+        this.audioSink = audioSink;
+        this.playbackStarter = playbackStarter;
+        this.deviceRegistry = deviceRegistry;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the {@link AudioSink} whose volumes are adjusted.
+     * @return The {@link AudioSink}
+     */
+    public AudioSink getAudioSink() {
+        return audioSink;
+    }
+
+    /**
+     * Returns the {@link PlaybackStarter} used to make the music stream active.
+     * @return The {@link PlaybackStarter}
+     */
+    public PlaybackStarter getPlaybackStarter() {
+        return playbackStarter;
+    }
+
+    /**
+     * Returns the {@link DeviceRegistry} of the bonded devices.
+     * @return The {@link DeviceRegistry}
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    /**
+     * Returns the {@link Scheduler} all work is run on.
+     * @return The {@link Scheduler}
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,44 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+/**
+ * Starts a playback on the music stream, so the stream becomes active and its volume
+ * can be adjusted for the connected Bluetooth device. On a device this is the
+ * {@link de.timosl.bluetoothvolumeadjust.util.SilenceEngine}.
+ */
+public interface PlaybackStarter {
+
+    /**
+     * Notified once the playback is actually running and while it continues.
+     */
+    interface Listener {
+
+        /**
+         * Called once the first samples have been played.
+         */
+        void onPlaybackStarted();
+
+        /**
+         * Called every time another part of the playback (about 100ms) has been played,
+         * until the playback is stopped.
+         */
+        void onPlaybackProgress();
+    }
+
+    /**
+     * Prepares the playback ahead of time, so starting it later is fast.
+     * @return Returns 'true' if the playback is ready to be started
+     */
+    boolean prime();
+
+    /**
+     * Starts the playback until {@link #stop()} is called.
+     * @param listener The {@link Listener} to notify while the playback is running, or 'null'
+     * @return Returns 'true' if the playback has been started
+     */
+    boolean start(Listener listener);
+
+    /**
+     * Stops the playback.
+     */
+    void stop();
+}
@@ -0,0 +1,58 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+
+/**
+ * An {@link AudioSink} that records every call and its result as an
+ * {@link TraceRecorder#EVENT_AUDIO} event before forwarding it, so a trace holds what the
+ * audio system answered at which time. Recording does nothing unless the trace is open.
+ */
+public class RecordingAudioSink implements AudioSink {
+
+    /**
+     * The {@link AudioSink} all calls are forwarded to.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * Creates a new {@link RecordingAudioSink}.
+     * @param audioSink The {@link AudioSink} all calls are forwarded to
+     */
+    public RecordingAudioSink(AudioSink audioSink) {
+        this.audioSink = audioSink;
+    }
+
+    @Override
+    public int getStreamVolume(int streamType) {
+        int volume = audioSink.getStreamVolume(streamType);
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_GET_VOLUME, streamType, volume);
+        return volume;
+    }
+
+    @Override
+    public int getStreamMaxVolume(int streamType) {
+        int maxVolume = audioSink.getStreamMaxVolume(streamType);
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_GET_MAX_VOLUME, streamType, maxVolume);
+        return maxVolume;
+    }
+
+    @Override
+    public void setStreamVolume(int streamType, int index, int flags) {
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_SET_VOLUME, streamType, index);
+        audioSink.setStreamVolume(streamType, index, flags);
+    }
+
+    @Override
+    public boolean isMusicActive() {
+        boolean active = audioSink.isMusicActive();
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_MUSIC_ACTIVE, -1, active ? 1 : 0);
+        return active;
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        boolean on = audioSink.isBluetoothA2dpOn();
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_A2DP_ON, -1, on ? 1 : 0);
+        return on;
+    }
+}
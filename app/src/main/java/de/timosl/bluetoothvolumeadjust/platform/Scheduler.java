@@ -0,0 +1,61 @@
+package de.timosl.bluetoothvolumeadjust.platform;
+
+/**
+ * The clock and the thread the receiver logic runs on. All tasks are run one after another
+ * on that thread. On a device this is a {@link android.os.Handler} of the worker thread, together
+ * with {@link android.os.SystemClock#uptimeMillis()} and the {@link android.view.Choreographer}
+ * (see {@link HandlerScheduler}).
+ */
+public interface Scheduler {
+
+    /**
+     * Returns the current time.
+     * @return The time in milliseconds, on the clock of {@link android.os.SystemClock#uptimeMillis()}
+     */
+    long uptimeMillis();
+
+    /**
+     * Runs a task as soon as possible.
+     * @param task The task to run
+     */
+    void post(Runnable task);
+
+    /**
+     * Runs a task after a delay.
+     * @param task The task to run
+     * @param delayMillis The delay in milliseconds
+     */
+    void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * Runs a task at a given time.
+     * @param task The task to run
+     * @param token An object the task can be removed with by {@link #removeCallbacksAndMessages(Object)}
+     * @param uptimeMillis The time to run the task at, see {@link #uptimeMillis()}
+     */
+    void postAtTime(Runnable task, Object token, long uptimeMillis);
+
+    /**
+     * Removes all pending runs of a task.
+     * @param task The task
+     */
+    void removeCallbacks(Runnable task);
+
+    /**
+     * Removes all pending tasks posted with a token.
+     * @param token The token the tasks were posted with
+     */
+    void removeCallbacksAndMessages(Object token);
+
+    /**
+     * Runs a task once the next display frame begins.
+     * @param task The task to run
+     */
+    void postFrameCallback(Runnable task);
+
+    /**
+     * Removes a task waiting for the next display frame.
+     * @param task The task
+     */
+    void removeFrameCallback(Runnable task);
+}
@@ -0,0 +1,366 @@
+package de.timosl.bluetoothvolumeadjust.receivers;
+
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.timosl.bluetoothvolumeadjust.platform.Platform;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.RestoreStack;
+import de.timosl.bluetoothvolumeadjust.util.StreamVolumes;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+
+/**
+ * Executes {@link AdjustmentJob}s one after another on the single thread of the
+ * {@link Scheduler} of its {@link Platform}, so the {@link BluetoothIntentReceiver}
+ * can return right away. There is at most one queued job per device: a new job
+ * replaces the queued job for the same device and cancels the job that is still
+ * running for it.
+ * <p>
+ * A job is only run once the state of its device has not changed for a settle window.
+ * Devices that connect and disconnect several times in a row (as some car head units
+ * do) are therefore only handled once, for the state they ended up in.
+ * <p>
+ * Jobs of different devices may overlap, e.g. while one device waits for music and
+ * another one disconnects. The phase of each device is tracked by {@link ConnectionStates},
+ * and only one job at a time may wait for or move the music volume (see
+ * {@link #claimMusicStream(AdjustmentJob)}).
+ * <p>
+ * All jobs share a single lock for the queue and a single worker thread on purpose.
+ * The broadcasts all arrive on the main thread, so the lock is only ever contended by
+ * the worker taking a job off the queue. A job never blocks the worker: it waits for
+ * music and moves the volume through callbacks, so the jobs of other devices run in
+ * between. The music stream is shared by all devices anyway, and a single thread
+ * changing it keeps the changes of overlapping jobs in a well-defined order.
+ * <p>
+ * The executor only talks to the system through its {@link Platform}, so it can
+ * also run on a plain JVM, e.g. in the simulator of the benchmarks.
+ */
+public class AdjustmentExecutor {
+
+    /**
+     * The maximum number of queued jobs. If more jobs are queued, the oldest
+     * one is dropped.
+     */
+    private static final int MAX_QUEUED_JOBS = 16;
+
+    /**
+     * The applications {@link Context}.
+     */
+    private final Context context;
+
+    /**
+     * The {@link Platform} the jobs run on.
+     */
+    private final Platform platform;
+
+    /**
+     * The {@link Scheduler} of the worker thread.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The jobs that have been queued but not run yet, by the MAC-Address
+     * of their device and in the order they were queued.
+     */
+    private final LinkedHashMap<String, AdjustmentJob> queuedJobs = new LinkedHashMap<>();
+
+    /**
+     * The jobs that are running, by the MAC-Address of their device.
+     * Only accessed on the worker thread.
+     */
+    private final Map<String, AdjustmentJob> activeJobs = new HashMap<>();
+
+    /**
+     * The phase of each device. Changed by {@link #submit(AdjustmentJob, long)} on the
+     * thread the broadcasts are received on and by the jobs on the worker thread.
+     */
+    private final ConnectionStates connectionStates = new ConnectionStates();
+
+    /**
+     * The job that is waiting for or moving the music volume, or 'null'.
+     * Only accessed on the worker thread.
+     */
+    private AdjustmentJob musicStreamOwner;
+
+    /**
+     * The {@link StreamVolumes} shared by all jobs, or 'null' if they have not been
+     * needed yet. Only accessed on the worker thread.
+     */
+    private StreamVolumes streamVolumes;
+
+    /**
+     * The {@link VolumeLearner} observing the volume changes of the user, or 'null'
+     * if it has not been needed yet. Only accessed on the worker thread.
+     */
+    private VolumeLearner volumeLearner;
+
+    /**
+     * Creates a new {@link AdjustmentExecutor}.
+     * @param context The applications {@link Context}
+     * @param platform The {@link Platform} the jobs run on
+     */
+    public AdjustmentExecutor(Context context, Platform platform) {
+        this.context = context;
+        this.platform = platform;
+        this.scheduler = platform.getScheduler();
+    }
+
+    /**
+     * Queues the given job. A job for the same device that has not been run yet
+     * is dropped, since it is outdated now, and a job that is still running for
+     * the device is cancelled.
+     * @param job The {@link AdjustmentJob} to execute
+     * @param settleWindow The time in milliseconds the state of the device must not
+     *                     change before the job is run
+     */
+    public void submit(final AdjustmentJob job, long settleWindow) {
+        AdjustmentJob dropped = null;
+
+        synchronized (queuedJobs) {
+            // Move the device to its new phase in the order the broadcasts were received
+            ConnectionStates.Phase previousPhase = connectionStates.onBroadcast(job.getAddress(), job.getState());
+            job.onReceived(previousPhase, previousPhase == ConnectionStates.Phase.RESTORING || connectionStates.isRestoring());
+
+            // Replace the outdated job for this device
+            AdjustmentJob outdated = queuedJobs.remove(job.getAddress());
+            if(outdated != null) {
+                scheduler.removeCallbacksAndMessages(outdated);
+                job.supersede(outdated);
+                dropped = outdated;
+                L.i("(AdjustmentExecutor) The state of %s changed from %d to %d before it settled",job.getAddress(),outdated.getState(),job.getState());
+            }
+
+            // Keep the queue bounded
+            else if(queuedJobs.size() >= MAX_QUEUED_JOBS) {
+                Iterator<AdjustmentJob> iterator = queuedJobs.values().iterator();
+                final AdjustmentJob evicted = iterator.next();
+                iterator.remove();
+                scheduler.removeCallbacksAndMessages(evicted);
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onJobDropped(evicted);
+                    }
+                });
+                dropped = evicted;
+                L.w("(AdjustmentExecutor) Too many queued jobs, dropping the job for %s",dropped.getAddress());
+            }
+
+            queuedJobs.put(job.getAddress(), job);
+            long now = scheduler.uptimeMillis();
+            scheduler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    onStateChanged(job);
+                }
+            }, job, now);
+            scheduler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    runJob(job);
+                }
+            }, job, now + settleWindow);
+        }
+
+        // Release the broadcast of the job that will never run
+        if(dropped != null) {
+            dropped.finish();
+        }
+    }
+
+    /**
+     * Called on the worker thread as soon as a job has been queued, before its
+     * settle window has passed.
+     * @param job The {@link AdjustmentJob} that has been queued
+     */
+    private void onStateChanged(AdjustmentJob job) {
+        TraceRecorder.record(TraceRecorder.EVENT_STATE_CHANGED, job.getAddressValue(), job.getState());
+        job.captureSpeakerVolume();
+
+        // Changes of the volume are no longer meant for this device
+        if(volumeLearner != null) {
+            volumeLearner.stop(job.getAddress());
+        }
+
+        // The work of the running job for this device is outdated now
+        AdjustmentJob outdated = activeJobs.remove(job.getAddress());
+        if(outdated != null) {
+            L.i("(AdjustmentExecutor) Cancelling the outdated job for %s",job.getAddress());
+            outdated.cancel();
+        }
+
+        // The music stream moves away from the device on top once it disconnects,
+        // so a volume that is still being restored onto it is not needed anymore
+        if(job.getState() == BluetoothProfile.STATE_DISCONNECTED && musicStreamOwner != null
+                && job.getAddress().equals(Preferences.getRestoreStack(context).getTop())) {
+            L.i("(AdjustmentExecutor) Cancelling the job for %s, since %s has disconnected",musicStreamOwner.getAddress(),job.getAddress());
+            musicStreamOwner.cancel();
+        }
+
+        // The silence and the volume curves will most likely be needed once
+        // the device is connected, so have them ready by then
+        if(job.getState() == BluetoothProfile.STATE_CONNECTING) {
+            platform.getPlaybackStarter().prime();
+            getStreamVolumes().prepare();
+        }
+    }
+
+    /**
+     * Called on the worker thread once a job has been dropped from the full queue.
+     * The device leaves the phase the job had put it in, since no job will move it
+     * on, and what the job would have stored for restoring the volume is kept.
+     * @param job The {@link AdjustmentJob} that was dropped
+     */
+    private void onJobDropped(AdjustmentJob job) {
+        job.captureSpeakerVolume();
+        job.onDropped();
+
+        ConnectionStates.Phase phase = job.getState() == BluetoothProfile.STATE_DISCONNECTED
+                ? ConnectionStates.Phase.RESTORING : ConnectionStates.Phase.CONNECTING;
+        connectionStates.transition(job.getAddress(), phase, ConnectionStates.Phase.IDLE);
+    }
+
+    /**
+     * Runs the given job on the worker thread, unless it has been dropped.
+     * @param job The {@link AdjustmentJob} to run
+     */
+    private void runJob(AdjustmentJob job) {
+        synchronized (queuedJobs) {
+            if(queuedJobs.get(job.getAddress()) != job) {
+                return;
+            }
+            queuedJobs.remove(job.getAddress());
+        }
+
+        // A job that is still running for this device is outdated now
+        AdjustmentJob outdated = activeJobs.put(job.getAddress(), job);
+        if(outdated != null) {
+            L.i("(AdjustmentExecutor) Cancelling the outdated job for %s",job.getAddress());
+            outdated.cancel();
+        }
+
+        // A connected device is adjusted now, unless it has changed its state again
+        if(job.getState() == BluetoothProfile.STATE_CONNECTED
+                && !connectionStates.transition(job.getAddress(), ConnectionStates.Phase.CONNECTING, ConnectionStates.Phase.ADJUSTING)) {
+            L.i("(AdjustmentExecutor) The state of %s changed before its job was run",job.getAddress());
+            job.cancel();
+            return;
+        }
+
+        TraceRecorder.record(TraceRecorder.EVENT_JOB_STARTED, job.getAddressValue(), job.getState(), job.isConnectionStarted() ? 1 : 0, 0);
+        job.run();
+    }
+
+    /**
+     * Returns the applications {@link Context}.
+     * @return The {@link Context}
+     */
+    Context getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the {@link Platform} the jobs run on.
+     * @return The {@link Platform}
+     */
+    Platform getPlatform() {
+        return platform;
+    }
+
+    /**
+     * Returns the phase of each device.
+     * @return The {@link ConnectionStates}
+     */
+    ConnectionStates getConnectionStates() {
+        return connectionStates;
+    }
+
+    /**
+     * Returns the {@link StreamVolumes} shared by all jobs, so the maximum volumes are only
+     * asked for once per process. Must only be called on the worker thread.
+     * @return The {@link StreamVolumes}
+     */
+    StreamVolumes getStreamVolumes() {
+        if(streamVolumes == null) {
+            streamVolumes = new StreamVolumes(context, platform.getAudioSink());
+        }
+        return streamVolumes;
+    }
+
+    /**
+     * Makes the given job the only one that waits for or moves the music volume.
+     * The job that did so before is cancelled, since two jobs waiting for music or
+     * ramping the volume at the same time would fight over the stream. Must only be
+     * called on the worker thread.
+     * @param job The {@link AdjustmentJob} that is about to change the music volume
+     */
+    void claimMusicStream(AdjustmentJob job) {
+        AdjustmentJob previousOwner = musicStreamOwner;
+        musicStreamOwner = job;
+        if(previousOwner != null && previousOwner != job) {
+            L.i("(AdjustmentExecutor) The job for %s takes the music stream over from %s",job.getAddress(),previousOwner.getAddress());
+            previousOwner.cancel();
+        }
+    }
+
+    /**
+     * Called by a job once it has finished or was cancelled.
+     * @param job The {@link AdjustmentJob} that has finished
+     */
+    void onJobFinished(AdjustmentJob job) {
+        if(musicStreamOwner == job) {
+            musicStreamOwner = null;
+        }
+        if(activeJobs.get(job.getAddress()) != job) {
+            return;
+        }
+        activeJobs.remove(job.getAddress());
+
+        // Once the volume of a connected device has been set, the changes the user
+        // makes are the ones to remember, as long as the device owns the music stream
+        if(job.getState() == BluetoothProfile.STATE_CONNECTED) {
+            if(connectionStates.transition(job.getAddress(), ConnectionStates.Phase.ADJUSTING, ConnectionStates.Phase.ACTIVE)
+                    && isOnTop(job.getAddress())) {
+                getVolumeLearner().start(job.getAddress());
+            }
+        }
+
+        // The music stream belongs to the device that connected before, if it still is
+        else if(job.getState() == BluetoothProfile.STATE_DISCONNECTED) {
+            connectionStates.transition(job.getAddress(), ConnectionStates.Phase.RESTORING, ConnectionStates.Phase.IDLE);
+            String top = Preferences.getRestoreStack(context).getTop();
+            if(top != null && connectionStates.getPhase(top) == ConnectionStates.Phase.ACTIVE) {
+                getVolumeLearner().start(top);
+            }
+        }
+    }
+
+    /**
+     * Returns if a device owns the music stream, because it connected last.
+     * @param address The MAC-Address of the device
+     * @return Returns 'true' if the device is on top of the {@link RestoreStack},
+     *         or if no device is on it
+     */
+    private boolean isOnTop(String address) {
+        String top = Preferences.getRestoreStack(context).getTop();
+        return top == null || top.equals(address);
+    }
+
+    /**
+     * Returns the {@link VolumeLearner}. Must only be called on the worker thread.
+     * @return The {@link VolumeLearner}
+     */
+    private VolumeLearner getVolumeLearner() {
+        if(volumeLearner == null) {
+            volumeLearner = new VolumeLearner(context, scheduler, platform.getAudioSink(), getStreamVolumes());
+        }
+        return volumeLearner;
+    }
+}
@@ -0,0 +1,621 @@
+package de.timosl.bluetoothvolumeadjust.receivers;
+
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Platform;
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
+import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.LatencyStats;
+import de.timosl.bluetoothvolumeadjust.util.MusicActiveWaiter;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.RestoreStack;
+import de.timosl.bluetoothvolumeadjust.util.StreamVolumes;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+import de.timosl.bluetoothvolumeadjust.util.VolumeProfile;
+import de.timosl.bluetoothvolumeadjust.util.VolumeRamp;
+
+/**
+ * A connection state change of a Bluetooth device, received by the
+ * {@link BluetoothIntentReceiver} and executed by the {@link AdjustmentExecutor}.
+ * If the state changes again before the job is run, it is replaced by a new job
+ * that takes over what must not be lost (see {@link #supersede(AdjustmentJob)}).
+ * The job keeps the broadcast alive until all of its work is done, including
+ * waiting for music to be played on the device and moving the volume to its
+ * new value. It only talks to the system through the {@link Platform} of its
+ * {@link AdjustmentExecutor}.
+ */
+public class AdjustmentJob {
+
+    /**
+     * The time in milliseconds after which we abort waiting for music to start on
+     * the Bluetooth device.
+     */
+    private static final long MUSIC_TIMEOUT = 20000L;
+
+    /**
+     * The {@link AdjustmentExecutor} running this job.
+     */
+    private final AdjustmentExecutor executor;
+
+    /**
+     * The {@link Platform} of the {@link AdjustmentExecutor}.
+     */
+    private final Platform platform;
+
+    /**
+     * The applications {@link Context}.
+     */
+    private final Context context;
+
+    /**
+     * The MAC-Address of the device whose state has changed.
+     */
+    private final String address;
+
+    /**
+     * The new {@link BluetoothProfile} state of the device.
+     */
+    private final int state;
+
+    /**
+     * Run once this job has finished or was dropped, e.g. to finish the broadcast it was created for.
+     */
+    private final Runnable onFinished;
+
+    /**
+     * The MAC-Address of the device as a long, for the {@link TraceRecorder}.
+     */
+    private final long addressValue;
+
+    /**
+     * The uptime at which the broadcast was received.
+     */
+    private final long receivedAt;
+
+    /**
+     * Records how long the phases of a CONNECTED job took, or 'null' for other jobs.
+     */
+    private LatencyStats.Recorder latencyRecorder;
+
+    /**
+     * The media volume of the speaker when the first CONNECTING or CONNECTED state of this
+     * job (or of the jobs it has superseded) was received, or '-1' if music was already
+     * routed to a Bluetooth device by then. It is taken as soon as the worker thread sees
+     * the job (see {@link #captureSpeakerVolume()}), since the media stream switches to the
+     * Bluetooth device soon after. Only accessed on the worker thread.
+     */
+    private int receivedSpeakerVolume = -1;
+
+    /**
+     * Set if a volume was being restored when this job was received, so the speaker
+     * volume was still on its way and is not taken.
+     */
+    private boolean restoringOnReceipt;
+
+    /**
+     * The job this one has replaced before it was run, or 'null'. Its speaker volume is
+     * taken over on the worker thread, unless this job has already been seen there.
+     */
+    private AdjustmentJob superseded;
+
+    /**
+     * Set if the device was not connected before this job (or one of the jobs it has
+     * superseded) was received, so the volume to restore must be stored.
+     */
+    private boolean connectionStarted;
+
+    /**
+     * The {@link MusicActiveWaiter} this job is waiting on, or 'null'.
+     */
+    private MusicActiveWaiter waiter;
+
+    /**
+     * The {@link VolumeRamp} moving the volume, or 'null' if no ramp is running.
+     */
+    private VolumeRamp ramp;
+
+    /**
+     * Set once the job has been started by the {@link AdjustmentExecutor}.
+     */
+    private boolean started;
+
+    /**
+     * Set once the job has finished or was cancelled.
+     */
+    private boolean finished;
+
+    /**
+     * Creates a new {@link AdjustmentJob}.
+     * @param executor The {@link AdjustmentExecutor} the job will be submitted to
+     * @param address The MAC-Address of the device whose state has changed
+     * @param state The new {@link BluetoothProfile} state of the device,
+     *              one of the states for which {@link #isHandledState(int)} is 'true'
+     * @param onFinished Run once the job has finished or was dropped, e.g. to finish the broadcast
+     */
+    public AdjustmentJob(AdjustmentExecutor executor, String address, int state, Runnable onFinished) {
+        this.executor = executor;
+        this.platform = executor.getPlatform();
+        this.context = executor.getContext();
+        this.address = address;
+        this.state = state;
+        this.onFinished = onFinished;
+        this.addressValue = DeviceProfileStore.parseAddress(address);
+        this.receivedAt = platform.getScheduler().uptimeMillis();
+    }
+
+    /**
+     * Returns if a job is created for a connection state. All other states are ignored.
+     * @param state The new {@link BluetoothProfile} state of a device
+     * @return Returns 'true' if the state is handled
+     */
+    public static boolean isHandledState(int state) {
+        return state == BluetoothProfile.STATE_CONNECTING
+                || state == BluetoothProfile.STATE_CONNECTED
+                || state == BluetoothProfile.STATE_DISCONNECTED;
+    }
+
+    /**
+     * Returns the MAC-Address of the device this job was created for.
+     * @return The MAC-Address of the device
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the MAC-Address of the device this job was created for as a long.
+     * @return The MAC-Address as returned by {@link DeviceProfileStore#parseAddress(String)}
+     */
+    long getAddressValue() {
+        return addressValue;
+    }
+
+    /**
+     * Returns the new {@link BluetoothProfile} state of the device.
+     * @return The state of the device
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Returns if the device was not connected before this job was received.
+     * @return Returns 'true' if the volume to restore is stored by this job
+     */
+    boolean isConnectionStarted() {
+        return connectionStarted;
+    }
+
+    /**
+     * Called by the {@link AdjustmentExecutor} once the broadcast of this job has moved
+     * the device to its new {@link ConnectionStates.Phase}.
+     * @param previousPhase The {@link ConnectionStates.Phase} the device was in before
+     * @param restoring Set if the volume was being restored for this or another device
+     */
+    void onReceived(ConnectionStates.Phase previousPhase, boolean restoring) {
+        // Store the media volume, but only when the device was not connected. Once it
+        // is connected the volume has already been changed by us
+        connectionStarted = state != BluetoothProfile.STATE_DISCONNECTED
+                && (previousPhase == ConnectionStates.Phase.IDLE || previousPhase == ConnectionStates.Phase.RESTORING);
+
+        // While the volume is being restored, the speaker volume is still on its way
+        restoringOnReceipt = restoring;
+    }
+
+    /**
+     * Called when this job replaces the given job that has not been run yet.
+     * Any work of the older job that must not be lost is taken over.
+     * @param job The {@link AdjustmentJob} replaced by this one
+     */
+    void supersede(AdjustmentJob job) {
+        // The speaker volume taken at the first state is needed for restoring
+        // it later, no matter which states followed. It is taken over on the
+        // worker thread, where it is taken
+        superseded = job;
+        connectionStarted |= job.connectionStarted;
+    }
+
+    /**
+     * Takes the media volume of the speaker, if the device is being connected and music
+     * is not routed to a Bluetooth device yet. Called on the worker thread as soon as the
+     * job has been queued, so the receiver does not have to ask the audio system.
+     */
+    void captureSpeakerVolume() {
+        // The volume taken for the first state of the jobs this one has replaced wins
+        for(AdjustmentJob job = superseded; job != null; job = job.superseded) {
+            if(job.receivedSpeakerVolume != -1) {
+                receivedSpeakerVolume = job.receivedSpeakerVolume;
+            }
+        }
+        superseded = null;
+
+        if(receivedSpeakerVolume != -1 || restoringOnReceipt || state == BluetoothProfile.STATE_DISCONNECTED) {
+            return;
+        }
+        AudioSink audioSink = platform.getAudioSink();
+        if(!audioSink.isBluetoothA2dpOn()) {
+            receivedSpeakerVolume = audioSink.getStreamVolume(AudioManager.STREAM_MUSIC);
+        }
+    }
+
+    /**
+     * Runs this job on the worker thread of the {@link AdjustmentExecutor}.
+     */
+    void run() {
+        started = true;
+        if(state == BluetoothProfile.STATE_CONNECTED) {
+            latencyRecorder = LatencyStats.get(context).recorder(address);
+            recordPhase(LatencyStats.PHASE_JOB_STARTED);
+        }
+
+        // Store the volume to restore once the device disconnects again
+        if(state != BluetoothProfile.STATE_DISCONNECTED && connectionStarted) {
+            if(state == BluetoothProfile.STATE_CONNECTING) {
+                L.i("(AdjustmentJob) The device %s (%s) is now CONNECTING",getDeviceName(),address);
+            }
+            onDeviceConnecting(context);
+        }
+
+        // Perform the necessary actions when a device is CONNECTED
+        if(state == BluetoothProfile.STATE_CONNECTED) {
+            L.i("(AdjustmentJob) The device %s (%s) is now CONNECTED",getDeviceName(),address);
+            onDeviceConnected(context);
+        }
+
+        // Perform the necessary actions when a device is DISCONNECTED
+        if(state == BluetoothProfile.STATE_DISCONNECTED) {
+            L.i("(AdjustmentJob) The device %s (%s) is now DISCONNECTING",getDeviceName(),address);
+            onDeviceDisconnected(context);
+        }
+
+        // Unless we are waiting for music or the volume is still moving, we are done
+        if(waiter == null && ramp == null) {
+            finish();
+        }
+    }
+
+    /**
+     * Called on the worker thread once this job has been dropped without being run, since
+     * too many jobs were queued. The volume to restore is still stored for a device that
+     * is being connected, so it is restored once the device disconnects. A device that
+     * disconnected keeps its entry, so the volume is restored on its next disconnect.
+     */
+    void onDropped() {
+        if(state != BluetoothProfile.STATE_DISCONNECTED && connectionStarted) {
+            L.w("(AdjustmentJob) The job for %s was dropped, only storing the volume to restore",address);
+            onDeviceConnecting(context);
+        } else if(state == BluetoothProfile.STATE_DISCONNECTED) {
+            L.w("(AdjustmentJob) The job for %s was dropped, keeping the volume to restore",address);
+        }
+    }
+
+    /**
+     * Cancels this job, e.g. because a newer job for the same device has started.
+     */
+    void cancel() {
+        finish();
+    }
+
+    /**
+     * Marks this job as finished, stops waiting for music and releases the broadcast.
+     */
+    void finish() {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        if(waiter != null) {
+            waiter.cancel();
+        }
+        if(ramp != null) {
+            ramp.cancel();
+        }
+        if(started) {
+            TraceRecorder.record(TraceRecorder.EVENT_JOB_FINISHED, addressValue, state, (int) (platform.getScheduler().uptimeMillis() - receivedAt), 0);
+            executor.onJobFinished(this);
+
+            // The process may be killed once the broadcast is finished,
+            // so everything we changed has to be on disk by then
+            DeviceProfileStore.get(context).flush();
+            if(latencyRecorder != null) {
+                LatencyStats.get(context).save();
+            }
+        }
+        onFinished.run();
+    }
+
+    /**
+     * Called when a device is being connected. (This usually means the
+     * media stream has not yet switched to Bluetooth)
+     * @param context The applications {@link Context}
+     */
+    private void onDeviceConnecting(Context context) {
+        // Only the volume of managed devices is restored
+        if(DeviceManagment.getDeviceVolume(context,address) == -1f) {
+            return;
+        }
+
+        // If music was still played on the speaker, no other device owns the music stream.
+        // Entries left on the stack are outdated then, e.g. because the disconnect of a
+        // device was missed while shutting down
+        RestoreStack stack = Preferences.getRestoreStack(context);
+        if(receivedSpeakerVolume != -1 && !stack.isEmpty()) {
+            L.w("(AdjustmentJob) Music was played on the speaker, dropping the outdated volumes %s",stack);
+            stack = RestoreStack.EMPTY.withSpeakerVolume(stack.getSpeakerVolume());
+        }
+
+        // Once the device is on the stack, it keeps the volume from before it was first connected
+        if(stack.contains(address)) {
+            L.i("(AdjustmentJob) Already storing media volume %d for %s",stack.getVolume(address),address);
+            return;
+        }
+
+        // Store the media volume from before the device was connected so we can reset it later
+        // (if needed). While another device is connected, that is the volume set for it. Otherwise
+        // it is the speaker volume, which is only known if it was taken before the stream switched
+        int currentMediaVolume;
+        if(!stack.isEmpty()) {
+            currentMediaVolume = getTargetVolume(stack.getTop());
+        } else if(receivedSpeakerVolume != -1) {
+            currentMediaVolume = receivedSpeakerVolume;
+        } else {
+            currentMediaVolume = stack.getSpeakerVolume();
+        }
+        if(currentMediaVolume == -1) {
+            currentMediaVolume = platform.getAudioSink().getStreamVolume(AudioManager.STREAM_MUSIC);
+        }
+
+        RestoreStack newStack = stack.push(address, currentMediaVolume);
+        if(stack.isEmpty() && receivedSpeakerVolume != -1) {
+            newStack = newStack.withSpeakerVolume(receivedSpeakerVolume);
+        }
+        Preferences.setRestoreStack(context,newStack);
+
+        int maxMediaVolume = executor.getStreamVolumes().getMaxVolume(VolumeProfile.STREAM_MUSIC);
+        L.i("(AdjustmentJob) Storing current media volume: %d out of %d (%d devices connected)",currentMediaVolume,maxMediaVolume,newStack.size());
+    }
+
+    /**
+     * Called when a registered device is now connected.
+     * @param context The applications {@link Context}
+     */
+    private void onDeviceConnected(Context context) {
+        AudioSink audioSink = platform.getAudioSink();
+
+        // Retrieve the volumes the user has set for this device
+        VolumeProfile profile = DeviceManagment.getDeviceProfile(context,address);
+        recordPhase(LatencyStats.PHASE_STORE_LOOKUP);
+
+        // Do not change the volume if there is no value set for this device
+        if(profile == null) {
+            L.w("(AdjustmentJob) No volume set for device %s (%s). Is this device managed?",getDeviceName(),address);
+            return;
+        }
+
+        // All streams but music can be changed right away in a single pass
+        StreamVolumes streamVolumes = executor.getStreamVolumes();
+        int changedStreams = streamVolumes.apply(profile, VolumeProfile.STREAM_MUSIC, 0);
+        TraceRecorder.record(TraceRecorder.EVENT_STREAMS_APPLIED, addressValue, changedStreams);
+        L.i("(AdjustmentJob) Applied profile %s, changed %d other streams",profile,changedStreams);
+
+        // Convert the users value to a format the AudioManager can use
+        int newVolume = streamVolumes.getTargetVolume(profile, VolumeProfile.STREAM_MUSIC);
+        if(newVolume == -1) {
+            L.i("(AdjustmentJob) No music volume set for device %s (%s)",getDeviceName(),address);
+            return;
+        }
+
+        // A device that connected later owns the music stream
+        String top = Preferences.getRestoreStack(context).getTop();
+        if(top != null && !top.equals(address)) {
+            L.i("(AdjustmentJob) The music stream belongs to %s, which connected later",top);
+            return;
+        }
+
+        // Take the music stream over before checking for music, since the silence
+        // played for the job we take it from stops with it
+        executor.claimMusicStream(this);
+
+        // If we're already playing music on the Bluetooth device, we can adjust the volume right away
+        if(audioSink.isBluetoothA2dpOn() && audioSink.isMusicActive()) {
+            recordPhase(LatencyStats.PHASE_MUSIC_ACTIVE);
+            TraceRecorder.record(TraceRecorder.EVENT_MUSIC_ACTIVE, addressValue, 0);
+            adjustAudio(context,newVolume);
+        }
+
+        // If there is currently no music playing, adjusting the volume of the Music-Channel
+        // will not affect the volume for the bluetooth device. Android handles music volume over
+        // bluetooth differently and will only allow changes when music is actively being played
+        // over bluetooth.
+        else {
+            playSilenceAndAdjustVolume(context, newVolume);
+        }
+    }
+
+    /**
+     * Called when a registered device is now disconnected.
+     * @param context The applications {@link Context}
+     */
+    private void onDeviceDisconnected(Context context) {
+        // Do not change the volume if we have not stored one for the device
+        RestoreStack stack = Preferences.getRestoreStack(context);
+        if(!stack.contains(address)) {
+            L.i("(AdjustmentJob) The device %s (%s) is not managed by us, not resetting volume",getDeviceName(),address);
+            return;
+        }
+        int previousVolume = stack.getVolume(address);
+        RestoreStack remaining = stack.without(address);
+
+        // The device may have been removed while it was connected
+        if(DeviceManagment.getDeviceVolume(context,address) == -1f) {
+            L.i("(AdjustmentJob) The device %s (%s) is not managed by us anymore, not resetting volume",getDeviceName(),address);
+            Preferences.setRestoreStack(context,remaining);
+            return;
+        }
+
+        // Reset the media volume if the user enabled the corresponding setting
+        if(!Preferences.getResetVolumeOnDisconnect(context)) {
+            L.i("(AdjustmentJob) Not restoring volume on user request");
+            Preferences.setRestoreStack(context,remaining);
+            return;
+        }
+
+        // The music stream still belongs to a device that connected later. Its
+        // entry takes over the volume, which is restored once it disconnects
+        if(!address.equals(stack.getTop())) {
+            L.i("(AdjustmentJob) Device disconnected, %s connected later and restores volume %d",stack.getTop(),previousVolume);
+            Preferences.setRestoreStack(context,remaining);
+            return;
+        }
+
+        // The device below has disconnected as well, its own job restores the volume
+        String below = remaining.getTop();
+        if(below != null && executor.getConnectionStates().getPhase(below) == ConnectionStates.Phase.RESTORING) {
+            L.i("(AdjustmentJob) Device disconnected, %s has disconnected as well and restores volume %d",below,previousVolume);
+            Preferences.setRestoreStack(context,remaining);
+            return;
+        }
+
+        // Once the last device is gone, the volume is the speaker volume
+        if(remaining.isEmpty()) {
+            remaining = remaining.withSpeakerVolume(previousVolume);
+        }
+        Preferences.setRestoreStack(context,remaining);
+        L.i("(AdjustmentJob) Device disconnected, restoring volume back to %d on user request",previousVolume);
+        executor.claimMusicStream(this);
+
+        // Check if there is already music playing on the device. If yes, we can change
+        // the volume right away.
+        if(platform.getAudioSink().isMusicActive()) {
+            adjustAudio(context,previousVolume);
+        }
+
+        // If there is no music playing, we just play a silent track to ensure the correct
+        // audio stream will be changed.
+        else {
+            playSilenceAndAdjustVolume(context,previousVolume);
+        }
+    }
+
+    /**
+     * Adjusts the volume of the music audio stream with the given value. The volume is
+     * moved to the new value by a {@link VolumeRamp}, if the user enabled it. In that
+     * case the job finishes once the ramp is done.
+     * @param context The applications {@link Context}
+     * @param volume The volume to set. Using '-1' will not adjust the volume.
+     */
+    private void adjustAudio(Context context, final int volume) {
+        // Check if a volume has been set
+        if(volume == -1f) {
+            L.w("(AdjustmentJob) No valid volume passed to adjustAudio() (%d given)",volume);
+            return;
+        }
+
+        recordPhase(LatencyStats.PHASE_VOLUME_SET);
+
+        // Check the user preference if the volume indicator should be displayed
+        int showIndicatorFlag = Preferences.getShowIndicatorEnabled(context) ? AudioManager.FLAG_SHOW_UI : 0;
+
+        // Move the volume of the music stream to its new value
+        int rampDuration = Preferences.getRampDuration(context);
+        TraceRecorder.record(TraceRecorder.EVENT_VOLUME_SET, addressValue, volume, rampDuration, 0);
+        VolumeRamp newRamp = new VolumeRamp(platform.getAudioSink(), platform.getScheduler());
+        boolean ramping = newRamp.start(volume, rampDuration, Preferences.getRampCurve(context), showIndicatorFlag, new Runnable() {
+            @Override
+            public void run() {
+                L.i("(AdjustmentJob) The volume has reached %d",volume);
+                TraceRecorder.record(TraceRecorder.EVENT_VOLUME_REACHED, addressValue, volume);
+                finish();
+            }
+        });
+        if(ramping) {
+            ramp = newRamp;
+        } else {
+            TraceRecorder.record(TraceRecorder.EVENT_VOLUME_REACHED, addressValue, volume);
+        }
+    }
+
+    /**
+     * Adjusts the volume of the music audio stream with the given value while playing
+     * a silent audio track. This ensures that the correct audio stream will be changed.
+     * This could otherwise be a problem with some devices.
+     * @param context The applications {@link Context}
+     * @param volume The volume to set. Using '-1' will not adjust the volume.
+     */
+    private void playSilenceAndAdjustVolume(final Context context, final int volume) {
+        // Check if a volume has been set
+        if(volume == -1) {
+            L.w("(AdjustmentJob) No valid volume passed to playSilenceAndAdjustVolume() (%d given)",volume);
+            return;
+        }
+
+        // Wait until music is being played on the Bluetooth device. Silence
+        // will be played if there is no music playing yet. The job stays
+        // active until the waiter reports back
+        waiter = new MusicActiveWaiter(platform.getAudioSink(), platform.getPlaybackStarter(), platform.getScheduler(), MUSIC_TIMEOUT);
+        waiter.start(new MusicActiveWaiter.Callback() {
+            @Override
+            public void onSilenceStarted(long waitedMillis) {
+                recordPhase(LatencyStats.PHASE_SILENCE_STARTED);
+                TraceRecorder.record(TraceRecorder.EVENT_SILENCE_STARTED, addressValue, (int) waitedMillis);
+            }
+
+            @Override
+            public void onMusicActive(long waitedMillis) {
+                recordPhase(LatencyStats.PHASE_MUSIC_ACTIVE);
+                TraceRecorder.record(TraceRecorder.EVENT_MUSIC_ACTIVE, addressValue, (int) waitedMillis);
+                if(L.isEnabled()) {
+                    L.i("(AdjustmentJob) Waited %dms and setting volume to %d",waitedMillis,volume);
+                }
+
+                // If we ended up here, there should be music playing on the Bluetooth device,
+                // so we can finally adjust the volume
+                adjustAudio(context,volume);
+                if(ramp == null) {
+                    finish();
+                }
+            }
+
+            @Override
+            public void onTimeout(long waitedMillis) {
+                TraceRecorder.record(TraceRecorder.EVENT_MUSIC_TIMEOUT, addressValue, (int) waitedMillis);
+                if(L.isEnabled()) {
+                    L.w("(AdjustmentJob) There was no music playing after %dms, not adjusting volume",waitedMillis);
+                }
+                finish();
+            }
+        });
+    }
+
+    /**
+     * Returns the music volume set for a device.
+     * @param address The MAC-Address of the device
+     * @return The volume index, or '-1' if no music volume is set for the device
+     */
+    private int getTargetVolume(String address) {
+        VolumeProfile profile = DeviceManagment.getDeviceProfile(context,address);
+        return profile != null ? executor.getStreamVolumes().getTargetVolume(profile, VolumeProfile.STREAM_MUSIC) : -1;
+    }
+
+    /**
+     * Records that a phase of a CONNECTED job has ended. Does nothing for other jobs.
+     * @param phase The phase, one of the PHASE_ constants of {@link LatencyStats}
+     */
+    private void recordPhase(int phase) {
+        if(latencyRecorder != null) {
+            latencyRecorder.record(phase, platform.getScheduler().uptimeMillis() - receivedAt);
+        }
+    }
+
+    /**
+     * Returns the name of the device for the log.
+     * @return The name of the device, or 'null' if it is not known
+     */
+    private String getDeviceName() {
+        return L.isEnabled() ? platform.getDeviceRegistry().getName(address) : null;
+    }
+}
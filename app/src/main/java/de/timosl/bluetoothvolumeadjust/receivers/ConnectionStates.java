@@ -0,0 +1,126 @@
+package de.timosl.bluetoothvolumeadjust.receivers;
+
+import android.bluetooth.BluetoothProfile;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The phase each Bluetooth device is in, from the receivers point of view. The phase is
+ * changed by the broadcasts on the main thread and by the jobs on the worker thread, so
+ * every change is an atomic transition from an expected phase. A transition that finds
+ * another phase tells the caller that a newer state change has overtaken it.
+ * <pre>
+ * IDLE --(CONNECTING/CONNECTED)--&gt; CONNECTING --(job runs)--&gt; ADJUSTING --(job done)--&gt; ACTIVE
+ *   ^                                                                                     |
+ *   +---(job done)--- RESTORING &lt;--(DISCONNECTED, from any phase)------------------------+
+ * </pre>
+ * Devices that have not been seen since the process was started are IDLE.
+ */
+class ConnectionStates {
+
+    /**
+     * The phases of a device.
+     */
+    enum Phase {
+
+        /**
+         * The device is not connected, or its disconnect has been handled.
+         */
+        IDLE,
+
+        /**
+         * The device is being connected, its job has not run yet.
+         */
+        CONNECTING,
+
+        /**
+         * The job for the connected device is setting its volumes.
+         */
+        ADJUSTING,
+
+        /**
+         * The volumes of the connected device have been set.
+         */
+        ACTIVE,
+
+        /**
+         * The device has disconnected and the volume is being restored.
+         */
+        RESTORING
+    }
+
+    /**
+     * The phase of each device that has been seen, by its MAC-Address. Entries are
+     * never removed, since there are only as many as there are bonded devices.
+     */
+    private final ConcurrentHashMap<String, AtomicReference<Phase>> phases = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the phase of a device.
+     * @param address The MAC-Address of the device
+     * @return The {@link Phase} of the device
+     */
+    Phase getPhase(String address) {
+        AtomicReference<Phase> phase = phases.get(address);
+        return phase != null ? phase.get() : Phase.IDLE;
+    }
+
+    /**
+     * Returns if the volume is being restored for any device.
+     * @return Returns 'true' if a device is RESTORING
+     */
+    boolean isRestoring() {
+        for(AtomicReference<Phase> phase : phases.values()) {
+            if(phase.get() == Phase.RESTORING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a device to the phase for a new connection state. Called for every
+     * broadcast, in the order they were received.
+     * @param address The MAC-Address of the device
+     * @param state The new {@link BluetoothProfile} state of the device
+     * @return The {@link Phase} the device was in before
+     */
+    Phase onBroadcast(String address, int state) {
+        Phase next = state == BluetoothProfile.STATE_DISCONNECTED ? Phase.RESTORING : Phase.CONNECTING;
+        AtomicReference<Phase> phase = getReference(address);
+        Phase previous;
+        do {
+            previous = phase.get();
+        } while(!phase.compareAndSet(previous, next));
+        return previous;
+    }
+
+    /**
+     * Moves a device from one phase to another, unless it has moved on in the meantime.
+     * @param address The MAC-Address of the device
+     * @param from The {@link Phase} the device is expected to be in
+     * @param to The new {@link Phase}
+     * @return Returns 'true' if the device was in the expected phase and has been moved
+     */
+    boolean transition(String address, Phase from, Phase to) {
+        return getReference(address).compareAndSet(from, to);
+    }
+
+    /**
+     * Returns the phase of a device, adding it as IDLE if it has not been seen yet.
+     * @param address The MAC-Address of the device
+     * @return The {@link AtomicReference} holding the {@link Phase} of the device
+     */
+    private AtomicReference<Phase> getReference(String address) {
+        AtomicReference<Phase> phase = phases.get(address);
+        if(phase == null) {
+            AtomicReference<Phase> added = new AtomicReference<>(Phase.IDLE);
+            phase = phases.putIfAbsent(address, added);
+            if(phase == null) {
+                phase = added;
+            }
+        }
+        return phase;
+    }
+}
@@ -0,0 +1,219 @@
+package de.timosl.bluetoothvolumeadjust.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
+import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.StreamVolumes;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+import de.timosl.bluetoothvolumeadjust.util.VolumeProfile;
+
+/**
+ * Learns the music volume of a connected device from the changes the user makes by hand,
+ * so the next connect restores the volume the user actually listened at.
+ * <p>
+ * While a managed device is connected and its volume has been set, the system broadcasts
+ * about volume changes are observed. Only the last value is stored, once the user has
+ * stopped changing the volume for {@link #QUIET_PERIOD} milliseconds or the device changes
+ * its state, so dragging the volume rocker does not write anything per step.
+ * Only used on the thread of the {@link Scheduler} of the {@link AdjustmentExecutor};
+ * the broadcasts are received on the main thread and handed over to it.
+ */
+class VolumeLearner {
+
+    /**
+     * The broadcast sent by the system when the volume of a stream has changed.
+     * Not part of the public API, but sent by all Android versions we support.
+     */
+    private static final String ACTION_VOLUME_CHANGED = "android.media.VOLUME_CHANGED_ACTION";
+
+    /**
+     * The extra holding the stream type of a {@link #ACTION_VOLUME_CHANGED} broadcast.
+     */
+    private static final String EXTRA_VOLUME_STREAM_TYPE = "android.media.EXTRA_VOLUME_STREAM_TYPE";
+
+    /**
+     * The extra holding the new volume of a {@link #ACTION_VOLUME_CHANGED} broadcast.
+     */
+    private static final String EXTRA_VOLUME_STREAM_VALUE = "android.media.EXTRA_VOLUME_STREAM_VALUE";
+
+    /**
+     * The time in milliseconds the volume must not change before it is stored.
+     */
+    private static final long QUIET_PERIOD = 3000L;
+
+    /**
+     * The applications {@link Context}.
+     */
+    private final Context context;
+
+    /**
+     * The {@link Scheduler} of the worker thread.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The {@link StreamVolumes} used for converting between volumes and fractions.
+     */
+    private final StreamVolumes streamVolumes;
+
+    /**
+     * The {@link AudioSink} used for checking where music is played.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * The MAC-Address of the device whose volume is learned, or 'null'.
+     */
+    private String address;
+
+    /**
+     * The last music volume the user has set that has not been stored yet, or '-1'.
+     */
+    private int pendingVolume = -1;
+
+    /**
+     * Receives the volume changes while a device is learned and hands
+     * those of the music stream over to the worker thread.
+     */
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if(intent.getIntExtra(EXTRA_VOLUME_STREAM_TYPE, -1) != AudioManager.STREAM_MUSIC) {
+                return;
+            }
+            final int volume = intent.getIntExtra(EXTRA_VOLUME_STREAM_VALUE, -1);
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onVolumeChanged(volume);
+                }
+            });
+        }
+    };
+
+    /**
+     * Stores the pending volume once the user has stopped changing it.
+     */
+    private final Runnable storeTask = new Runnable() {
+        @Override
+        public void run() {
+            storePendingVolume();
+        }
+    };
+
+    /**
+     * Creates a new {@link VolumeLearner}.
+     * @param context The applications {@link Context}
+     * @param scheduler The {@link Scheduler} of the worker thread
+     * @param audioSink The {@link AudioSink} whose volume is learned
+     * @param streamVolumes The {@link StreamVolumes} shared by all jobs
+     */
+    VolumeLearner(Context context, Scheduler scheduler, AudioSink audioSink, StreamVolumes streamVolumes) {
+        this.context = context;
+        this.scheduler = scheduler;
+        this.audioSink = audioSink;
+        this.streamVolumes = streamVolumes;
+    }
+
+    /**
+     * Starts learning the volume of a device, if it is managed and the user enabled it.
+     * Learning another device stops.
+     * @param address The MAC-Address of the connected device
+     */
+    void start(String address) {
+        if(address.equals(this.address)) {
+            return;
+        }
+        stop();
+
+        if(!Preferences.getLearnVolume(context) || DeviceManagment.getDeviceVolume(context, address) == -1f) {
+            return;
+        }
+
+        L.i("(VolumeLearner) Learning the volume of %s",address);
+        this.address = address;
+        context.registerReceiver(receiver, new IntentFilter(ACTION_VOLUME_CHANGED));
+    }
+
+    /**
+     * Stops learning the volume of a device, storing the last change right away.
+     * Does nothing if another device is learned.
+     * @param address The MAC-Address of the device whose state has changed
+     */
+    void stop(String address) {
+        if(address.equals(this.address)) {
+            stop();
+        }
+    }
+
+    /**
+     * Stops learning, storing the last change right away.
+     */
+    private void stop() {
+        if(address == null) {
+            return;
+        }
+        scheduler.removeCallbacks(storeTask);
+        storePendingVolume();
+        context.unregisterReceiver(receiver);
+        address = null;
+    }
+
+    /**
+     * Called on the worker thread when the volume of the music stream has changed.
+     * @param volume The new volume
+     */
+    private void onVolumeChanged(int volume) {
+        if(address == null) {
+            return;
+        }
+
+        // Once music is no longer played on the device (e.g. because it is
+        // disconnecting) the changes are not meant for it
+        if(!audioSink.isBluetoothA2dpOn()) {
+            return;
+        }
+
+        // Wait until the user has stopped changing the volume
+        pendingVolume = volume;
+        scheduler.removeCallbacks(storeTask);
+        scheduler.postDelayed(storeTask, QUIET_PERIOD);
+    }
+
+    /**
+     * Stores the pending volume in the {@link VolumeProfile} of the learned device.
+     */
+    private void storePendingVolume() {
+        int volume = pendingVolume;
+        pendingVolume = -1;
+        if(volume < 0 || address == null) {
+            return;
+        }
+
+        // The device may have been removed by the user in the meantime
+        VolumeProfile profile = DeviceManagment.getDeviceProfile(context, address);
+        if(profile == null) {
+            return;
+        }
+
+        // Keep the stored value if it already results in this volume (e.g. because
+        // we have set it ourselves), since converting it back may not be exact
+        if(streamVolumes.getTargetVolume(profile, VolumeProfile.STREAM_MUSIC) == volume) {
+            return;
+        }
+
+        float fraction = streamVolumes.getProfileVolume(volume, VolumeProfile.STREAM_MUSIC);
+        DeviceManagment.addDevice(context, address, profile.withVolume(VolumeProfile.STREAM_MUSIC, fraction));
+        L.i("(VolumeLearner) Learned the volume %d for %s",volume,address);
+        TraceRecorder.record(TraceRecorder.EVENT_VOLUME_LEARNED, DeviceProfileStore.parseAddress(address), volume);
+    }
+}
@@ -1,11 +1,16 @@
 package de.timosl.bluetoothvolumeadjust.ui;
 
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceFragment;
 
 import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.MainThreadWatchdog;
 import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
 import de.timosl.bluetoothvolumeadjust.R;
 
 /**
@@ -27,6 +32,9 @@ public class CustomPreferenceFragment extends PreferenceFragment implements Shar
 
         // Register ourselves as a preference change listener
         getPreferenceScreen().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+
+        // Show what the watchdog has recorded so far
+        showDiagnosticsSummary();
     }
 
     @Override
@@ -41,9 +49,67 @@ public class CustomPreferenceFragment extends PreferenceFragment implements Shar
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 
         // If the ENABLE_DEBUGGING key was changed and is now disabled, clear the debug log
-        // to prevent privacy leaks
-        if (Preferences.KEY_ENABLE_DEBUGGING.equals(key) && !Preferences.getEnableDebugging(getActivity())) {
+        // and stop recording the trace to prevent privacy leaks. The value is read from the
+        // SharedPreferences directly, since the cached value might not have been updated yet
+        if (Preferences.KEY_ENABLE_DEBUGGING.equals(key) && !sharedPreferences.getBoolean(key, false)) {
             L.clearLog();
+            TraceRecorder.close();
+            MainThreadWatchdog.uninstall();
+            MainThreadWatchdog.clearSummary(getActivity());
+            showDiagnosticsSummary();
         }
+
+        // If it is now enabled, start recording the trace right away
+        else if (Preferences.KEY_ENABLE_DEBUGGING.equals(key)) {
+            final Context context = getActivity().getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TraceRecorder.init(context);
+                }
+            });
+
+            // The watchdog may have been enabled before, but only runs along with debugging
+            if (sharedPreferences.getBoolean(Preferences.KEY_DIAGNOSTICS, false)) {
+                MainThreadWatchdog.install(context);
+            }
+        }
+
+        // Start or stop watching the main thread. What was recorded is removed
+        // along with it, so the summary always belongs to the current recording
+        else if (Preferences.KEY_DIAGNOSTICS.equals(key)) {
+            if (sharedPreferences.getBoolean(key, false) && sharedPreferences.getBoolean(Preferences.KEY_ENABLE_DEBUGGING, false)) {
+                MainThreadWatchdog.install(getActivity());
+            } else {
+                MainThreadWatchdog.uninstall();
+                MainThreadWatchdog.clearSummary(getActivity());
+                showDiagnosticsSummary();
+            }
+        }
+    }
+
+    /**
+     * Shows the summary of the recorded stalls of the main thread below the
+     * diagnostics preference, or its description if nothing was recorded.
+     */
+    private void showDiagnosticsSummary() {
+        final Preference preference = findPreference(Preferences.KEY_DIAGNOSTICS);
+        final Context context = getActivity().getApplicationContext();
+        new AsyncTask<Void, Void, MainThreadWatchdog.Summary>() {
+            @Override
+            protected MainThreadWatchdog.Summary doInBackground(Void... params) {
+                return MainThreadWatchdog.loadSummary(context);
+            }
+
+            @Override
+            protected void onPostExecute(MainThreadWatchdog.Summary summary) {
+                if (summary.count == 0) {
+                    preference.setSummary(R.string.preference_diagnostics_summary);
+                } else {
+                    preference.setSummary(context.getString(R.string.preference_diagnostics_stalls,
+                            summary.count, summary.longest, summary.total / summary.count));
+                }
+            }
+        }.execute();
     }
 }
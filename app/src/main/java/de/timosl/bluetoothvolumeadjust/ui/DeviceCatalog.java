@@ -0,0 +1,268 @@
+package de.timosl.bluetoothvolumeadjust.ui;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import de.timosl.bluetoothvolumeadjust.util.BondedDeviceIndex;
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
+
+/**
+ * A cached catalog of the devices shown by the UI: the bonded devices managed by the app,
+ * the bonded devices that could still be added and the state of the {@link BluetoothAdapter}.
+ * <p>
+ * Everything that needs the Bluetooth service or the stored preferences is loaded in the
+ * background, so observing the catalog never blocks the main thread. The catalog reloads
+ * itself when the bonded devices or the managed devices change, including volumes learned
+ * while a device is connected. The catalog must only be used on the main thread.
+ */
+class DeviceCatalog {
+
+    /**
+     * There is no {@link BluetoothAdapter} on this device.
+     */
+    static final int ADAPTER_MISSING = 0;
+
+    /**
+     * The {@link BluetoothAdapter} is switched off.
+     */
+    static final int ADAPTER_DISABLED = 1;
+
+    /**
+     * The {@link BluetoothAdapter} is switched on.
+     */
+    static final int ADAPTER_ENABLED = 2;
+
+    /**
+     * The process-wide instance.
+     */
+    private static DeviceCatalog instance;
+
+    /**
+     * The applications {@link Context}.
+     */
+    private final Context context;
+
+    /**
+     * The {@link Listener}s observing the catalog.
+     */
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * The last loaded {@link Snapshot}, or 'null' if nothing has been loaded yet.
+     */
+    private Snapshot snapshot;
+
+    /**
+     * Set while a load is running in the background.
+     */
+    private boolean loading;
+
+    /**
+     * Set if the catalog has to be loaded again once the running load is done.
+     */
+    private boolean reloadPending;
+
+    /**
+     * Hands changes of the managed devices over to the main thread.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Reloads the catalog on the main thread.
+     */
+    private final Runnable reloadTask = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    /**
+     * Reloads the catalog when the managed devices have changed. Called on
+     * the thread that changed them, e.g. the adjustment worker.
+     */
+    private final DeviceProfileStore.Listener devicesListener = new DeviceProfileStore.Listener() {
+        @Override
+        public void onDevicesChanged() {
+            handler.post(reloadTask);
+        }
+    };
+
+    /**
+     * Reloads the catalog when the bonded devices have changed.
+     */
+    private final BondedDeviceIndex.Listener bondedDevicesListener = new BondedDeviceIndex.Listener() {
+        @Override
+        public void onBondedDevicesChanged() {
+            reload();
+        }
+    };
+
+    /**
+     * A listener that is notified on the main thread whenever a new {@link Snapshot} has been loaded.
+     */
+    interface Listener {
+
+        /**
+         * Called with the current {@link Snapshot}.
+         * @param snapshot The {@link Snapshot}
+         */
+        void onCatalogChanged(Snapshot snapshot);
+    }
+
+    /**
+     * An immutable state of the catalog.
+     */
+    static final class Snapshot {
+
+        /**
+         * The state of the {@link BluetoothAdapter}, one of the ADAPTER_ constants.
+         */
+        final int adapterState;
+
+        /**
+         * The bonded devices managed by the app, sorted.
+         */
+        final List<DeviceRow> managed;
+
+        /**
+         * The bonded devices not managed by the app, sorted. Their volume is unused.
+         */
+        final List<DeviceRow> unmanaged;
+
+        /**
+         * Creates a new {@link Snapshot}.
+         * @param adapterState The state of the {@link BluetoothAdapter}
+         * @param managed The bonded devices managed by the app
+         * @param unmanaged The bonded devices not managed by the app
+         */
+        private Snapshot(int adapterState, List<DeviceRow> managed, List<DeviceRow> unmanaged) {
+            this.adapterState = adapterState;
+            this.managed = Collections.unmodifiableList(managed);
+            this.unmanaged = Collections.unmodifiableList(unmanaged);
+        }
+    }
+
+    /**
+     * Returns the process-wide {@link DeviceCatalog}.
+     * @param context Any {@link Context}
+     * @return The {@link DeviceCatalog}
+     */
+    static DeviceCatalog get(Context context) {
+        if(instance == null) {
+            instance = new DeviceCatalog(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a new, empty {@link DeviceCatalog}.
+     * @param context The applications {@link Context}
+     */
+    private DeviceCatalog(Context context) {
+        this.context = context;
+        BondedDeviceIndex.addListener(bondedDevicesListener);
+        DeviceProfileStore.addListener(devicesListener);
+    }
+
+    /**
+     * Starts observing the catalog. If it has been loaded already, the listener is
+     * called with the cached {@link Snapshot} right away; otherwise once it is loaded.
+     * @param listener The {@link Listener} to register
+     */
+    void addListener(Listener listener) {
+        listeners.add(listener);
+        if(snapshot != null) {
+            listener.onCatalogChanged(snapshot);
+        } else {
+            reload();
+        }
+    }
+
+    /**
+     * Stops observing the catalog.
+     * @param listener The {@link Listener} to unregister
+     */
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Loads the catalog again in the background. If a load is running already,
+     * another one follows it, so the result always reflects the latest changes.
+     */
+    void reload() {
+        if(loading) {
+            reloadPending = true;
+            return;
+        }
+        loading = true;
+
+        new AsyncTask<Void, Void, Snapshot>() {
+            @Override
+            protected Snapshot doInBackground(Void... params) {
+                return load(context);
+            }
+
+            @Override
+            protected void onPostExecute(Snapshot result) {
+                loading = false;
+                snapshot = result;
+                for(Listener listener: new ArrayList<>(listeners)) {
+                    listener.onCatalogChanged(result);
+                }
+
+                // Something changed while we were loading
+                if(reloadPending) {
+                    reloadPending = false;
+                    reload();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Loads a new {@link Snapshot}. Called in the background.
+     * @param context The applications {@link Context}
+     * @return The {@link Snapshot}
+     */
+    private static Snapshot load(Context context) {
+        List<DeviceRow> managed = new ArrayList<>();
+        List<DeviceRow> unmanaged = new ArrayList<>();
+
+        // Without an adapter, there are no bonded devices to look at
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter == null) {
+            return new Snapshot(ADAPTER_MISSING, managed, unmanaged);
+        }
+        int adapterState = adapter.isEnabled() ? ADAPTER_ENABLED : ADAPTER_DISABLED;
+
+        // Make sure we hear about changes of the bonded devices
+        BondedDeviceIndex.init(context);
+
+        // Sort the bonded devices by whether we are managing them
+        Set<String> managedAddresses = DeviceManagment.getDevices(context);
+        for(BluetoothDevice device: BondedDeviceIndex.getDevices()) {
+            String address = device.getAddress();
+            if(managedAddresses.contains(address)) {
+                managed.add(new DeviceRow(address, BondedDeviceIndex.getName(device), DeviceManagment.getDeviceVolume(context, address)));
+            } else {
+                unmanaged.add(new DeviceRow(address, BondedDeviceIndex.getName(device), 0f));
+            }
+        }
+        Collections.sort(managed);
+        Collections.sort(unmanaged);
+
+        return new Snapshot(adapterState, managed, unmanaged);
+    }
+}
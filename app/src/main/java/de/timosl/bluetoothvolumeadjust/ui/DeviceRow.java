@@ -0,0 +1,57 @@
+package de.timosl.bluetoothvolumeadjust.ui;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * An immutable row of the device list in the {@link MainActivity}. Holds everything
+ * that is displayed for a managed {@link BluetoothDevice}, so binding a row needs
+ * no further lookups. Rows are ordered by name and then by MAC-Address.
+ */
+final class DeviceRow implements Comparable<DeviceRow> {
+
+    /**
+     * The MAC-Address of the device.
+     */
+    final String address;
+
+    /**
+     * The name of the device, or its MAC-Address if it has no name.
+     */
+    final String name;
+
+    /**
+     * The volume set for the device in percent.
+     */
+    final int volumePercent;
+
+    /**
+     * Creates a new {@link DeviceRow}.
+     * @param address The MAC-Address of the device
+     * @param name The name of the device, or 'null' if it has none
+     * @param volume The volume set for the device in a range from 0.0 to 1.0
+     */
+    DeviceRow(String address, String name, float volume) {
+        this.address = address;
+        this.name = name != null ? name : address;
+        this.volumePercent = (int) (volume * 100f);
+    }
+
+    /**
+     * Returns if this row displays the same as the given one. Both rows must
+     * be for the same device.
+     * @param other The other {@link DeviceRow}
+     * @return Returns 'true' if the rows do not differ
+     */
+    boolean hasSameContent(DeviceRow other) {
+        return volumePercent == other.volumePercent && name.equals(other.name);
+    }
+
+    @Override
+    public int compareTo(DeviceRow other) {
+        int result = name.compareToIgnoreCase(other.name);
+        if(result == 0) {
+            result = address.compareTo(other.address);
+        }
+        return result;
+    }
+}
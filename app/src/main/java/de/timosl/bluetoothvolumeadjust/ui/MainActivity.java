@@ -5,11 +5,12 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
+import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -26,13 +27,19 @@ import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
 import de.timosl.bluetoothvolumeadjust.util.L;
 import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.ProblemReport;
+import de.timosl.bluetoothvolumeadjust.util.VolumeProfile;
+import de.timosl.bluetoothvolumeadjust.BuildConfig;
 import de.timosl.bluetoothvolumeadjust.R;
 
 /**
@@ -40,7 +47,7 @@ import de.timosl.bluetoothvolumeadjust.R;
  * will see most of the time. Here the user can add new
  * devices to manage and remove existing ones.
  */
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements DeviceCatalog.Listener {
 
     /**
      * The {@link RecyclerView} that will display the devices
@@ -60,6 +67,12 @@ public class MainActivity extends AppCompatActivity {
      */
     private FloatingActionButton newDeviceFAB;
 
+    /**
+     * Appended to the application ID to form the authority of the FileProvider
+     * sharing the problem report, as declared in the manifest.
+     */
+    private static final String REPORT_AUTHORITY_SUFFIX = ".reports";
+
     /**
      * The debug option how it was set the last time this
      * activity was created. Used for determining whether
@@ -67,6 +80,11 @@ public class MainActivity extends AppCompatActivity {
      */
     private boolean displayDebugOption;
 
+    /**
+     * The {@link ProblemReportTask} writing the problem report, or 'null'.
+     */
+    private ProblemReportTask problemReportTask;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -89,12 +107,9 @@ public class MainActivity extends AppCompatActivity {
         deviceList.setLayoutManager(layoutManager);
 
         // Set our adapter to the RV
-        deviceListAdapter = new DeviceListAdapter(getApplication());
+        deviceListAdapter = new DeviceListAdapter();
         deviceList.setAdapter(deviceListAdapter);
 
-        // Get the initial list of devices
-        deviceListAdapter.updateDevices();
-
         // This callback will handle swipes (no drags) on items inside the RV
         ItemTouchHelper.SimpleCallback simpleItemTouchCallback = new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
             @Override
@@ -106,27 +121,23 @@ public class MainActivity extends AppCompatActivity {
                 // We need to cast the ViewHolder to our custom class
                 DeviceListAdapter.ViewHolder mViewHolder = (DeviceListAdapter.ViewHolder) viewHolder;
 
-                // Get the BluetoothDevice for the ViewHolder that was swiped
-                final BluetoothDevice device = DeviceManagment.getDeviceByAddress(mViewHolder.deviceAddress);
-
-                // Get the values for the device, so we can use them in case
-                // the user wants to undo the deletion
-                final String deviceAddress = device.getAddress();
-                final String deviceName = device.getName();
-                final float deviceVolume = DeviceManagment.getDeviceVolume(getApplication(),deviceAddress);
+                // Get the values for the device that was swiped, so we can
+                // use them in case the user wants to undo the deletion
+                final String deviceAddress = mViewHolder.row.address;
+                final String deviceName = mViewHolder.row.name;
+                final VolumeProfile deviceProfile = DeviceManagment.getDeviceProfile(getApplication(),deviceAddress);
 
                 // Remove the device that was swiped from the list
                 // and tell our adapter about it
                 DeviceManagment.removeDevice(getApplication(), deviceAddress);
-                deviceListAdapter.updateDevices();
+                deviceListAdapter.removeDevice(deviceAddress);
 
                 // Create a Snackbar notification that allows the user to undo the deletion
-                Snackbar snackbar = Snackbar.make(deviceList, String.format(getString(R.string.snackbar_deleted_item),device.getName()), Snackbar.LENGTH_LONG);
+                Snackbar snackbar = Snackbar.make(deviceList, String.format(getString(R.string.snackbar_deleted_item),deviceName), Snackbar.LENGTH_LONG);
                 snackbar.setAction(R.string.snackbar_deletion_undo_action, new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        DeviceManagment.addDevice(getApplication(),deviceAddress,deviceVolume);
-                        deviceListAdapter.updateDevices();
+                        DeviceManagment.addDevice(getApplication(),deviceAddress,deviceProfile);
                         Snackbar.make(deviceList,String.format(getString(R.string.snackbar_deletion_undone),deviceName),Snackbar.LENGTH_SHORT).show();
                     }
                 });
@@ -142,6 +153,40 @@ public class MainActivity extends AppCompatActivity {
         displayDebugOption = Preferences.getEnableDebugging(this);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Observe the devices, which shows the cached ones right away
+        DeviceCatalog.get(this).addListener(this);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        DeviceCatalog.get(this).removeListener(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // A report written for this instance must not be shared by it anymore
+        if(problemReportTask != null) {
+            problemReportTask.cancel(false);
+            problemReportTask = null;
+        }
+    }
+
+    @Override
+    public void onCatalogChanged(DeviceCatalog.Snapshot snapshot) {
+        deviceListAdapter.setRows(snapshot.managed);
+
+        // If the device list has changed, we may have toggle the
+        // visibility of the NewDeviceFAB
+        checkNewDeviceFABVisibility(snapshot);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -153,22 +198,27 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void checkNewDeviceFABVisibility() {
+    /**
+     * Shows or hides the {@link #newDeviceFAB} and lets the user know if
+     * something prevents adding devices.
+     * @param snapshot The current {@link DeviceCatalog.Snapshot}
+     */
+    private void checkNewDeviceFABVisibility(DeviceCatalog.Snapshot snapshot) {
         // Check if we can even add more devices. If not, we
         // hide the NewDeviceFAB
-        if(isNewDevicesAvailable()) {
+        if(isNewDevicesAvailable(snapshot)) {
             // We have more devices available, so we can continue
             // showing the NewDeviceFAB
             newDeviceFAB.show();
         } else {
-            if(BluetoothAdapter.getDefaultAdapter() == null || !BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            if(snapshot.adapterState != DeviceCatalog.ADAPTER_ENABLED) {
                 Snackbar.make(newDeviceFAB,R.string.snackbar_err_no_adapterAvailable,Snackbar.LENGTH_INDEFINITE).show();
             }
 
             // If there are new devices available to add and we
             // don't have any right now, something is wrong.
             // We better let the user know.
-            else if(DeviceManagment.getDevices(this).size() == 0) {
+            else if(snapshot.managed.isEmpty()) {
                 Snackbar.make(newDeviceFAB,R.string.snackbar_err_no_devicesAvailable,Snackbar.LENGTH_INDEFINITE).show();
             }
 
@@ -177,13 +227,6 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    /**
-     * Refreshes the list of managed devices in the {@link #deviceList}.
-     */
-    public void refreshDevices() {
-        deviceListAdapter.updateDevices();
-    }
-
     /**
      * Displays the {@link NewDeviceDialog} to allow the user to
      * add a new device.
@@ -200,24 +243,23 @@ public class MainActivity extends AppCompatActivity {
      * be added. That is the case if we already have added
      * all bonded devices, or if the {@link BluetoothAdapter}
      * is not available.
+     * @param snapshot The current {@link DeviceCatalog.Snapshot}
      * @return Returns 'true' only, if the {@link #newDeviceFAB}
      * should be shown to the user and 'false' otherwise
      */
-    private boolean isNewDevicesAvailable() {
-        if (BluetoothAdapter.getDefaultAdapter() == null) {
+    private boolean isNewDevicesAvailable(DeviceCatalog.Snapshot snapshot) {
+        if (snapshot.adapterState == DeviceCatalog.ADAPTER_MISSING) {
             L.w("(MainActivity) There is no bluetooth adapter available, there may be a hardware error or the Bluetooth permission has been revoked");
             return false;
         }
 
-        if (BluetoothAdapter.getDefaultAdapter().getBondedDevices().size() == 0) {
+        if (snapshot.managed.isEmpty() && snapshot.unmanaged.isEmpty()) {
             L.w("(MainActivity) There are no devices paired");
             return false;
         }
 
-        for(BluetoothDevice device: BluetoothAdapter.getDefaultAdapter().getBondedDevices()) {
-            if(!DeviceManagment.getDevices(this).contains(device.getAddress())) {
-                return true;
-            }
+        if(!snapshot.unmanaged.isEmpty()) {
+            return true;
         }
 
         L.i("(MainActivity) No device left to manage");
@@ -226,63 +268,73 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * The custom {@link RecyclerView.Adapter} that contains the devices for
-     * displaying them inside the {@link #deviceList}.
+     * displaying them inside the {@link #deviceList}. The rows come from the
+     * {@link DeviceCatalog} and the list is only told about the rows that actually changed.
      */
     private class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.ViewHolder> {
         /**
-         * The list of {@link BluetoothDevice}s to be displayed in the {@link #deviceList}.
-         */
-        private List<BluetoothDevice> devices = new ArrayList<>();
-
-        /**
-         * The applications {@link Context}.
+         * The {@link DeviceRow}s to be displayed in the {@link #deviceList}, sorted.
+         * Never modified, but replaced as a whole.
          */
-        private Context context;
+        private List<DeviceRow> rows = Collections.emptyList();
 
         /**
-         * Creates a new {@link DeviceListAdapter} with the given application {@link Context}.
-         * @param context
+         * Removes the row of a device right away, without waiting for the next update.
+         * @param address The MAC-Address of the device
          */
-        public DeviceListAdapter(Context context) {
-            this.context = context;
+        public void removeDevice(String address) {
+            List<DeviceRow> newRows = new ArrayList<>(rows);
+            for(int i = 0; i < newRows.size(); i++) {
+                if(newRows.get(i).address.equals(address)) {
+                    newRows.remove(i);
+                    break;
+                }
+            }
+            setRows(newRows);
         }
 
         /**
-         * Update the list of {@link BluetoothDevice}s to match the list
-         * of devices stored in the applications {@link SharedPreferences}.
+         * Replaces the displayed rows and tells the {@link #deviceList} which rows have been
+         * inserted, removed or changed. Since both lists are sorted, a single merge over
+         * them finds the differences.
+         * @param newRows The new rows, sorted
          */
-        public void updateDevices() {
-            // Clear all items, we will get a fresh list later
-            devices.clear();
-
-            // Make sure that the Bluetooth Adapter is available to us
-            // or we will fail later on
-            if(BluetoothAdapter.getDefaultAdapter() == null) {
-                // If we end up here, we probably have to hide the NewDeviceFAB
-                checkNewDeviceFABVisibility();
-                return;
-            }
-
-            // Get all device addresses we currently manage
-            final Set<String> deviceAddresses = DeviceManagment.getDevices(context);
-
-            // Get the list of all devices bonded with this device
-            final List<BluetoothDevice> bondedDevices = new ArrayList<>(BluetoothAdapter.getDefaultAdapter().getBondedDevices());
+        public void setRows(List<DeviceRow> newRows) {
+            List<DeviceRow> oldRows = rows;
+            rows = newRows;
+
+            int oldIndex = 0;
+            int newIndex = 0;
+            int position = 0;
+            while(oldIndex < oldRows.size() || newIndex < newRows.size()) {
+                int order;
+                if(oldIndex == oldRows.size()) {
+                    order = 1;
+                } else if(newIndex == newRows.size()) {
+                    order = -1;
+                } else {
+                    order = oldRows.get(oldIndex).compareTo(newRows.get(newIndex));
+                }
 
-            // Iterate over all of them to add them to our list
-            for(BluetoothDevice device: bondedDevices) {
-                // Only add the ones we are actually managing
-                if(deviceAddresses.contains(device.getAddress())) {
-                    devices.add(device);
+                if(order < 0) {
+                    // The old row is gone
+                    notifyItemRemoved(position);
+                    oldIndex++;
+                } else if(order > 0) {
+                    // The new row was not there before
+                    notifyItemInserted(position);
+                    position++;
+                    newIndex++;
+                } else {
+                    // The row is still there, but may display something else
+                    if(!oldRows.get(oldIndex).hasSameContent(newRows.get(newIndex))) {
+                        notifyItemChanged(position);
+                    }
+                    position++;
+                    oldIndex++;
+                    newIndex++;
                 }
             }
-
-            // Tell the adapter that the list is updated
-            notifyDataSetChanged();
-
-            // If the device list has changed, we may have toggle the
-            // visibility of the NewDeviceFAB
-            checkNewDeviceFABVisibility();
         }
 
         @Override
@@ -294,18 +346,18 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            // Get the device for this ViewHolder
-            final BluetoothDevice device = devices.get(position);
+            // Get the row for this ViewHolder
+            DeviceRow row = rows.get(position);
 
             // Set the attributes for the ViewHolder
-            holder.deviceAddress = device.getAddress();
-            holder.name.setText(device.getName());
-            holder.bar.setProgress((int) (DeviceManagment.getDeviceVolume(context,device.getAddress()) * 100f));
+            holder.row = row;
+            holder.name.setText(row.name);
+            holder.bar.setProgress(row.volumePercent);
         }
 
         @Override
         public int getItemCount() {
-            return devices.size();
+            return rows.size();
         }
 
         /**
@@ -316,11 +368,10 @@ public class MainActivity extends AppCompatActivity {
         class ViewHolder extends RecyclerView.ViewHolder {
 
             /**
-             * The devices address, so we can associate it with
-             * a {@link BluetoothDevice} later. (for the Swipe
-             * handler for example)
+             * The {@link DeviceRow} displayed, so we can associate
+             * it with a device later. (for the Swipe handler for example)
              */
-            public String deviceAddress;
+            public DeviceRow row;
 
             /**
              * The {@link TextView} displaying the name of the {@link BluetoothDevice}.
@@ -355,6 +406,14 @@ public class MainActivity extends AppCompatActivity {
                 return true;
             }
 
+            // Start the StatisticsActivity if the associated menu item
+            // was selected by the user
+            case R.id.menu_main_statistics: {
+                Intent intent = new Intent(this,StatisticsActivity.class);
+                startActivity(intent);
+                return true;
+            }
+
             case R.id.menu_main_sendReport: {
                 sendProblemReport();
                 return true;
@@ -391,23 +450,84 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Opens an E-Mail application to share the problem report.
+     * Writes the problem report in the background and opens an E-Mail
+     * application to share it as an attachment.
      */
     private void sendProblemReport() {
-        // The E-Mail contents
-        String header = "-> Add a description of your problem here <-\n\n==============Do not change anything under this line============\n\n";
-        String report = L.getLog();
-
-        // Create the intent
-        Intent intent = new Intent(Intent.ACTION_SENDTO);
-        intent.setType("text/plain");
-        intent.setData(Uri.parse("mailto:"));
+        if(problemReportTask != null) {
+            problemReportTask.cancel(false);
+        }
+        problemReportTask = new ProblemReportTask(this);
+        problemReportTask.execute();
+    }
+
+    /**
+     * Opens an E-Mail application to share the problem report.
+     * @param report The file holding the problem report
+     */
+    private void shareProblemReport(File report) {
+        // The E-Mail contents. The report itself is attached
+        String text = "-> Add a description of your problem here <-\n\nThe log of the app is attached.\n";
+        Uri reportUri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + REPORT_AUTHORITY_SUFFIX, report);
+
+        // Create the intent. The receiving app may only read the report
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/gzip");
         intent.putExtra(Intent.EXTRA_EMAIL, new String[] {"tsdev@posteo.de"});
         intent.putExtra(Intent.EXTRA_SUBJECT, "Bluetooth Volume Adjust Problem Report");
-        intent.putExtra(Intent.EXTRA_TEXT, header+report);
+        intent.putExtra(Intent.EXTRA_TEXT, text);
+        intent.putExtra(Intent.EXTRA_STREAM, reportUri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
         // Start the E-Mail application
         startActivity(Intent.createChooser(intent, "Send Report"));
     }
+
+    /**
+     * Writes the problem report in the background and shares it once it is written.
+     * Only holds the applications {@link Context} and a weak reference to the activity,
+     * so the activity is not kept alive while the report is compressed.
+     */
+    private static class ProblemReportTask extends AsyncTask<Void, Void, File> {
+
+        /**
+         * The applications {@link Context}.
+         */
+        private final Context context;
+
+        /**
+         * The {@link MainActivity} sharing the report.
+         */
+        private final WeakReference<MainActivity> activity;
+
+        /**
+         * Creates a new {@link ProblemReportTask}.
+         * @param activity The {@link MainActivity} sharing the report
+         */
+        ProblemReportTask(MainActivity activity) {
+            this.context = activity.getApplicationContext();
+            this.activity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            try {
+                return ProblemReport.write(context);
+            } catch (IOException e) {
+                L.w("(MainActivity) The problem report could not be written: %s",e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File report) {
+            // The user may have left the activity in the meantime
+            MainActivity target = activity.get();
+            if(report != null && target != null && !target.isFinishing()) {
+                target.problemReportTask = null;
+                target.shareProblemReport(report);
+            }
+        }
+    }
 }
 
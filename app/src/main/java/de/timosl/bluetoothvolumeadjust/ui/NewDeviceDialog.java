@@ -3,7 +3,6 @@ package de.timosl.bluetoothvolumeadjust.ui;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.DialogInterface;
 import android.os.Bundle;
@@ -11,22 +10,34 @@ import android.support.design.widget.Snackbar;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.VolumeProfile;
 import de.timosl.bluetoothvolumeadjust.R;
 
 /**
  * A custom {@link DialogFragment} that allows the user to
  * add a new {@link BluetoothDevice}.
  */
-public class NewDeviceDialog extends DialogFragment {
+public class NewDeviceDialog extends DialogFragment implements DeviceCatalog.Listener {
+
+    /**
+     * The bonded devices we are not already managing, as shown in the {@link Spinner}.
+     */
+    private List<DeviceRow> devices = Collections.emptyList();
+
+    /**
+     * The {@link ArrayAdapter} containing the names of the {@link #devices}.
+     */
+    private ArrayAdapter<String> listAdapter;
 
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -56,18 +67,15 @@ public class NewDeviceDialog extends DialogFragment {
         dialog_seekbar_label.setText("0%");
         dialog_seekbar.setProgress(0);
 
-        // We only want to display all bonded devices we're not already managing
-        final List<BluetoothDevice> devices = getUnusedDevices();
+        // The other streams are only changed if the user checks them
+        final SeekBar dialog_call_seekbar = bindStreamRow(dialog_root, R.id.dialog_newdevice_call_check, R.id.dialog_newdevice_call_seekbar);
+        final SeekBar dialog_ring_seekbar = bindStreamRow(dialog_root, R.id.dialog_newdevice_ring_check, R.id.dialog_newdevice_ring_seekbar);
+        final SeekBar dialog_notification_seekbar = bindStreamRow(dialog_root, R.id.dialog_newdevice_notification_check, R.id.dialog_newdevice_notification_seekbar);
 
-        // This ArrayAdapter will contain the names of the BluetoothDevices we will show to the user
-        final ArrayAdapter<String> dialog_listAdapter = new ArrayAdapter<>(getActivity(),android.R.layout.select_dialog_item);
-
-        // Add the names of the devices to the adapter
-        // and set the Spinner to it
-        for(BluetoothDevice device: devices) {
-            dialog_listAdapter.add(device.getName());
-        }
-        dialog_spinner.setAdapter(dialog_listAdapter);
+        // This ArrayAdapter will contain the names of the BluetoothDevices we will show to the user.
+        // It is filled once the DeviceCatalog tells us about the devices
+        listAdapter = new ArrayAdapter<>(getActivity(),android.R.layout.select_dialog_item);
+        dialog_spinner.setAdapter(listAdapter);
 
         // Build a new dialog based on the Views we created previously
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
@@ -77,12 +85,13 @@ public class NewDeviceDialog extends DialogFragment {
                 .setPositiveButton(R.string.dialog_newdevice_add, new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
                         // Do nothing if the user has not properly selected a device
-                        if (dialog_spinner.getSelectedItemPosition() == AdapterView.INVALID_POSITION) {
+                        int position = dialog_spinner.getSelectedItemPosition();
+                        if (position == AdapterView.INVALID_POSITION || position >= devices.size()) {
                             return;
                         }
 
-                        // Get the BluetoothDevice that was selected by the user
-                        BluetoothDevice selectedDevice = devices.get(dialog_spinner.getSelectedItemPosition());
+                        // Get the device that was selected by the user
+                        DeviceRow selectedDevice = devices.get(position);
 
                         // Get the volume and convert it to a range from 0.0 to 1.0
                         float volume = ((float) dialog_seekbar.getProgress()) / 100f;
@@ -91,21 +100,20 @@ public class NewDeviceDialog extends DialogFragment {
                         // later to display it in the Snackbar
                         int volumePercentage = (int) (volume * 100);
 
-                        // Add the device to our global list
-                        DeviceManagment.addDevice(getActivity(), selectedDevice.getAddress(), volume);
+                        // Collect the volumes of all streams in a single profile
+                        VolumeProfile profile = VolumeProfile.ofMusic(volume)
+                                .withVolume(VolumeProfile.STREAM_VOICE_CALL, getStreamVolume(dialog_call_seekbar))
+                                .withVolume(VolumeProfile.STREAM_RING, getStreamVolume(dialog_ring_seekbar))
+                                .withVolume(VolumeProfile.STREAM_NOTIFICATION, getStreamVolume(dialog_notification_seekbar));
 
-                        // Tell the MainActivity to update its list
-                        // of devices if possible
-                        if (getActivity() instanceof MainActivity) {
-                            MainActivity act = (MainActivity) getActivity();
-                            act.refreshDevices();
-                        }
+                        // Add the device to our global list
+                        DeviceManagment.addDevice(getActivity(), selectedDevice.address, profile);
 
                         // Display a Snackbar notification showing the device name and the volume
                         // Since the Fragment is not inside the View tree of MainActivity, we have to
                         // pass a View that does explicitly. The RecyclerView has an ID already, so we
                         // can just use that
-                        Snackbar.make(getActivity().findViewById(R.id.activity_main_deviceList), String.format(getString(R.string.snackbar_added_item), selectedDevice.getName(), volumePercentage), Snackbar.LENGTH_SHORT).show();
+                        Snackbar.make(getActivity().findViewById(R.id.activity_main_deviceList), String.format(getString(R.string.snackbar_added_item), selectedDevice.name, volumePercentage), Snackbar.LENGTH_SHORT).show();
                     }
                 })
                 .setNegativeButton(R.string.dialog_newdevice_cancel, new DialogInterface.OnClickListener() {
@@ -120,36 +128,63 @@ public class NewDeviceDialog extends DialogFragment {
     }
 
     /**
-     * Gets a list of {@link BluetoothDevice}s that are bonded with this
-     * device, but not already managed by this app.
-     * @return A list of {@link BluetoothDevice}s that are bonded with this
-     * device, but not already managed by this app.
+     * Sets up the row of a stream other than music, whose {@link SeekBar} is
+     * only enabled while its {@link CheckBox} is checked.
+     * @param root The root {@link View} of the dialog
+     * @param checkId The ID of the {@link CheckBox}
+     * @param seekBarId The ID of the {@link SeekBar}
+     * @return The {@link SeekBar} of the row
      */
-    private List<BluetoothDevice> getUnusedDevices() {
-        // If there is no Bluetooth adapter available, we
-        // cannot query it for devices (obviously)
-        // This case shouldn't occur here, but we have to make sure anyway
-        if(BluetoothAdapter.getDefaultAdapter() == null) {
-            return new ArrayList<>();
+    private static SeekBar bindStreamRow(View root, int checkId, int seekBarId) {
+        final SeekBar seekBar = (SeekBar) root.findViewById(seekBarId);
+        CheckBox checkBox = (CheckBox) root.findViewById(checkId);
+        checkBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                seekBar.setEnabled(isChecked);
+            }
+        });
+        return seekBar;
+    }
+
+    /**
+     * Returns the volume set with the {@link SeekBar} of a stream row.
+     * @param seekBar The {@link SeekBar} of the row
+     * @return The volume in a range from 0.0 to 1.0, or {@link VolumeProfile#UNSET}
+     * if the stream is not checked
+     */
+    private static float getStreamVolume(SeekBar seekBar) {
+        if(!seekBar.isEnabled()) {
+            return VolumeProfile.UNSET;
         }
+        return ((float) seekBar.getProgress()) / 100f;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
 
-        // The devices we are bonded with (containing devices we already manage in this app)
-        final List<BluetoothDevice> devices = new ArrayList<>(BluetoothAdapter.getDefaultAdapter().getBondedDevices());
+        // Observe the devices, which shows the cached ones right away
+        DeviceCatalog.get(getActivity()).addListener(this);
+    }
 
-        // The devices we are already managing
-        final Set<String> usedDevices = DeviceManagment.getDevices(getActivity());
+    @Override
+    public void onStop() {
+        super.onStop();
+        DeviceCatalog.get(getActivity()).removeListener(this);
+    }
 
-        // The list of devices we want to return
-        final List<BluetoothDevice> unusedDevices = new ArrayList<>();
+    @Override
+    public void onCatalogChanged(DeviceCatalog.Snapshot snapshot) {
+        // We only want to display all bonded devices we're not already managing
+        devices = snapshot.unmanaged;
 
-        // Iterate over all the bonded devices and add only
-        // the ones to our list we are not already managing
-        for(BluetoothDevice device: devices) {
-            if(!usedDevices.contains(device.getAddress())) {
-                unusedDevices.add(device);
-            }
+        // Replace the names of the devices in the adapter
+        listAdapter.setNotifyOnChange(false);
+        listAdapter.clear();
+        for(DeviceRow device: devices) {
+            listAdapter.add(device.name);
         }
-
-        return unusedDevices;
+        listAdapter.notifyDataSetChanged();
     }
 }
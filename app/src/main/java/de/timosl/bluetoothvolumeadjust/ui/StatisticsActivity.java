@@ -0,0 +1,190 @@
+package de.timosl.bluetoothvolumeadjust.ui;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Locale;
+
+import de.timosl.bluetoothvolumeadjust.R;
+import de.timosl.bluetoothvolumeadjust.util.BondedDeviceIndex;
+import de.timosl.bluetoothvolumeadjust.util.LatencyHistogram;
+import de.timosl.bluetoothvolumeadjust.util.LatencyStats;
+
+/**
+ * This {@link AppCompatActivity} displays how long it took
+ * to set the volume after a device was connected, for each
+ * device and phase of the adjustment.
+ */
+public class StatisticsActivity extends AppCompatActivity {
+
+    /**
+     * The {@link TextView} showing the statistics.
+     */
+    private TextView statisticsText;
+
+    /**
+     * The {@link StatisticsTask} loading the statistics, or 'null'.
+     */
+    private StatisticsTask statisticsTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_statistics);
+
+        // Set the Toolbar from the support library
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+
+        // Display the Up-Navigation and the correct title on the toolbar
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        getSupportActionBar().setTitle(R.string.menu_main_statistics);
+
+        statisticsText = (TextView) findViewById(R.id.statistics_text);
+        loadStatistics();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if(statisticsTask != null) {
+            statisticsTask.cancel(false);
+            statisticsTask = null;
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_statistics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if(item.getItemId() == R.id.menu_statistics_clear) {
+            final Context context = getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    LatencyStats.get(context).clear();
+                }
+            });
+            statisticsText.setText(R.string.statistics_empty);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Loads and formats the statistics in the background and shows them once they are ready.
+     */
+    private void loadStatistics() {
+        statisticsTask = new StatisticsTask(this);
+        statisticsTask.execute();
+    }
+
+    /**
+     * Formats the statistics of all devices as a table.
+     * @param context The applications {@link Context}
+     * @param phaseNames The names of the phases
+     * @return The formatted statistics
+     */
+    private static String formatStatistics(Context context, String[] phaseNames) {
+        List<LatencyStats.DeviceStats> devices = LatencyStats.get(context).getDeviceStats();
+        StringBuilder builder = new StringBuilder();
+
+        for(LatencyStats.DeviceStats device: devices) {
+            if(device.phases[LatencyStats.PHASE_JOB_STARTED].getCount() == 0) {
+                continue;
+            }
+
+            // Name the device if it is still bonded
+            BluetoothDevice bluetoothDevice = BondedDeviceIndex.getDevice(device.address);
+            String name = bluetoothDevice != null ? BondedDeviceIndex.getName(bluetoothDevice) : null;
+            builder.append(name != null ? name : context.getString(R.string.statistics_unknown_device));
+            builder.append(" (").append(device.address).append(")\n");
+            builder.append(context.getString(R.string.statistics_header)).append('\n');
+            builder.append(context.getString(R.string.statistics_columns)).append('\n');
+
+            for(int phase = 0; phase < LatencyStats.PHASE_COUNT; phase++) {
+                LatencyHistogram histogram = device.phases[phase];
+                builder.append(String.format(Locale.US, "%-24s %s / %s / %s (%d)%n",
+                        phaseNames[phase],
+                        formatMillis(histogram.getPercentile(50)),
+                        formatMillis(histogram.getPercentile(95)),
+                        formatMillis(histogram.getPercentile(99)),
+                        histogram.getCount()));
+            }
+            builder.append('\n');
+        }
+
+        if(builder.length() == 0) {
+            return context.getString(R.string.statistics_empty);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Formats a duration, or a dash if there is none.
+     * @param millis The duration in milliseconds, or '-1'
+     * @return The formatted duration
+     */
+    private static String formatMillis(long millis) {
+        return millis < 0 ? "-" : millis + "ms";
+    }
+
+    /**
+     * Formats the statistics in the background. Only holds the applications {@link Context}
+     * and a weak reference to the activity, so the activity is not kept alive meanwhile.
+     */
+    private static class StatisticsTask extends AsyncTask<Void, Void, String> {
+
+        /**
+         * The applications {@link Context}.
+         */
+        private final Context context;
+
+        /**
+         * The names of the phases.
+         */
+        private final String[] phaseNames;
+
+        /**
+         * The {@link StatisticsActivity} showing the statistics.
+         */
+        private final WeakReference<StatisticsActivity> activity;
+
+        /**
+         * Creates a new {@link StatisticsTask}.
+         * @param activity The {@link StatisticsActivity} showing the statistics
+         */
+        StatisticsTask(StatisticsActivity activity) {
+            this.context = activity.getApplicationContext();
+            this.phaseNames = activity.getResources().getStringArray(R.array.statistics_phases);
+            this.activity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            return formatStatistics(context, phaseNames);
+        }
+
+        @Override
+        protected void onPostExecute(String text) {
+            StatisticsActivity target = activity.get();
+            if(target != null && !target.isFinishing()) {
+                target.statisticsTask = null;
+                target.statisticsText.setText(text);
+            }
+        }
+    }
+}
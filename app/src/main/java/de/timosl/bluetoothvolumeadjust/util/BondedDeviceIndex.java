@@ -0,0 +1,223 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An index of the {@link BluetoothDevice}s bonded with this device by their MAC-Address.
+ * The index is built from the {@link BluetoothAdapter} once and then kept up to date
+ * by listening for bond state, name and adapter state changes, so looking up a device
+ * needs neither a scan over all bonded devices nor a call into the Bluetooth service.
+ * Device names are cached the same way once they have been looked up.
+ * Interested parts of the app can register a {@link Listener} to learn about changes.
+ */
+public class BondedDeviceIndex {
+
+    /**
+     * The bonded devices by their MAC-Address. Never modified, but replaced as a whole.
+     * Set to 'null' if the index has to be rebuilt.
+     */
+    private static volatile Map<String, BluetoothDevice> devices;
+
+    /**
+     * The names of the bonded devices by their MAC-Address.
+     */
+    private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * The {@link BroadcastReceiver} keeping the index up to date, or 'null' if it
+     * has not been registered yet.
+     */
+    private static BroadcastReceiver receiver;
+
+    /**
+     * The {@link Listener}s to notify about changes.
+     */
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * A listener that is notified on the main thread whenever the bonded devices,
+     * their names or the state of the {@link BluetoothAdapter} may have changed.
+     */
+    public interface Listener {
+
+        /**
+         * Called after the index has been updated.
+         */
+        void onBondedDevicesChanged();
+    }
+
+    /**
+     * Starts listening for changes of the bonded devices. Until this has been called,
+     * the index is only built once and never updated. Can be called after the index
+     * has been used already.
+     * @param context The applications {@link Context}
+     */
+    public static synchronized void init(Context context) {
+        if(receiver != null) {
+            return;
+        }
+
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onChange(intent);
+
+                // Tell everyone after the index is up to date
+                for(Listener listener: listeners) {
+                    listener.onBondedDevicesChanged();
+                }
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        context.getApplicationContext().registerReceiver(receiver, filter);
+
+        // An index built before now may have missed changes
+        devices = null;
+    }
+
+    /**
+     * Registers a {@link Listener}. It is only notified once {@link #init(Context)} has been called.
+     * @param listener The {@link Listener} to register
+     */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a {@link Listener}.
+     * @param listener The {@link Listener} to unregister
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the bonded device with the given MAC-Address.
+     * @param address The MAC-Address of the device
+     * @return The {@link BluetoothDevice}, or 'null' if no such device is bonded
+     */
+    public static BluetoothDevice getDevice(String address) {
+        return index().get(address);
+    }
+
+    /**
+     * Returns all bonded devices.
+     * @return An unmodifiable {@link Collection} of all bonded devices
+     */
+    public static Collection<BluetoothDevice> getDevices() {
+        return index().values();
+    }
+
+    /**
+     * Returns the name of the given device. The name is only looked up once
+     * and then cached until the device reports a new name.
+     * @param device The {@link BluetoothDevice}
+     * @return The name of the device, or 'null' if it is not available
+     */
+    public static String getName(BluetoothDevice device) {
+        String name = names.get(device.getAddress());
+        if(name == null) {
+            name = device.getName();
+            if(name != null) {
+                names.put(device.getAddress(), name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the current index, building it if needed.
+     * @return The bonded devices by their MAC-Address
+     */
+    private static Map<String, BluetoothDevice> index() {
+        Map<String, BluetoothDevice> current = devices;
+        if(current == null) {
+            current = rebuild();
+        }
+        return current;
+    }
+
+    /**
+     * Builds the index from the devices currently bonded with the {@link BluetoothAdapter}.
+     * @return The new index
+     */
+    private static synchronized Map<String, BluetoothDevice> rebuild() {
+        // Another thread may have rebuilt the index while we were waiting
+        if(devices != null) {
+            return devices;
+        }
+
+        Map<String, BluetoothDevice> index = new HashMap<>();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        Set<BluetoothDevice> bondedDevices = adapter != null ? adapter.getBondedDevices() : null;
+        if(bondedDevices != null) {
+            for(BluetoothDevice device: bondedDevices) {
+                index.put(device.getAddress(), device);
+            }
+        }
+
+        devices = Collections.unmodifiableMap(index);
+        return devices;
+    }
+
+    /**
+     * Updates the index according to a received broadcast.
+     * @param intent The received {@link Intent}
+     */
+    private static synchronized void onChange(Intent intent) {
+        // If the adapter was switched on or off, the bonded devices are
+        // unknown until we ask the adapter again
+        if(BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
+            devices = null;
+            return;
+        }
+
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if(device == null) {
+            return;
+        }
+
+        // Remember the new name of the device
+        if(BluetoothDevice.ACTION_NAME_CHANGED.equals(intent.getAction())) {
+            String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+            if(name != null) {
+                names.put(device.getAddress(), name);
+            }
+            return;
+        }
+
+        // Add or remove the device, unless the index will be built from scratch anyway
+        if(devices == null) {
+            return;
+        }
+        int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
+        if(bondState == BluetoothDevice.BOND_BONDED) {
+            Map<String, BluetoothDevice> index = new HashMap<>(devices);
+            index.put(device.getAddress(), device);
+            devices = Collections.unmodifiableMap(index);
+        } else if(bondState == BluetoothDevice.BOND_NONE && devices.containsKey(device.getAddress())) {
+            Map<String, BluetoothDevice> index = new HashMap<>(devices);
+            index.remove(device.getAddress());
+            devices = Collections.unmodifiableMap(index);
+            names.remove(device.getAddress());
+        }
+    }
+}
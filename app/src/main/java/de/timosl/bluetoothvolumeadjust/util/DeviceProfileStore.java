@@ -0,0 +1,828 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide in-memory copy of the managed devices, their {@link VolumeProfile}s and the user
+ * settings stored in the default {@link SharedPreferences}. Readers always see an
+ * immutable {@link Snapshot}; every change creates a new one (copy-on-write), so
+ * reads need neither locking nor allocations. Devices are looked up by their
+ * MAC-Address converted to a 48 bit long.
+ * <p>
+ * {@link DeviceManagment} and {@link Preferences} are served from this store and
+ * change it through {@link Transaction}s. A transaction is applied to the in-memory
+ * state atomically (compare-and-swap, retried on conflicts) and persisted later:
+ * all changes made since the last write are written together in a single
+ * {@link SharedPreferences.Editor#apply()} on a background thread. {@link #flush()}
+ * writes pending changes right away and waits until they are on disk.
+ * Changes to the settings made elsewhere (e.g. in the settings screen) are
+ * picked up by a preference listener. Interested parts of the app can register
+ * a {@link Listener} to learn about changes of the devices.
+ */
+public class DeviceProfileStore {
+
+    /**
+     * The value of {@link #parseAddress(String)} for invalid MAC-Addresses. Also marks
+     * empty slots in the lookup table, since a 48 bit address can never be negative.
+     */
+    public static final long INVALID_ADDRESS = -1L;
+
+    /**
+     * The key for the list of devices MAC-Addresses.
+     */
+    static final String KEY_DEVICES = "devices";
+
+    /**
+     * The prefix for the music volume stored for each device by older versions.
+     * Only read if a device has no {@link #PREFIX_PROFILES} preference yet.
+     */
+    static final String PREFIX_DEVICES = "bl_device_";
+
+    /**
+     * The prefix for the encoded {@link VolumeProfile} stored for each device.
+     */
+    static final String PREFIX_PROFILES = "bl_profile_";
+
+    /**
+     * The time in milliseconds changes are held back, so changes made shortly
+     * after each other are written together.
+     */
+    private static final long WRITE_DELAY = 200L;
+
+    /**
+     * The process-wide instance.
+     */
+    private static volatile DeviceProfileStore instance;
+
+    /**
+     * The {@link Listener}s to notify about changes of the devices.
+     */
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * A listener that is notified whenever devices were added or removed or their
+     * {@link VolumeProfile} has changed, e.g. because a volume has been learned.
+     * Called on the thread that committed the change.
+     */
+    public interface Listener {
+
+        /**
+         * Called after the changed devices have become visible in the store.
+         */
+        void onDevicesChanged();
+    }
+
+    /**
+     * The {@link SharedPreferences} the store is loaded from.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * The current {@link Snapshot}. Replaced as a whole on every change.
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * The last {@link Snapshot} that has been written to the {@link SharedPreferences}.
+     * Guarded by {@link #writeLock}.
+     */
+    private Snapshot writtenSnapshot;
+
+    /**
+     * Serializes writes to the {@link SharedPreferences}.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Set while a delayed write is scheduled.
+     */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    /**
+     * Executes the delayed writes.
+     */
+    private final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "DeviceProfileStore");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Writes all pending changes.
+     */
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writeScheduled.set(false);
+            write(false);
+        }
+    };
+
+    /**
+     * Reloads the settings when they were changed outside of this store. Must be kept
+     * in a field, since {@link SharedPreferences} only holds a weak reference to it.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener settingsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if(Preferences.KEY_SHOW_INDICATOR.equals(key)
+                    || Preferences.KEY_RESET_VOLUME_ON_DISCONNECT.equals(key)
+                    || Preferences.KEY_ENABLE_DEBUGGING.equals(key)
+                    || Preferences.KEY_RAMP_DURATION.equals(key)
+                    || Preferences.KEY_RAMP_CURVE.equals(key)
+                    || Preferences.KEY_VOLUME_CURVE.equals(key)
+                    || Preferences.KEY_SETTLE_WINDOW.equals(key)
+                    || Preferences.KEY_LEARN_VOLUME.equals(key)
+                    || Preferences.KEY_DIAGNOSTICS.equals(key)) {
+                reloadSettings();
+            }
+        }
+    };
+
+    /**
+     * Returns the process-wide {@link DeviceProfileStore}, loading it on first use.
+     * @param context The applications {@link Context}
+     * @return The {@link DeviceProfileStore}
+     */
+    public static DeviceProfileStore get(Context context) {
+        DeviceProfileStore store = instance;
+        if(store == null) {
+            synchronized (DeviceProfileStore.class) {
+                store = instance;
+                if(store == null) {
+                    store = new DeviceProfileStore(PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Creates a new {@link DeviceProfileStore} and loads all devices and settings.
+     * Use {@link #get(Context)}; only the tests create stores of their own.
+     * @param preferences The {@link SharedPreferences} to load from
+     */
+    DeviceProfileStore(SharedPreferences preferences) {
+        this.preferences = preferences;
+
+        // Load the devices and their profiles. Devices stored by older
+        // versions only have a music volume
+        Set<String> addresses = preferences.getStringSet(KEY_DEVICES, Collections.<String>emptySet());
+        Snapshot loaded = Snapshot.EMPTY;
+        for(String address: addresses) {
+            VolumeProfile profile = VolumeProfile.decode(preferences.getString(PREFIX_PROFILES + address, null));
+            if(profile == null) {
+                profile = VolumeProfile.ofMusic(preferences.getFloat(PREFIX_DEVICES + address, VolumeProfile.UNSET));
+            }
+            loaded = loaded.withDevice(address, profile);
+        }
+        loaded = loaded.withRestoreStack(loadRestoreStack(preferences));
+        loaded = loaded.withSettings(Settings.load(preferences));
+        snapshot.set(loaded);
+        writtenSnapshot = loaded;
+
+        preferences.registerOnSharedPreferenceChangeListener(settingsListener);
+    }
+
+    /**
+     * Registers a {@link Listener}. Does not load the store.
+     * @param listener The {@link Listener} to register
+     */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a {@link Listener}.
+     * @param listener The {@link Listener} to unregister
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the MAC-Addresses of all managed devices.
+     * @return An unmodifiable {@link Set} of MAC-Addresses
+     */
+    public Set<String> getDevices() {
+        return snapshot.get().devices;
+    }
+
+    /**
+     * Returns the {@link VolumeProfile} for the given device.
+     * @param address The MAC-Address of the Bluetooth device
+     * @return The {@link VolumeProfile}, or 'null' if the device is not managed
+     */
+    public VolumeProfile getProfile(String address) {
+        return snapshot.get().getProfile(parseAddress(address));
+    }
+
+    /**
+     * Returns the music volume for the given device.
+     * @param address The MAC-Address of the Bluetooth device
+     * @return The volume in a range from 0.0 to 1.0, or -1 if the device has no volume specified
+     */
+    public float getVolume(String address) {
+        return snapshot.get().getVolume(parseAddress(address));
+    }
+
+    /**
+     * Returns the music volume for the given device.
+     * @param address The MAC-Address of the Bluetooth device as returned by {@link #parseAddress(String)}
+     * @return The volume in a range from 0.0 to 1.0, or -1 if the device has no volume specified
+     */
+    public float getVolume(long address) {
+        return snapshot.get().getVolume(address);
+    }
+
+    /**
+     * @see Preferences#getShowIndicatorEnabled(Context)
+     */
+    boolean getShowIndicator() {
+        return snapshot.get().settings.showIndicator;
+    }
+
+    /**
+     * @see Preferences#getResetVolumeOnDisconnect(Context)
+     */
+    boolean getResetVolumeOnDisconnect() {
+        return snapshot.get().settings.resetVolumeOnDisconnect;
+    }
+
+    /**
+     * @see Preferences#getRestoreStack(Context)
+     */
+    RestoreStack getRestoreStack() {
+        return snapshot.get().restoreStack;
+    }
+
+    /**
+     * @see Preferences#getEnableDebugging(Context)
+     */
+    boolean getEnableDebugging() {
+        return snapshot.get().settings.enableDebugging;
+    }
+
+    /**
+     * @see Preferences#getRampDuration(Context)
+     */
+    int getRampDuration() {
+        return snapshot.get().settings.rampDuration;
+    }
+
+    /**
+     * @see Preferences#getRampCurve(Context)
+     */
+    VolumeRamp.Curve getRampCurve() {
+        return snapshot.get().settings.rampCurve;
+    }
+
+    /**
+     * @see Preferences#getVolumeCurve(Context)
+     */
+    VolumeCurve.Shape getVolumeCurve() {
+        return snapshot.get().settings.volumeCurve;
+    }
+
+    /**
+     * @see Preferences#getSettleWindow(Context)
+     */
+    int getSettleWindow() {
+        return snapshot.get().settings.settleWindow;
+    }
+
+    /**
+     * @see Preferences#getLearnVolume(Context)
+     */
+    boolean getLearnVolume() {
+        return snapshot.get().settings.learnVolume;
+    }
+
+    /**
+     * @see Preferences#getDiagnostics(Context)
+     */
+    boolean getDiagnostics() {
+        return snapshot.get().settings.diagnostics;
+    }
+
+    /**
+     * Starts a new {@link Transaction} on this store.
+     * @return The new {@link Transaction}
+     */
+    public Transaction edit() {
+        return new Transaction();
+    }
+
+    /**
+     * Writes all pending changes to the {@link SharedPreferences} and waits until they
+     * are on disk. Should be called when the process may be killed soon.
+     */
+    public void flush() {
+        write(true);
+    }
+
+    /**
+     * Reloads all settings from the {@link SharedPreferences}.
+     */
+    private void reloadSettings() {
+        Snapshot current;
+        do {
+            current = snapshot.get();
+        } while(!snapshot.compareAndSet(current, current.withSettings(Settings.load(preferences))));
+    }
+
+    /**
+     * Schedules a write of all pending changes, unless one is scheduled already.
+     */
+    private void scheduleWrite() {
+        if(writeScheduled.compareAndSet(false, true)) {
+            writeExecutor.schedule(writeTask, WRITE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes everything that changed since the last write with a single {@link SharedPreferences.Editor}.
+     * @param durable Set if the call should only return once the changes are on disk
+     */
+    private void write(boolean durable) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot.get();
+            if(current != writtenSnapshot) {
+                SharedPreferences.Editor editor = preferences.edit();
+
+                // The list of devices
+                if(!current.devices.equals(writtenSnapshot.devices)) {
+                    editor.putStringSet(KEY_DEVICES, new HashSet<>(current.devices));
+                }
+
+                // The profiles of devices that were added, changed or removed. The
+                // music volume of older versions is dropped once a profile is written
+                for(String address: writtenSnapshot.devices) {
+                    if(!current.devices.contains(address)) {
+                        editor.remove(PREFIX_PROFILES + address);
+                        editor.remove(PREFIX_DEVICES + address);
+                    }
+                }
+                for(String address: current.devices) {
+                    VolumeProfile profile = current.getProfile(parseAddress(address));
+                    if(profile != null && !profile.equals(writtenSnapshot.getProfile(parseAddress(address)))) {
+                        editor.putString(PREFIX_PROFILES + address, profile.encode());
+                        editor.remove(PREFIX_DEVICES + address);
+                    }
+                }
+
+                // The volumes to restore. The single volume of older versions is dropped
+                // once the stack is written
+                if(!current.restoreStack.equals(writtenSnapshot.restoreStack)) {
+                    editor.putString(Preferences.KEY_RESTORE_STACK, current.restoreStack.encode());
+                    editor.remove(Preferences.KEY_LAST_MEDIA_VOLUME);
+                }
+
+                writtenSnapshot = current;
+                if(durable) {
+                    editor.commit();
+                } else {
+                    editor.apply();
+                }
+            } else if(durable) {
+                // Wait for earlier writes that may still be in progress
+                preferences.edit().commit();
+            }
+        }
+    }
+
+    /**
+     * A set of changes to the store that is applied as a whole. Changes are recorded
+     * with the setter methods and become visible with {@link #commit()}.
+     */
+    public final class Transaction {
+
+        /**
+         * The recorded changes, in the order they were made.
+         */
+        private final List<Change> changes = new ArrayList<>();
+
+        /**
+         * Creates a new {@link Transaction}. Use {@link DeviceProfileStore#edit()}.
+         */
+        private Transaction() {
+        }
+
+        /**
+         * Adds a device or updates its music volume. The volumes of other streams are kept.
+         * @param address The MAC-Address of the Bluetooth device
+         * @param volume The music volume of the device in a range from 0.0 to 1.0
+         * @return This {@link Transaction}
+         */
+        public Transaction putDevice(final String address, final float volume) {
+            changes.add(new Change() {
+                @Override
+                public Snapshot applyTo(Snapshot snapshot) {
+                    VolumeProfile profile = snapshot.getProfile(parseAddress(address));
+                    if(profile == null) {
+                        profile = VolumeProfile.EMPTY;
+                    }
+                    return snapshot.withDevice(address, profile.withVolume(VolumeProfile.STREAM_MUSIC, volume));
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Adds a device or replaces its {@link VolumeProfile}.
+         * @param address The MAC-Address of the Bluetooth device
+         * @param profile The {@link VolumeProfile} of the device
+         * @return This {@link Transaction}
+         */
+        public Transaction putDevice(final String address, final VolumeProfile profile) {
+            changes.add(new Change() {
+                @Override
+                public Snapshot applyTo(Snapshot snapshot) {
+                    return snapshot.withDevice(address, profile);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Removes a device and its volume.
+         * @param address The MAC-Address of the Bluetooth device
+         * @return This {@link Transaction}
+         */
+        public Transaction removeDevice(final String address) {
+            changes.add(new Change() {
+                @Override
+                public Snapshot applyTo(Snapshot snapshot) {
+                    return snapshot.withoutDevice(address);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Replaces the volumes to restore.
+         * @param stack The new {@link RestoreStack}
+         * @return This {@link Transaction}
+         */
+        public Transaction setRestoreStack(final RestoreStack stack) {
+            changes.add(new Change() {
+                @Override
+                public Snapshot applyTo(Snapshot snapshot) {
+                    return snapshot.withRestoreStack(stack);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Applies all changes to the store at once and schedules writing them.
+         * If another transaction was committed in the meantime, the changes are
+         * applied again on top of it. The {@link Listener}s are notified if
+         * devices have changed.
+         */
+        public void commit() {
+            Snapshot current;
+            Snapshot changed;
+            do {
+                current = snapshot.get();
+                changed = current;
+                for(Change change: changes) {
+                    changed = change.applyTo(changed);
+                }
+            } while(!snapshot.compareAndSet(current, changed));
+
+            scheduleWrite();
+
+            // Only changes of the devices are of interest, not the volumes to restore.
+            // The profiles are copied whenever a device has changed
+            if(changed.profiles != current.profiles) {
+                for(Listener listener: listeners) {
+                    listener.onDevicesChanged();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single change recorded by a {@link Transaction}.
+     */
+    private interface Change {
+
+        /**
+         * Applies the change.
+         * @param snapshot The {@link Snapshot} to apply the change to
+         * @return The changed {@link Snapshot}
+         */
+        Snapshot applyTo(Snapshot snapshot);
+    }
+
+    /**
+     * Loads the volumes to restore. Older versions only stored a single volume, which
+     * becomes the speaker volume, since it was taken before a device connected.
+     * @param preferences The {@link SharedPreferences} to load from
+     * @return The {@link RestoreStack}
+     */
+    private static RestoreStack loadRestoreStack(SharedPreferences preferences) {
+        RestoreStack stack = RestoreStack.decode(preferences.getString(Preferences.KEY_RESTORE_STACK, null));
+        if(stack == null) {
+            stack = RestoreStack.EMPTY.withSpeakerVolume(preferences.getInt(Preferences.KEY_LAST_MEDIA_VOLUME, -1));
+        }
+        return stack;
+    }
+
+    /**
+     * Converts a MAC-Address in the format 'AA:BB:CC:DD:EE:FF' to a 48 bit long
+     * without allocating anything.
+     * @param address The MAC-Address
+     * @return The MAC-Address as a long, or {@link #INVALID_ADDRESS} if it is not valid
+     */
+    public static long parseAddress(String address) {
+        if(address == null || address.length() != 17) {
+            return INVALID_ADDRESS;
+        }
+
+        long value = 0L;
+        for(int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+
+            // Every third character has to be a separator
+            if(i % 3 == 2) {
+                if(c != ':') {
+                    return INVALID_ADDRESS;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if(digit < 0) {
+                return INVALID_ADDRESS;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * An immutable state of the store. Devices are kept in an open addressing
+     * hash table of MAC-Addresses and profiles, so lookups only read two arrays.
+     */
+    private static final class Snapshot {
+
+        /**
+         * A {@link Snapshot} without any devices or settings.
+         */
+        static final Snapshot EMPTY = new Snapshot(Collections.<String>emptySet(), new long[] { INVALID_ADDRESS }, new VolumeProfile[1], RestoreStack.EMPTY, Settings.DEFAULT);
+
+        /**
+         * The MAC-Addresses of all managed devices.
+         */
+        final Set<String> devices;
+
+        /**
+         * The hash table slots holding the MAC-Addresses. The length is a power of two.
+         */
+        final long[] keys;
+
+        /**
+         * The profiles, in the same slots as their MAC-Addresses in {@link #keys}.
+         */
+        final VolumeProfile[] profiles;
+
+        /**
+         * The value of {@link Preferences#KEY_RESTORE_STACK}.
+         */
+        final RestoreStack restoreStack;
+
+        /**
+         * The settings of the user.
+         */
+        final Settings settings;
+
+        Snapshot(Set<String> devices, long[] keys, VolumeProfile[] profiles, RestoreStack restoreStack, Settings settings) {
+            this.devices = devices;
+            this.keys = keys;
+            this.profiles = profiles;
+            this.restoreStack = restoreStack;
+            this.settings = settings;
+        }
+
+        /**
+         * Looks up the music volume for a device.
+         * @param address The MAC-Address as a long
+         * @return The volume, or -1 if the device is unknown
+         */
+        float getVolume(long address) {
+            VolumeProfile profile = getProfile(address);
+            return profile != null ? profile.getVolume(VolumeProfile.STREAM_MUSIC) : -1f;
+        }
+
+        /**
+         * Looks up the profile for a device.
+         * @param address The MAC-Address as a long
+         * @return The {@link VolumeProfile}, or 'null' if the device is unknown
+         */
+        VolumeProfile getProfile(long address) {
+            if(address == INVALID_ADDRESS) {
+                return null;
+            }
+
+            // Linear probing until we find the address or an empty slot
+            int mask = keys.length - 1;
+            for(int slot = slotOf(address, mask); ; slot = (slot + 1) & mask) {
+                long key = keys[slot];
+                if(key == address) {
+                    return profiles[slot];
+                }
+                if(key == INVALID_ADDRESS) {
+                    return null;
+                }
+            }
+        }
+
+        Snapshot withDevice(String address, VolumeProfile profile) {
+            Set<String> newDevices = new HashSet<>(devices);
+            newDevices.add(address);
+            return rebuild(newDevices, address, profile);
+        }
+
+        Snapshot withoutDevice(String address) {
+            Set<String> newDevices = new HashSet<>(devices);
+            newDevices.remove(address);
+            return rebuild(newDevices, null, null);
+        }
+
+        Snapshot withRestoreStack(RestoreStack stack) {
+            return new Snapshot(devices, keys, profiles, stack, settings);
+        }
+
+        Snapshot withSettings(Settings newSettings) {
+            return new Snapshot(devices, keys, profiles, restoreStack, newSettings);
+        }
+
+        /**
+         * Builds a new {@link Snapshot} with the given devices, taking the profiles from
+         * this one except for the device that has changed.
+         * @param newDevices The devices of the new {@link Snapshot}
+         * @param changedAddress The device whose profile has changed, or 'null'
+         * @param changedProfile The new profile of the changed device
+         * @return The new {@link Snapshot}
+         */
+        private Snapshot rebuild(Set<String> newDevices, String changedAddress, VolumeProfile changedProfile) {
+            // Keep the table at most half full
+            int capacity = 2;
+            while(capacity < newDevices.size() * 2) {
+                capacity <<= 1;
+            }
+            long[] newKeys = new long[capacity];
+            VolumeProfile[] newProfiles = new VolumeProfile[capacity];
+            Arrays.fill(newKeys, INVALID_ADDRESS);
+
+            int mask = capacity - 1;
+            for(String device: newDevices) {
+                long address = parseAddress(device);
+                if(address == INVALID_ADDRESS) {
+                    continue;
+                }
+                VolumeProfile profile = device.equals(changedAddress) ? changedProfile : getProfile(address);
+
+                int slot = slotOf(address, mask);
+                while(newKeys[slot] != INVALID_ADDRESS) {
+                    slot = (slot + 1) & mask;
+                }
+                newKeys[slot] = address;
+                newProfiles[slot] = profile;
+            }
+
+            return new Snapshot(Collections.unmodifiableSet(newDevices), newKeys, newProfiles, restoreStack, settings);
+        }
+
+        /**
+         * Returns the first hash table slot to probe for an address.
+         */
+        private static int slotOf(long address, int mask) {
+            long hash = address * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+    }
+
+    /**
+     * The settings of the user, as set in the settings screen.
+     */
+    private static final class Settings {
+
+        /**
+         * The {@link Settings} used if nothing has been set.
+         */
+        static final Settings DEFAULT = new Settings(true, false, false, Preferences.DEFAULT_RAMP_DURATION, VolumeRamp.Curve.LINEAR, Preferences.DEFAULT_SETTLE_WINDOW, false, VolumeCurve.Shape.LINEAR, false);
+
+        /**
+         * The value of {@link Preferences#KEY_SHOW_INDICATOR}.
+         */
+        final boolean showIndicator;
+
+        /**
+         * The value of {@link Preferences#KEY_RESET_VOLUME_ON_DISCONNECT}.
+         */
+        final boolean resetVolumeOnDisconnect;
+
+        /**
+         * The value of {@link Preferences#KEY_ENABLE_DEBUGGING}.
+         */
+        final boolean enableDebugging;
+
+        /**
+         * The value of {@link Preferences#KEY_RAMP_DURATION} in milliseconds.
+         */
+        final int rampDuration;
+
+        /**
+         * The value of {@link Preferences#KEY_RAMP_CURVE}.
+         */
+        final VolumeRamp.Curve rampCurve;
+
+        /**
+         * The value of {@link Preferences#KEY_SETTLE_WINDOW} in milliseconds.
+         */
+        final int settleWindow;
+
+        /**
+         * The value of {@link Preferences#KEY_LEARN_VOLUME}.
+         */
+        final boolean learnVolume;
+
+        /**
+         * The value of {@link Preferences#KEY_VOLUME_CURVE}.
+         */
+        final VolumeCurve.Shape volumeCurve;
+
+        /**
+         * The value of {@link Preferences#KEY_DIAGNOSTICS}.
+         */
+        final boolean diagnostics;
+
+        Settings(boolean showIndicator, boolean resetVolumeOnDisconnect, boolean enableDebugging, int rampDuration, VolumeRamp.Curve rampCurve, int settleWindow, boolean learnVolume, VolumeCurve.Shape volumeCurve, boolean diagnostics) {
+            this.showIndicator = showIndicator;
+            this.resetVolumeOnDisconnect = resetVolumeOnDisconnect;
+            this.enableDebugging = enableDebugging;
+            this.rampDuration = rampDuration;
+            this.rampCurve = rampCurve;
+            this.settleWindow = settleWindow;
+            this.learnVolume = learnVolume;
+            this.volumeCurve = volumeCurve;
+            this.diagnostics = diagnostics;
+        }
+
+        /**
+         * Loads the settings from the given {@link SharedPreferences}.
+         * @param preferences The {@link SharedPreferences} to load from
+         * @return The loaded {@link Settings}
+         */
+        static Settings load(SharedPreferences preferences) {
+            return new Settings(
+                    preferences.getBoolean(Preferences.KEY_SHOW_INDICATOR, true),
+                    preferences.getBoolean(Preferences.KEY_RESET_VOLUME_ON_DISCONNECT, false),
+                    preferences.getBoolean(Preferences.KEY_ENABLE_DEBUGGING, false),
+                    getDuration(preferences, Preferences.KEY_RAMP_DURATION, Preferences.DEFAULT_RAMP_DURATION),
+                    VolumeRamp.Curve.fromValue(preferences.getString(Preferences.KEY_RAMP_CURVE, null)),
+                    getDuration(preferences, Preferences.KEY_SETTLE_WINDOW, Preferences.DEFAULT_SETTLE_WINDOW),
+                    preferences.getBoolean(Preferences.KEY_LEARN_VOLUME, false),
+                    VolumeCurve.Shape.fromValue(preferences.getString(Preferences.KEY_VOLUME_CURVE, null)),
+                    preferences.getBoolean(Preferences.KEY_DIAGNOSTICS, false));
+        }
+
+        /**
+         * Reads a duration set in a list preference, which stores its values as strings.
+         * @param preferences The {@link SharedPreferences} to load from
+         * @param key The key of the preference
+         * @param defaultValue The duration used if nothing valid has been set
+         * @return The duration in milliseconds
+         */
+        private static int getDuration(SharedPreferences preferences, String key, int defaultValue) {
+            try {
+                return Math.max(0, Integer.parseInt(preferences.getString(key, String.valueOf(defaultValue))));
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+}
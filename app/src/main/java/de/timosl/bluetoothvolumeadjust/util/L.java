@@ -1,21 +1,33 @@
 package de.timosl.bluetoothvolumeadjust.util;
 
+import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Date;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
 
 /**
  * Class that provides static methods for logging
  * into an internal file. so the user may send it
  * as a report later.
  * Also controls if logs should be displayed in Logcat.
+ * The file is written by a {@link LogWriter} in the background,
+ * so logging only queues the message on the callers thread.
+ * <p>
+ * Messages can be passed as a format string with up to four arguments
+ * (see {@link String#format(String, Object...)}). If logging is disabled,
+ * such a call returns right away without formatting or allocating anything.
+ * The message is only formatted when it is written to the log file.
+ * {@link BluetoothDevice} arguments are written as the name of the device,
+ * which is only looked up at that time. Avoid passing primitive values that
+ * are not cached by autoboxing (e.g. floats) without checking {@link #isEnabled()} first.
  */
 public class L {
 
@@ -50,47 +62,100 @@ public class L {
      */
     private static Context applicationContext;
 
+    /**
+     * The segmented log file.
+     */
+    private static RotatingLogFile logFile;
+
+    /**
+     * The {@link LogWriter} appending to the log file.
+     */
+    private static LogWriter writer;
+
+    /**
+     * Set if logging to the log file is enabled by the user preference.
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * Keeps {@link #enabled} in sync with the user preference. Must be kept in
+     * a field, since {@link SharedPreferences} only holds a weak reference to it.
+     */
+    private static final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if(Preferences.KEY_ENABLE_DEBUGGING.equals(key)) {
+                enabled = sharedPreferences.getBoolean(key,false);
+            }
+        }
+    };
+
     /**
      * Initializes the logging system with the given application {@link Context}.
      * @param context The applications {@link Context}
      */
     public static void init(Context context) {
         applicationContext = context;
+        logFile = new RotatingLogFile(new File(context.getFilesDir(),LOGFILE_NAME));
+        writer = new LogWriter(logFile);
+
+        // Track the user preference for logging
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        preferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+        enabled = Preferences.getEnableDebugging(context);
+    }
+
+    /**
+     * Returns if log messages are recorded at all. Can be used to skip expensive
+     * work that is only needed for logging.
+     * @return Returns 'true' if log messages are recorded
+     */
+    public static boolean isEnabled() {
+        return ENABLE_DEBUG_LOGCAT || enabled;
     }
 
     /**
      * Logs the given message with the given level
      * @param level The log level
-     * @param message The message
+     * @param message The message, or the format string if there are arguments
+     * @param args The arguments for the format string, or 'null' if the message is not formatted
      */
-    private static void log(String level, String message) {
+    private static void log(String level, String message, Object[] args) {
         // Post it to Logcat if enabled
         if (ENABLE_DEBUG_LOGCAT) {
-            Log.d(TAG,message);
-        }
-
-        // If logging is enabled by the user preference, append
-        // this message to the log file
-        if (Preferences.getEnableDebugging(applicationContext)) {
-            // Locate the log file
-            File debugFile  = new File(applicationContext.getFilesDir(),LOGFILE_NAME);
-
-            // Construct the complete message
-            StringBuilder messageBuilder = new StringBuilder();
-            messageBuilder.append(new Date().toString());
-            messageBuilder.append(" ["+ level +"] - ");
-            messageBuilder.append(message);
-            messageBuilder.append("\n");
-
-            // Write to the log file
-            try {
-                BufferedWriter writer = new BufferedWriter(new FileWriter(debugFile,true));
-                writer.append(messageBuilder.toString());
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            Log.d(TAG,format(message,args));
+        }
+
+        // If logging is enabled by the user preference, queue
+        // this message for the log file
+        if (enabled) {
+            writer.write(level,message,args);
+        }
+    }
+
+    /**
+     * Formats a message that was logged. Called on the thread that writes the message.
+     * @param message The message, or the format string if there are arguments
+     * @param args The arguments for the format string, or 'null' if the message is not formatted
+     * @return The formatted message
+     */
+    static String format(String message, Object[] args) {
+        if(args == null) {
+            return message;
+        }
+
+        // Resolve the names of Bluetooth devices only now
+        for(int i = 0; i < args.length; i++) {
+            if(args[i] instanceof BluetoothDevice) {
+                args[i] = BondedDeviceIndex.getName((BluetoothDevice) args[i]);
             }
         }
+
+        try {
+            return String.format(message,args);
+        } catch (IllegalFormatException e) {
+            return message+" "+Arrays.toString(args);
+        }
     }
 
     /**
@@ -98,7 +163,59 @@ public class L {
      * @param message The log message
      */
     public static void i(String message) {
-        log(LEVEL_INFO,message);
+        if(isEnabled()) {
+            log(LEVEL_INFO,message,null);
+        }
+    }
+
+    /**
+     * Writes an INFO log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     */
+    public static void i(String format, Object arg1) {
+        if(isEnabled()) {
+            log(LEVEL_INFO,format,new Object[] {arg1});
+        }
+    }
+
+    /**
+     * Writes an INFO log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
+     */
+    public static void i(String format, Object arg1, Object arg2) {
+        if(isEnabled()) {
+            log(LEVEL_INFO,format,new Object[] {arg1,arg2});
+        }
+    }
+
+    /**
+     * Writes an INFO log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
+     * @param arg3 The third argument for the format string
+     */
+    public static void i(String format, Object arg1, Object arg2, Object arg3) {
+        if(isEnabled()) {
+            log(LEVEL_INFO,format,new Object[] {arg1,arg2,arg3});
+        }
+    }
+
+    /**
+     * Writes an INFO log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
+     * @param arg3 The third argument for the format string
+     * @param arg4 The fourth argument for the format string
+     */
+    public static void i(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if(isEnabled()) {
+            log(LEVEL_INFO,format,new Object[] {arg1,arg2,arg3,arg4});
+        }
     }
 
     /**
@@ -106,42 +223,86 @@ public class L {
      * @param message The log message
      */
     public static void w(String message) {
-        log(LEVEL_WARNING,message);
+        if(isEnabled()) {
+            log(LEVEL_WARNING,message,null);
+        }
     }
 
     /**
-     * Clears the complete log file.
+     * Writes a WARNING log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
      */
-    public static void clearLog() {
-        File debugFile  = new File(applicationContext.getFilesDir(),LOGFILE_NAME);
-        debugFile.delete();
+    public static void w(String format, Object arg1) {
+        if(isEnabled()) {
+            log(LEVEL_WARNING,format,new Object[] {arg1});
+        }
     }
 
     /**
-     * Retrieves the current content of the log file.
-     * @return The content of the log file as a String
+     * Writes a WARNING log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
      */
-    public static String getLog() {
-        // Locate the log file
-        File debugFile  = new File(applicationContext.getFilesDir(),LOGFILE_NAME);
+    public static void w(String format, Object arg1, Object arg2) {
+        if(isEnabled()) {
+            log(LEVEL_WARNING,format,new Object[] {arg1,arg2});
+        }
+    }
 
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(debugFile));
-
-            // Read the file line-for-line and use the StringBuilder
-            // to concatenate the strings
-            StringBuilder builder = new StringBuilder();
-            String s;
-            while((s = reader.readLine()) != null) {
-                builder.append(s);
-                builder.append("\n");
-            }
+    /**
+     * Writes a WARNING log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
+     * @param arg3 The third argument for the format string
+     */
+    public static void w(String format, Object arg1, Object arg2, Object arg3) {
+        if(isEnabled()) {
+            log(LEVEL_WARNING,format,new Object[] {arg1,arg2,arg3});
+        }
+    }
 
-            return builder.toString();
-        } catch (Exception e) {
-            // Oops, something went wrong while reading from the log file
-            e.printStackTrace();
-            return null;
+    /**
+     * Writes a WARNING log message.
+     * @param format The format string of the log message
+     * @param arg1 The first argument for the format string
+     * @param arg2 The second argument for the format string
+     * @param arg3 The third argument for the format string
+     * @param arg4 The fourth argument for the format string
+     */
+    public static void w(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if(isEnabled()) {
+            log(LEVEL_WARNING,format,new Object[] {arg1,arg2,arg3,arg4});
         }
     }
+
+    /**
+     * Clears the complete log file, including all of its segments.
+     */
+    public static void clearLog() {
+        writer.clear();
+    }
+
+    /**
+     * Waits until all queued messages have been written to the log file.
+     */
+    public static void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Opens a {@link Reader} on the complete log file. The segments of the
+     * log file are read one after another while the {@link Reader} is consumed,
+     * so the log is never loaded into memory as a whole.
+     * @return A {@link Reader} on the log file, which must be closed by the caller
+     * @throws IOException If the log file could not be opened
+     */
+    public static Reader openLog() throws IOException {
+        // Make sure all queued messages have been written
+        writer.flush();
+
+        return new InputStreamReader(logFile.openInputStream(), "UTF-8");
+    }
 }
@@ -0,0 +1,132 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+/**
+ * A histogram of durations in milliseconds with a fixed number of log-linear buckets:
+ * durations below {@link #SUB_BUCKETS} milliseconds have a bucket each, every following
+ * power of two is split into {@link #SUB_BUCKETS} buckets of equal width. This keeps the
+ * relative error below 1/{@link #SUB_BUCKETS} while the histogram stays small.
+ * Durations of {@link #MAX_VALUE} milliseconds and above share the last bucket.
+ * <p>
+ * Recording a duration only increments an array element. The histogram is not
+ * thread-safe; it must only be changed on a single thread.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits used for the buckets within a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets within a power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest duration in milliseconds that is recorded precisely (about 65 seconds).
+     */
+    static final long MAX_VALUE = (1L << 16) - 1;
+
+    /**
+     * The number of buckets.
+     */
+    static final int BUCKET_COUNT = bucketOf(MAX_VALUE) + 1;
+
+    /**
+     * The number of durations in each bucket.
+     */
+    final int[] counts = new int[BUCKET_COUNT];
+
+    /**
+     * Records a duration.
+     * @param millis The duration in milliseconds
+     */
+    public void record(long millis) {
+        counts[bucketOf(millis)]++;
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     * @return The number of durations
+     */
+    public long getCount() {
+        long count = 0;
+        for(int bucketCount: counts) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the duration below which the given share of the recorded durations lies.
+     * The result is the upper bound of the bucket the percentile falls into.
+     * @param percentile The percentile, from 0.0 to 100.0
+     * @return The duration in milliseconds, or '-1' if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if(count == 0) {
+            return -1;
+        }
+
+        long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for(int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if(seen >= rank) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Removes all recorded durations.
+     */
+    public void clear() {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram.
+     * @return The copy
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        return copy;
+    }
+
+    /**
+     * Returns the bucket of a duration.
+     * @param millis The duration in milliseconds
+     * @return The index of the bucket
+     */
+    static int bucketOf(long millis) {
+        long value = Math.max(0L, Math.min(millis, MAX_VALUE));
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // The highest bit selects the power of two, the next bits the bucket within it
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the largest duration in a bucket.
+     * @param bucket The index of the bucket
+     * @return The duration in milliseconds
+     */
+    static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long lowerBound = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,313 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics about how long it takes from a device being CONNECTED to its volume being set.
+ * For each device there is a {@link LatencyHistogram} per phase of the adjustment, holding
+ * the time from receiving the broadcast to the end of that phase.
+ * <p>
+ * Durations are recorded through a {@link Recorder}, which only increments a counter under
+ * the lock of the statistics. The lock is only contended while the statistics are read,
+ * cleared or saved, so all methods can be called from any thread. The statistics are
+ * stored in a small binary file that only holds the buckets that are in use.
+ */
+public class LatencyStats {
+
+    /**
+     * The phase ending when the job for the state change has been started.
+     */
+    public static final int PHASE_JOB_STARTED = 0;
+
+    /**
+     * The phase ending when the volume for the device has been looked up.
+     */
+    public static final int PHASE_STORE_LOOKUP = 1;
+
+    /**
+     * The phase ending when the silence has started playing.
+     */
+    public static final int PHASE_SILENCE_STARTED = 2;
+
+    /**
+     * The phase ending when music was detected on the music stream.
+     */
+    public static final int PHASE_MUSIC_ACTIVE = 3;
+
+    /**
+     * The phase ending when the volume is being set.
+     */
+    public static final int PHASE_VOLUME_SET = 4;
+
+    /**
+     * The number of phases.
+     */
+    public static final int PHASE_COUNT = 5;
+
+    /**
+     * The name of the file the statistics are stored in.
+     */
+    private static final String FILE_NAME = "latency.bin";
+
+    /**
+     * The version of the file format.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * The process-wide instance.
+     */
+    private static LatencyStats instance;
+
+    /**
+     * The file the statistics are stored in.
+     */
+    private final File file;
+
+    /**
+     * The histograms of each phase, by the MAC-Address of the device.
+     * Guarded by 'this'.
+     */
+    private final Map<String, LatencyHistogram[]> devices = new HashMap<>();
+
+    /**
+     * Set if something was recorded since the statistics were saved. Guarded by 'this'.
+     */
+    private boolean changed;
+
+    /**
+     * Records the durations of one device.
+     */
+    public final class Recorder {
+
+        /**
+         * The histograms of each phase.
+         */
+        private final LatencyHistogram[] phases;
+
+        private Recorder(LatencyHistogram[] phases) {
+            this.phases = phases;
+        }
+
+        /**
+         * Records the duration of a phase. Does not allocate.
+         * @param phase The phase, one of the PHASE_ constants
+         * @param millis The time in milliseconds since the broadcast was received
+         */
+        public void record(int phase, long millis) {
+            synchronized (LatencyStats.this) {
+                phases[phase].record(millis);
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * The statistics of a single device, as returned by {@link #getDeviceStats()}.
+     */
+    public static final class DeviceStats {
+
+        /**
+         * The MAC-Address of the device.
+         */
+        public final String address;
+
+        /**
+         * A copy of the histogram of each phase.
+         */
+        public final LatencyHistogram[] phases;
+
+        private DeviceStats(String address, LatencyHistogram[] phases) {
+            this.address = address;
+            this.phases = phases;
+        }
+    }
+
+    /**
+     * Returns the process-wide {@link LatencyStats}, loading them on first use.
+     * @param context The applications {@link Context}
+     * @return The {@link LatencyStats}
+     */
+    public static synchronized LatencyStats get(Context context) {
+        if(instance == null) {
+            instance = new LatencyStats(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * Creates new, empty {@link LatencyStats}.
+     * @param file The file the statistics are stored in
+     */
+    private LatencyStats(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the {@link Recorder} for a device.
+     * @param address The MAC-Address of the device
+     * @return The {@link Recorder}
+     */
+    public synchronized Recorder recorder(String address) {
+        return new Recorder(histogramsOf(address));
+    }
+
+    /**
+     * Returns a copy of the statistics of all devices.
+     * @return A list of {@link DeviceStats}
+     */
+    public synchronized List<DeviceStats> getDeviceStats() {
+        List<DeviceStats> result = new ArrayList<>(devices.size());
+        for(Map.Entry<String, LatencyHistogram[]> entry: devices.entrySet()) {
+            LatencyHistogram[] copies = new LatencyHistogram[PHASE_COUNT];
+            for(int phase = 0; phase < PHASE_COUNT; phase++) {
+                copies[phase] = entry.getValue()[phase].copy();
+            }
+            result.add(new DeviceStats(entry.getKey(), copies));
+        }
+        return result;
+    }
+
+    /**
+     * Removes all statistics, including the stored ones.
+     */
+    public synchronized void clear() {
+        for(LatencyHistogram[] phases: devices.values()) {
+            for(LatencyHistogram histogram: phases) {
+                histogram.clear();
+            }
+        }
+        changed = false;
+        if(file.exists() && !file.delete()) {
+            L.w("(LatencyStats) The stored statistics could not be deleted");
+        }
+    }
+
+    /**
+     * Stores the statistics, if something has been recorded since they were stored last.
+     */
+    public synchronized void save() {
+        if(!changed) {
+            return;
+        }
+        changed = false;
+
+        // Write to a temporary file first, so a crash does not leave a broken file
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(devices.size());
+                for(Map.Entry<String, LatencyHistogram[]> entry: devices.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    for(LatencyHistogram histogram: entry.getValue()) {
+                        writeHistogram(out, histogram);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if(!tempFile.renameTo(file)) {
+                L.w("(LatencyStats) The statistics could not be stored");
+            }
+        } catch (IOException e) {
+            L.w("(LatencyStats) The statistics could not be stored: %s",e);
+        }
+    }
+
+    /**
+     * Loads the stored statistics.
+     */
+    private synchronized void load() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != FILE_VERSION) {
+                    return;
+                }
+                int deviceCount = in.readInt();
+                for(int i = 0; i < deviceCount; i++) {
+                    LatencyHistogram[] phases = histogramsOf(in.readUTF());
+                    for(LatencyHistogram histogram: phases) {
+                        readHistogram(in, histogram);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing has been stored yet
+        } catch (EOFException e) {
+            L.w("(LatencyStats) The stored statistics are incomplete");
+        } catch (IOException e) {
+            L.w("(LatencyStats) The statistics could not be loaded: %s",e);
+        }
+    }
+
+    /**
+     * Returns the histograms of a device, creating them if needed.
+     * @param address The MAC-Address of the device
+     * @return The histograms of each phase
+     */
+    private LatencyHistogram[] histogramsOf(String address) {
+        LatencyHistogram[] phases = devices.get(address);
+        if(phases == null) {
+            phases = new LatencyHistogram[PHASE_COUNT];
+            for(int phase = 0; phase < PHASE_COUNT; phase++) {
+                phases[phase] = new LatencyHistogram();
+            }
+            devices.put(address, phases);
+        }
+        return phases;
+    }
+
+    /**
+     * Writes the buckets of a histogram that are in use, as pairs of index and count.
+     */
+    private static void writeHistogram(DataOutputStream out, LatencyHistogram histogram) throws IOException {
+        int used = 0;
+        for(int count: histogram.counts) {
+            if(count != 0) {
+                used++;
+            }
+        }
+        out.writeByte(used);
+        for(int bucket = 0; bucket < histogram.counts.length; bucket++) {
+            if(histogram.counts[bucket] != 0) {
+                out.writeByte(bucket);
+                out.writeInt(histogram.counts[bucket]);
+            }
+        }
+    }
+
+    /**
+     * Reads the buckets written by {@link #writeHistogram(DataOutputStream, LatencyHistogram)}.
+     */
+    private static void readHistogram(DataInputStream in, LatencyHistogram histogram) throws IOException {
+        int used = in.readUnsignedByte();
+        for(int i = 0; i < used; i++) {
+            int bucket = in.readUnsignedByte();
+            int count = in.readInt();
+            if(bucket < histogram.counts.length) {
+                histogram.counts[bucket] += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the messages logged with {@link L} to the log file on a background thread.
+ * Loggers only add their message to a lock-free queue; the writer thread collects
+ * them into batches and appends each batch to the {@link RotatingLogFile} with a single
+ * write.
+ */
+class LogWriter implements Runnable {
+
+    /**
+     * The number of queued messages that causes a batch to be written right away.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * The maximum time in milliseconds a message waits in the queue for more messages
+     * to join its batch.
+     */
+    private static final long BATCH_DELAY = 500L;
+
+    /**
+     * The number of characters after which a batch is written even if more
+     * messages are queued, so the segments of the log file stay close to their size.
+     */
+    private static final int MAX_BATCH_LENGTH = 16 * 1024;
+
+    /**
+     * The encoding of the log file.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * An entry in the queue. Either a message to log or a command for the writer
+     * thread, in which case a {@link CountDownLatch} is released once it was executed.
+     */
+    private static final class Entry {
+
+        /**
+         * The time the message was logged at.
+         */
+        final long timestamp;
+
+        /**
+         * The log level of the message.
+         */
+        final String level;
+
+        /**
+         * The message, or the format string if there are arguments.
+         */
+        final String message;
+
+        /**
+         * The arguments for the format string, or 'null' if the message is not formatted.
+         */
+        final Object[] args;
+
+        /**
+         * Released once the command was executed, or 'null' for messages.
+         */
+        final CountDownLatch done;
+
+        /**
+         * Set if the command should delete the log file.
+         */
+        final boolean clear;
+
+        Entry(long timestamp, String level, String message, Object[] args, CountDownLatch done, boolean clear) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.message = message;
+            this.args = args;
+            this.done = done;
+            this.clear = clear;
+        }
+    }
+
+    /**
+     * The log file.
+     */
+    private final RotatingLogFile logFile;
+
+    /**
+     * The queue of messages and commands, filled by any thread and emptied by the writer thread.
+     */
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of entries in the {@link #queue}, which is expensive to count otherwise.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The writer thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Formats the timestamps the same way {@link Date#toString()} does.
+     * Only used on the writer thread.
+     */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    /**
+     * The {@link Date} reused for formatting. Only used on the writer thread.
+     */
+    private final Date date = new Date();
+
+    /**
+     * The current batch. Only used on the writer thread.
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Creates a new {@link LogWriter} and starts its thread.
+     * @param logFile The log file to append to
+     */
+    LogWriter(RotatingLogFile logFile) {
+        this.logFile = logFile;
+        this.thread = new Thread(this, "LogWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a message for writing. The message is formatted on the writer thread.
+     * @param level The log level
+     * @param message The message, or the format string if there are arguments
+     * @param args The arguments for the format string, or 'null' if the message is not formatted
+     */
+    void write(String level, String message, Object[] args) {
+        enqueue(new Entry(System.currentTimeMillis(), level, message, args, null, false));
+    }
+
+    /**
+     * Writes all queued messages to the log file and waits until they have been written.
+     */
+    void flush() {
+        await(new Entry(0L, null, null, null, new CountDownLatch(1), false));
+    }
+
+    /**
+     * Writes all queued messages, deletes all segments of the log file and waits until they have been deleted.
+     */
+    void clear() {
+        await(new Entry(0L, null, null, null, new CountDownLatch(1), true));
+    }
+
+    /**
+     * Adds an entry to the queue and wakes the writer thread if this entry
+     * started a new batch or completed one.
+     * @param entry The {@link Entry} to queue
+     */
+    private void enqueue(Entry entry) {
+        queue.offer(entry);
+        int count = queued.incrementAndGet();
+        if(count == 1 || count == BATCH_SIZE || entry.done != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Queues a command and waits until the writer thread has executed it.
+     * @param command The command {@link Entry}
+     */
+    private void await(Entry command) {
+        enqueue(command);
+        try {
+            command.done.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            // Sleep until there is something to write
+            while(queued.get() == 0) {
+                LockSupport.park(this);
+            }
+
+            // Give other messages the chance to join this batch, unless the
+            // batch is full or someone is waiting for it
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_DELAY);
+            long remaining;
+            while(queued.get() < BATCH_SIZE && !hasCommand() && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            drain();
+        }
+    }
+
+    /**
+     * Checks if a command is waiting in the queue.
+     * @return Returns 'true' if a command has been queued
+     */
+    private boolean hasCommand() {
+        for(Entry entry: queue) {
+            if(entry.done != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes all queued messages and executes all queued commands in order.
+     */
+    private void drain() {
+        Entry entry;
+        while((entry = queue.poll()) != null) {
+            queued.decrementAndGet();
+
+            if(entry.done == null) {
+                append(entry);
+                if(batch.length() >= MAX_BATCH_LENGTH) {
+                    writeBatch();
+                }
+                continue;
+            }
+
+            // Commands apply to everything queued before them
+            writeBatch();
+            if(entry.clear) {
+                logFile.delete();
+            }
+            entry.done.countDown();
+        }
+        writeBatch();
+    }
+
+    /**
+     * Appends a message to the current batch.
+     * @param entry The message {@link Entry}
+     */
+    private void append(Entry entry) {
+        date.setTime(entry.timestamp);
+        batch.append(dateFormat.format(date));
+        batch.append(" [").append(entry.level).append("] - ");
+        batch.append(L.format(entry.message, entry.args));
+        batch.append("\n");
+    }
+
+    /**
+     * Writes the current batch to the log file.
+     */
+    private void writeBatch() {
+        if(batch.length() == 0) {
+            return;
+        }
+
+        try {
+            logFile.write(ByteBuffer.wrap(batch.toString().getBytes(UTF8)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            logFile.close();
+        }
+        batch.setLength(0);
+    }
+}
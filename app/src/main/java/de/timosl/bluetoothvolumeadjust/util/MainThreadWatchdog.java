@@ -0,0 +1,283 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Printer;
+
+/**
+ * Finds out where the main thread is blocked, e.g. by disk I/O, so regressions show up
+ * in the debug log of the users instead of only as a sluggish UI.
+ * <p>
+ * While installed, the time every message of the main {@link Looper} takes is measured
+ * through its message logging. If a message takes longer than {@link #STALL_THRESHOLD}
+ * milliseconds, the stack of the main thread is captured by a separate thread while the
+ * stall is still going on. Every stall is recorded with its duration in the
+ * {@link TraceRecorder} and with its stack in the log of {@link L}, and counted in a
+ * summary that is kept across restarts. In addition, a {@link StrictMode} thread policy
+ * reports disk and network access on the main thread to logcat.
+ * <p>
+ * The message logging makes the {@link Looper} format a string for every message, so this
+ * is only installed if the user opted in. {@link #install(Context)} and {@link #uninstall()}
+ * must be called on the main thread.
+ */
+public class MainThreadWatchdog {
+
+    /**
+     * The time in milliseconds a message may take before it counts as a stall.
+     */
+    static final long STALL_THRESHOLD = 100L;
+
+    /**
+     * The name of the {@link SharedPreferences} holding the summary.
+     */
+    private static final String PREFERENCES_NAME = "diagnostics";
+
+    /**
+     * Key for the number of stalls in the summary.
+     */
+    private static final String KEY_STALL_COUNT = "stall_count";
+
+    /**
+     * Key for the duration of the longest stall in the summary.
+     */
+    private static final String KEY_STALL_LONGEST = "stall_longest";
+
+    /**
+     * Key for the duration of all stalls in the summary.
+     */
+    private static final String KEY_STALL_TOTAL = "stall_total";
+
+    /**
+     * The installed watchdog, or 'null'. Only accessed on the main thread.
+     */
+    private static MainThreadWatchdog instance;
+
+    /**
+     * The summary of the recorded stalls, as returned by {@link #loadSummary(Context)}.
+     */
+    public static final class Summary {
+
+        /**
+         * The number of stalls.
+         */
+        public final int count;
+
+        /**
+         * The duration of the longest stall in milliseconds.
+         */
+        public final long longest;
+
+        /**
+         * The duration of all stalls in milliseconds.
+         */
+        public final long total;
+
+        private Summary(int count, long longest, long total) {
+            this.count = count;
+            this.longest = longest;
+            this.total = total;
+        }
+    }
+
+    /**
+     * The {@link SharedPreferences} holding the summary.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * The thread capturing the stacks and reporting the stalls.
+     */
+    private final HandlerThread thread;
+
+    /**
+     * The {@link Handler} of {@link #thread}.
+     */
+    private final Handler handler;
+
+    /**
+     * The main thread.
+     */
+    private final Thread mainThread = Looper.getMainLooper().getThread();
+
+    /**
+     * The time the message that is being dispatched was started, or '-1' if
+     * no message is being dispatched. Only accessed on the main thread.
+     */
+    private long dispatchStart = -1;
+
+    /**
+     * Counts the dispatched messages, so a captured stack can be matched to its message.
+     */
+    private volatile int dispatchNumber;
+
+    /**
+     * The number of the message whose stack was captured last.
+     */
+    private volatile int capturedNumber = -1;
+
+    /**
+     * The stack of the main thread captured last.
+     */
+    private volatile StackTraceElement[] capturedStack;
+
+    /**
+     * Captures the stack of the main thread once a message takes too long.
+     */
+    private final Runnable captureTask = new Runnable() {
+        @Override
+        public void run() {
+            int number = dispatchNumber;
+            capturedStack = mainThread.getStackTrace();
+            capturedNumber = number;
+        }
+    };
+
+    /**
+     * Receives the messages the main {@link Looper} logs before and after dispatching a message.
+     */
+    private final Printer printer = new Printer() {
+        @Override
+        public void println(String x) {
+            if(x.startsWith(">")) {
+                onDispatchStarted();
+            } else if(x.startsWith("<")) {
+                onDispatchFinished();
+            }
+        }
+    };
+
+    /**
+     * Creates a new {@link MainThreadWatchdog} and starts its thread.
+     * @param context The applications {@link Context}
+     */
+    private MainThreadWatchdog(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        thread = new HandlerThread("MainThreadWatchdog");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Starts watching the main thread. Does nothing if it is already watched.
+     * @param context The applications {@link Context}
+     */
+    public static void install(Context context) {
+        if(instance != null) {
+            return;
+        }
+
+        instance = new MainThreadWatchdog(context.getApplicationContext());
+        Looper.getMainLooper().setMessageLogging(instance.printer);
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        L.i("(MainThreadWatchdog) Watching the main thread for stalls over %dms",STALL_THRESHOLD);
+    }
+
+    /**
+     * Stops watching the main thread.
+     */
+    public static void uninstall() {
+        if(instance == null) {
+            return;
+        }
+
+        Looper.getMainLooper().setMessageLogging(null);
+        StrictMode.setThreadPolicy(StrictMode.ThreadPolicy.LAX);
+        instance.handler.removeCallbacks(instance.captureTask);
+        instance.thread.quit();
+        instance = null;
+    }
+
+    /**
+     * Loads the summary of all recorded stalls. May block on disk I/O, so it
+     * should be called in the background.
+     * @param context The applications {@link Context}
+     * @return The {@link Summary}
+     */
+    public static Summary loadSummary(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        return new Summary(
+                preferences.getInt(KEY_STALL_COUNT, 0),
+                preferences.getLong(KEY_STALL_LONGEST, 0L),
+                preferences.getLong(KEY_STALL_TOTAL, 0L));
+    }
+
+    /**
+     * Removes the summary of all recorded stalls.
+     * @param context The applications {@link Context}
+     */
+    public static void clearSummary(Context context) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    /**
+     * Called on the main thread before a message is dispatched.
+     */
+    private void onDispatchStarted() {
+        dispatchStart = SystemClock.uptimeMillis();
+        dispatchNumber++;
+        handler.removeCallbacks(captureTask);
+        handler.postDelayed(captureTask, STALL_THRESHOLD);
+    }
+
+    /**
+     * Called on the main thread after a message was dispatched.
+     */
+    private void onDispatchFinished() {
+        if(dispatchStart == -1) {
+            return;
+        }
+        final long duration = SystemClock.uptimeMillis() - dispatchStart;
+        dispatchStart = -1;
+        if(duration < STALL_THRESHOLD) {
+            handler.removeCallbacks(captureTask);
+            return;
+        }
+
+        // Report it on the watchdog thread, so the main thread is not held up even more.
+        // The stack may be missing if the watchdog thread did not get to run in time
+        final StackTraceElement[] stack = capturedNumber == dispatchNumber ? capturedStack : null;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                onStall(duration, stack);
+            }
+        });
+    }
+
+    /**
+     * Records a stall of the main thread.
+     * @param duration The duration of the stall in milliseconds
+     * @param stack The stack of the main thread during the stall, or 'null' if it is unknown
+     */
+    private void onStall(long duration, StackTraceElement[] stack) {
+        // The trace only holds numbers, so it refers to the stack in the log by its hash
+        StringBuilder builder = new StringBuilder();
+        if(stack != null) {
+            for(StackTraceElement element: stack) {
+                builder.append("\n    at ").append(element);
+            }
+        } else {
+            builder.append("\n    <unknown>");
+        }
+        String stackText = builder.toString();
+        int stackHash = stackText.hashCode();
+        TraceRecorder.record(TraceRecorder.EVENT_MAIN_THREAD_STALL, -1L, (int) duration, stackHash, 0);
+        L.w("(MainThreadWatchdog) The main thread stalled for %dms (stack %08x):%s",duration,stackHash,stackText);
+
+        preferences.edit()
+                .putInt(KEY_STALL_COUNT, preferences.getInt(KEY_STALL_COUNT, 0) + 1)
+                .putLong(KEY_STALL_LONGEST, Math.max(duration, preferences.getLong(KEY_STALL_LONGEST, 0L)))
+                .putLong(KEY_STALL_TOTAL, preferences.getLong(KEY_STALL_TOTAL, 0L) + duration)
+                .apply();
+    }
+}
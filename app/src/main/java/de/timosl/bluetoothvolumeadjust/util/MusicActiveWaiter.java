@@ -0,0 +1,241 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.PlaybackStarter;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+/**
+ * Waits until music is being played on the {@link AudioManager#STREAM_MUSIC} stream,
+ * playing silence with a {@link PlaybackStarter} if nothing is playing yet. Instead of
+ * polling the {@link AudioSink} in a tight loop, the stream is checked when something
+ * happens that can make it active: the silence being played or the timeout expiring.
+ * After the silence has started, the stream is checked on every display frame for a
+ * while and then every time the silence reports its progress until the timeout, in case
+ * the route to the Bluetooth device takes longer to come up.
+ * The silence keeps playing after the music was detected, until the waiter is cancelled.
+ * All callbacks are delivered on the thread of the {@link Scheduler}.
+ */
+public class MusicActiveWaiter {
+
+    /**
+     * Receives the result of a {@link MusicActiveWaiter}.
+     */
+    public interface Callback {
+
+        /**
+         * Called once the silence played by the waiter has started. Not called if
+         * music was playing already or the silence could not be played.
+         * @param waitedMillis The time in milliseconds we waited for the silence
+         */
+        void onSilenceStarted(long waitedMillis);
+
+        /**
+         * Called once music is being played on the music stream.
+         * @param waitedMillis The time in milliseconds we waited for the music
+         */
+        void onMusicActive(long waitedMillis);
+
+        /**
+         * Called if there was still no music playing after the timeout.
+         * @param waitedMillis The time in milliseconds we waited for the music
+         */
+        void onTimeout(long waitedMillis);
+    }
+
+    /**
+     * The number of display frames after the silence has started during
+     * which we check for the stream to become active. The audio framework usually
+     * reports the stream as active before the first of these checks. Afterwards,
+     * the progress of the silence triggers the checks.
+     */
+    private static final int MAX_FRAME_CHECKS = 30;
+
+    /**
+     * The {@link AudioSink} whose music stream is checked.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * The {@link Scheduler} used for the timeout and the frame checks.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The time in milliseconds after which we stop waiting for music.
+     */
+    private final long timeout;
+
+    /**
+     * The {@link PlaybackStarter} used to play silence.
+     */
+    private final PlaybackStarter playbackStarter;
+
+    /**
+     * Set while the {@link PlaybackStarter} is playing for this waiter.
+     */
+    private boolean playingSilence;
+
+    /**
+     * The {@link Callback} to notify, or 'null' once the result has been delivered.
+     */
+    private Callback callback;
+
+    /**
+     * The time at which we began waiting for music.
+     */
+    private long waitBegin;
+
+    /**
+     * The number of frames we already checked the stream on.
+     */
+    private int frameChecks;
+
+    /**
+     * Checks the stream on every display frame until the silence
+     * has become audible or {@link #MAX_FRAME_CHECKS} is reached.
+     */
+    private final Runnable frameCheck = new Runnable() {
+        @Override
+        public void run() {
+            if(!checkMusicActive() && ++frameChecks < MAX_FRAME_CHECKS) {
+                scheduler.postFrameCallback(this);
+            }
+        }
+    };
+
+    /**
+     * Delivers the timeout if no music was detected in time.
+     */
+    private final Runnable timeoutCheck = new Runnable() {
+        @Override
+        public void run() {
+            if(!checkMusicActive()) {
+                deliverTimeout();
+            }
+        }
+    };
+
+    /**
+     * Checks the stream once the {@link PlaybackStarter} has played the first samples,
+     * and again whenever it has played more once the frame checks are over.
+     */
+    private final PlaybackStarter.Listener silenceStarted = new PlaybackStarter.Listener() {
+        @Override
+        public void onPlaybackStarted() {
+            if(callback != null) {
+                callback.onSilenceStarted(scheduler.uptimeMillis() - waitBegin);
+            }
+            if(!checkMusicActive()) {
+                scheduler.postFrameCallback(frameCheck);
+            }
+        }
+
+        @Override
+        public void onPlaybackProgress() {
+            if(frameChecks >= MAX_FRAME_CHECKS) {
+                checkMusicActive();
+            }
+        }
+    };
+
+    /**
+     * Creates a new {@link MusicActiveWaiter}. Must be called on the thread of the {@link Scheduler}.
+     * @param audioSink The {@link AudioSink} whose music stream is checked
+     * @param playbackStarter The {@link PlaybackStarter} to play silence with. Must belong to the same thread.
+     * @param scheduler The {@link Scheduler} of the thread
+     * @param timeout The time in milliseconds after which we stop waiting for music
+     */
+    public MusicActiveWaiter(AudioSink audioSink, PlaybackStarter playbackStarter, Scheduler scheduler, long timeout) {
+        this.audioSink = audioSink;
+        this.playbackStarter = playbackStarter;
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts waiting for music. If no music is currently playing, silence
+     * will be played. The given {@link Callback} is notified exactly once, unless
+     * the waiter is cancelled before.
+     * @param callback The {@link Callback} to notify
+     */
+    public void start(Callback callback) {
+        this.callback = callback;
+        this.waitBegin = scheduler.uptimeMillis();
+
+        // If music is already playing there is nothing to wait for
+        if(checkMusicActive()) {
+            return;
+        }
+
+        L.i("(MusicActiveWaiter) No music is currently being played. Playing silence to enable proper volume adjustment");
+        playingSilence = playbackStarter.start(silenceStarted);
+
+        // Give up if nothing was playing in time
+        scheduler.postDelayed(timeoutCheck, timeout);
+    }
+
+    /**
+     * Stops waiting for music without notifying the {@link Callback} and stops
+     * the silence, if it is playing. Must also be called once the result has
+     * been delivered and the silence is no longer needed.
+     */
+    public void cancel() {
+        callback = null;
+        finish();
+    }
+
+    /**
+     * Checks if music is being played and notifies the {@link Callback} if so.
+     * @return Returns 'true' if the result has been delivered (or there is no
+     * {@link Callback} left to notify)
+     */
+    private boolean checkMusicActive() {
+        if(callback == null) {
+            return true;
+        }
+        if(!audioSink.isMusicActive()) {
+            return false;
+        }
+
+        Callback target = callback;
+        callback = null;
+        scheduler.removeCallbacks(timeoutCheck);
+        scheduler.removeFrameCallback(frameCheck);
+        target.onMusicActive(scheduler.uptimeMillis() - waitBegin);
+        return true;
+    }
+
+    /**
+     * Notifies the {@link Callback} that there was no music in time.
+     */
+    private void deliverTimeout() {
+        Callback target = callback;
+        finish();
+        if(target != null) {
+            target.onTimeout(scheduler.uptimeMillis() - waitBegin);
+        }
+    }
+
+    /**
+     * Removes all pending checks and stops the silence.
+     */
+    private void finish() {
+        callback = null;
+        scheduler.removeCallbacks(timeoutCheck);
+        scheduler.removeFrameCallback(frameCheck);
+        stopSilence();
+    }
+
+    /**
+     * Stops the silence, if it is playing for this waiter.
+     */
+    private void stopSilence() {
+        if(playingSilence) {
+            playbackStarter.stop();
+            playingSilence = false;
+            L.i("(MusicActiveWaiter) Silence stopped");
+        }
+    }
+}
@@ -1,12 +1,10 @@
 package de.timosl.bluetoothvolumeadjust.util;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceFragment;
-import android.preference.PreferenceManager;
 
 /**
  * Getter and Setter methods for accessing the preferences set by the user.
+ * The getters are served from the {@link DeviceProfileStore}.
  */
 public class Preferences {
 
@@ -21,15 +19,64 @@ public class Preferences {
     public static final String KEY_RESET_VOLUME_ON_DISCONNECT = "pref_reset_volume_on_disconnect";
 
     /**
-     * Key for the last media volume setting.
+     * Key for the single media volume to restore stored by older versions.
+     * Replaced by {@link #KEY_RESTORE_STACK}.
      */
     public static final String KEY_LAST_MEDIA_VOLUME = "pref_last_media_volume";
 
+    /**
+     * Key for the media volumes to restore once the connected devices disconnect.
+     */
+    public static final String KEY_RESTORE_STACK = "pref_restore_stack";
+
     /**
      * Key for enabling debugging into a file.
      */
     public static final String KEY_ENABLE_DEBUGGING = "pref_enable_debugging";
 
+    /**
+     * Key for the duration of the volume ramp.
+     */
+    public static final String KEY_RAMP_DURATION = "pref_ramp_duration";
+
+    /**
+     * Key for the curve of the volume ramp.
+     */
+    public static final String KEY_RAMP_CURVE = "pref_ramp_curve";
+
+    /**
+     * Key for the curve that maps the volumes of a device to the volume indices of a stream.
+     */
+    public static final String KEY_VOLUME_CURVE = "pref_volume_curve";
+
+    /**
+     * The duration of the volume ramp in milliseconds, if the user has not set one. Off,
+     * so the volume jumps straight to its new value unless the user opts in.
+     */
+    public static final int DEFAULT_RAMP_DURATION = 0;
+
+    /**
+     * Key for the time the connection state must be stable before acting on it.
+     */
+    public static final String KEY_SETTLE_WINDOW = "pref_settle_window";
+
+    /**
+     * The settle window in milliseconds, if the user has not set one. Off, so the
+     * volume is changed as soon as a state is received unless the user opts in.
+     */
+    public static final int DEFAULT_SETTLE_WINDOW = 0;
+
+    /**
+     * Key for learning the volume of a device from changes made by the user. Off by default,
+     * so the volumes set when adding a device are kept unless the user opts in.
+     */
+    public static final String KEY_LEARN_VOLUME = "pref_learn_volume";
+
+    /**
+     * Key for watching the main thread for stalls.
+     */
+    public static final String KEY_DIAGNOSTICS = "pref_diagnostics";
+
     /**
      * Returns if the systems volume indicator should be shown during volume changes or
      * if it should be hidden.
@@ -38,7 +85,7 @@ public class Preferences {
      * 'false' if it should be hidden
      */
     public static boolean getShowIndicatorEnabled(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_SHOW_INDICATOR,true);
+        return DeviceProfileStore.get(context).getShowIndicator();
     }
 
     /**
@@ -48,27 +95,25 @@ public class Preferences {
      * should be taken after a device disconnects
      */
     public static boolean getResetVolumeOnDisconnect(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_RESET_VOLUME_ON_DISCONNECT,false);
+        return DeviceProfileStore.get(context).getResetVolumeOnDisconnect();
     }
 
     /**
-     * Sets the last media volume.
+     * Stores the media volumes to restore once the connected devices disconnect.
      * @param context The applications {@link Context}
-     * @param volume The volume to store for restoring it later
+     * @param stack The {@link RestoreStack} to store
      */
-    public static void setLastMediaVolume(Context context, int volume) {
-        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
-        editor.putInt(KEY_LAST_MEDIA_VOLUME,volume);
-        editor.commit();
+    public static void setRestoreStack(Context context, RestoreStack stack) {
+        DeviceProfileStore.get(context).edit().setRestoreStack(stack).commit();
     }
 
     /**
-     * Returns the last media volume.
+     * Returns the media volumes to restore once the connected devices disconnect.
      * @param context The applications {@link Context}
-     * @return The last media volume before
+     * @return The {@link RestoreStack}
      */
-    public static int getLastMediaVolume(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getInt(KEY_LAST_MEDIA_VOLUME,-1);
+    public static RestoreStack getRestoreStack(Context context) {
+        return DeviceProfileStore.get(context).getRestoreStack();
     }
 
     /**
@@ -77,6 +122,64 @@ public class Preferences {
      * @return Returns 'true' if debugging is currently enabled
      */
     public static boolean getEnableDebugging(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_ENABLE_DEBUGGING,false);
+        return DeviceProfileStore.get(context).getEnableDebugging();
+    }
+
+    /**
+     * Returns the duration over which the volume is moved to its new value.
+     * @param context The applications {@link Context}
+     * @return The duration in milliseconds, '0' if the volume should be set at once
+     */
+    public static int getRampDuration(Context context) {
+        return DeviceProfileStore.get(context).getRampDuration();
+    }
+
+    /**
+     * Returns the curve along which the volume is moved to its new value.
+     * @param context The applications {@link Context}
+     * @return The {@link VolumeRamp.Curve}
+     */
+    public static VolumeRamp.Curve getRampCurve(Context context) {
+        return DeviceProfileStore.get(context).getRampCurve();
+    }
+
+    /**
+     * Returns the curve along which the volumes set for a device are mapped to the
+     * volume indices of the streams.
+     * @param context The applications {@link Context}
+     * @return The {@link VolumeCurve.Shape}
+     */
+    public static VolumeCurve.Shape getVolumeCurve(Context context) {
+        return DeviceProfileStore.get(context).getVolumeCurve();
+    }
+
+    /**
+     * Returns the time the connection state of a device must not change before
+     * we act on it.
+     * @param context The applications {@link Context}
+     * @return The settle window in milliseconds
+     */
+    public static int getSettleWindow(Context context) {
+        return DeviceProfileStore.get(context).getSettleWindow();
+    }
+
+    /**
+     * Returns if the volume of a device should be updated when the user changes it
+     * while the device is connected.
+     * @param context The applications {@link Context}
+     * @return Returns 'true' if the volume should be learned
+     */
+    public static boolean getLearnVolume(Context context) {
+        return DeviceProfileStore.get(context).getLearnVolume();
+    }
+
+    /**
+     * Returns if the main thread should be watched for stalls. Only has an
+     * effect while debugging is enabled, since the stalls are recorded in the log.
+     * @param context The applications {@link Context}
+     * @return Returns 'true' if the main thread should be watched
+     */
+    public static boolean getDiagnostics(Context context) {
+        return DeviceProfileStore.get(context).getDiagnostics();
     }
 }
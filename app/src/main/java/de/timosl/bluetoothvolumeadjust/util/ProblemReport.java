@@ -0,0 +1,79 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import de.timosl.bluetoothvolumeadjust.BuildConfig;
+
+/**
+ * Writes the problem report the user can send to the developer: the complete log
+ * file followed by the trace of the {@link TraceRecorder}, compressed with gzip.
+ * <p>
+ * The log is streamed from its segments into the compressed file through a small
+ * buffer, so the memory needed does not depend on the size of the log. The report
+ * is stored in the cache directory and shared as an attachment, instead of being
+ * passed as a string that may not fit into a Binder transaction.
+ */
+public class ProblemReport {
+
+    /**
+     * The name of the directory in the cache directory holding the report.
+     * Must match the path shared by the FileProvider.
+     */
+    private static final String DIRECTORY = "reports";
+
+    /**
+     * The name of the report file.
+     */
+    private static final String FILE_NAME = "problem-report.txt.gz";
+
+    /**
+     * The size of the buffers in bytes and characters.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Writes a new report, replacing the previous one. Does I/O, so it should be called
+     * in the background.
+     * @param context The applications {@link Context}
+     * @return The report file
+     * @throws IOException If the report could not be written
+     */
+    public static File write(Context context) throws IOException {
+        File directory = new File(context.getCacheDir(), DIRECTORY);
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create "+directory);
+        }
+        File file = new File(directory, FILE_NAME);
+
+        Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), "UTF-8");
+        try {
+            out.write("Bluetooth Volume Adjust "+BuildConfig.VERSION_NAME+" ("+BuildConfig.VERSION_CODE+")\n\n");
+
+            // Copy the log segment by segment
+            Reader log = L.openLog();
+            try {
+                char[] buffer = new char[BUFFER_SIZE];
+                int read;
+                while((read = log.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                log.close();
+            }
+
+            out.write('\n');
+            TraceRecorder.decode(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,251 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import java.util.Arrays;
+
+/**
+ * The media volumes to restore once the connected devices disconnect again. Every managed
+ * device that connects pushes the media volume from before it was connected; the music
+ * stream belongs to the device on top, since it connected last.
+ * <p>
+ * When the device on top disconnects, the media volume goes back to its entry. When a device
+ * further down disconnects, nothing is restored yet: the entry above it takes over its volume,
+ * so the volume from before that device is restored once the others have disconnected as well.
+ * Besides the entries, the stack remembers the last known volume of the speaker, which is used
+ * when a device is already connected by the time its volume is taken.
+ * <p>
+ * Stacks are immutable and stored as a single string (see {@link #encode()}).
+ */
+public final class RestoreStack {
+
+    /**
+     * A stack without any entries and without a known speaker volume.
+     */
+    public static final RestoreStack EMPTY = new RestoreStack(new String[0], new int[0], -1);
+
+    /**
+     * The separator between the speaker volume and the entries in {@link #encode()}.
+     */
+    private static final char SPEAKER_SEPARATOR = ';';
+
+    /**
+     * The separator between two entries in {@link #encode()}.
+     */
+    private static final char ENTRY_SEPARATOR = ',';
+
+    /**
+     * The separator between the MAC-Address and the volume of an entry in {@link #encode()}.
+     */
+    private static final char VOLUME_SEPARATOR = '=';
+
+    /**
+     * The MAC-Addresses of the entries, from the bottom to the top. Never modified.
+     */
+    private final String[] addresses;
+
+    /**
+     * The volumes of the entries, in the same order. Never modified.
+     */
+    private final int[] volumes;
+
+    /**
+     * The last known volume of the speaker, or '-1' if it is not known.
+     */
+    private final int speakerVolume;
+
+    /**
+     * Creates a new {@link RestoreStack}, taking ownership of the given arrays.
+     */
+    private RestoreStack(String[] addresses, int[] volumes, int speakerVolume) {
+        this.addresses = addresses;
+        this.volumes = volumes;
+        this.speakerVolume = speakerVolume;
+    }
+
+    /**
+     * Returns if there are no entries.
+     * @return Returns 'true' if no device is waiting for its volume to be restored
+     */
+    public boolean isEmpty() {
+        return addresses.length == 0;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return The number of entries
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Returns if a device has an entry.
+     * @param address The MAC-Address of the device
+     * @return Returns 'true' if the device has an entry
+     */
+    public boolean contains(String address) {
+        return indexOf(address) != -1;
+    }
+
+    /**
+     * Returns the device on top, which connected last.
+     * @return The MAC-Address of the device, or 'null' if there are no entries
+     */
+    public String getTop() {
+        return addresses.length > 0 ? addresses[addresses.length - 1] : null;
+    }
+
+    /**
+     * Returns the volume to restore when a device disconnects.
+     * @param address The MAC-Address of the device
+     * @return The volume, or '-1' if the device has no entry
+     */
+    public int getVolume(String address) {
+        int index = indexOf(address);
+        return index != -1 ? volumes[index] : -1;
+    }
+
+    /**
+     * Returns the last known volume of the speaker.
+     * @return The volume, or '-1' if it is not known
+     */
+    public int getSpeakerVolume() {
+        return speakerVolume;
+    }
+
+    /**
+     * Returns a stack with an entry for the given device on top. If the device already
+     * has an entry, it is kept where it is, since it holds the volume from before the
+     * device was first connected.
+     * @param address The MAC-Address of the device
+     * @param volume The media volume from before the device was connected
+     * @return The new {@link RestoreStack}, or this one if the device already has an entry
+     */
+    public RestoreStack push(String address, int volume) {
+        if(contains(address)) {
+            return this;
+        }
+        String[] newAddresses = Arrays.copyOf(addresses, addresses.length + 1);
+        int[] newVolumes = Arrays.copyOf(volumes, volumes.length + 1);
+        newAddresses[addresses.length] = address;
+        newVolumes[volumes.length] = volume;
+        return new RestoreStack(newAddresses, newVolumes, speakerVolume);
+    }
+
+    /**
+     * Returns a stack without the entry of the given device. If the device was not on top,
+     * the entry above it takes over its volume.
+     * @param address The MAC-Address of the device
+     * @return The new {@link RestoreStack}, or this one if the device has no entry
+     */
+    public RestoreStack without(String address) {
+        int index = indexOf(address);
+        if(index == -1) {
+            return this;
+        }
+        String[] newAddresses = new String[addresses.length - 1];
+        int[] newVolumes = new int[volumes.length - 1];
+        System.arraycopy(addresses, 0, newAddresses, 0, index);
+        System.arraycopy(volumes, 0, newVolumes, 0, index);
+        System.arraycopy(addresses, index + 1, newAddresses, index, addresses.length - index - 1);
+        System.arraycopy(volumes, index + 1, newVolumes, index, volumes.length - index - 1);
+        if(index < newVolumes.length) {
+            newVolumes[index] = volumes[index];
+        }
+        return new RestoreStack(newAddresses, newVolumes, speakerVolume);
+    }
+
+    /**
+     * Returns a stack with the given speaker volume.
+     * @param volume The volume of the speaker, or '-1' if it is not known
+     * @return The new {@link RestoreStack}
+     */
+    public RestoreStack withSpeakerVolume(int volume) {
+        return new RestoreStack(addresses, volumes, volume);
+    }
+
+    /**
+     * Encodes this stack as the speaker volume followed by the entries from the bottom
+     * to the top, e.g. '5;AA:BB:CC:DD:EE:FF=5,00:11:22:33:44:55=12'.
+     * @return The encoded stack
+     * @see #decode(String)
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder(4 + addresses.length * 21);
+        builder.append(speakerVolume).append(SPEAKER_SEPARATOR);
+        for(int i = 0; i < addresses.length; i++) {
+            if(i > 0) {
+                builder.append(ENTRY_SEPARATOR);
+            }
+            builder.append(addresses[i]).append(VOLUME_SEPARATOR).append(volumes[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes a stack created by {@link #encode()}.
+     * @param encoded The encoded stack
+     * @return The {@link RestoreStack}, or 'null' if the string is not valid
+     */
+    public static RestoreStack decode(String encoded) {
+        if(encoded == null) {
+            return null;
+        }
+        int speakerEnd = encoded.indexOf(SPEAKER_SEPARATOR);
+        if(speakerEnd == -1) {
+            return null;
+        }
+
+        try {
+            RestoreStack stack = EMPTY.withSpeakerVolume(Integer.parseInt(encoded.substring(0, speakerEnd)));
+            int start = speakerEnd + 1;
+            while(start < encoded.length()) {
+                int end = encoded.indexOf(ENTRY_SEPARATOR, start);
+                if(end == -1) {
+                    end = encoded.length();
+                }
+                int volumeStart = encoded.indexOf(VOLUME_SEPARATOR, start);
+                if(volumeStart == -1 || volumeStart > end) {
+                    return null;
+                }
+                stack = stack.push(encoded.substring(start, volumeStart), Integer.parseInt(encoded.substring(volumeStart + 1, end)));
+                start = end + 1;
+            }
+            return stack;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the index of the entry of a device.
+     * @param address The MAC-Address of the device
+     * @return The index, or '-1' if the device has no entry
+     */
+    private int indexOf(String address) {
+        for(int i = 0; i < addresses.length; i++) {
+            if(addresses[i].equals(address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof RestoreStack)) {
+            return false;
+        }
+        RestoreStack stack = (RestoreStack) other;
+        return speakerVolume == stack.speakerVolume && Arrays.equals(addresses, stack.addresses) && Arrays.equals(volumes, stack.volumes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(addresses) + Arrays.hashCode(volumes)) + speakerVolume;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -0,0 +1,211 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file that is split into segments of limited size. New messages are appended
+ * to the active segment. Once it exceeds {@link #SEGMENT_SIZE}, it becomes the newest
+ * of the older segments (compressed, if {@link #COMPRESS_SEGMENTS} is set) and a new
+ * active segment is started. Only {@link #MAX_OLD_SEGMENTS} older segments are kept,
+ * the oldest one is dropped first.
+ * <p>
+ * The segments are stored next to each other: the active segment uses the name of the
+ * log file, the older ones append their number to it, with '1' being the newest.
+ */
+class RotatingLogFile {
+
+    /**
+     * The size in bytes after which the active segment is rotated.
+     */
+    static final long SEGMENT_SIZE = 256L * 1024L;
+
+    /**
+     * The number of older segments kept in addition to the active one.
+     */
+    static final int MAX_OLD_SEGMENTS = 4;
+
+    /**
+     * Set if older segments should be compressed with gzip.
+     */
+    static final boolean COMPRESS_SEGMENTS = true;
+
+    /**
+     * The file extension of compressed segments.
+     */
+    private static final String EXTENSION_GZIP = ".gz";
+
+    /**
+     * The active segment.
+     */
+    private final File activeFile;
+
+    /**
+     * The channel of the active segment, or 'null' if it is not open.
+     */
+    private FileChannel channel;
+
+    /**
+     * Creates a new {@link RotatingLogFile}.
+     * @param activeFile The active segment. The older segments are stored in the same directory.
+     */
+    RotatingLogFile(File activeFile) {
+        this.activeFile = activeFile;
+    }
+
+    /**
+     * Appends the given data to the active segment and rotates it if it became too large.
+     * Not thread-safe, there must only be a single writer.
+     * @param data The data to append
+     * @throws IOException If writing fails
+     */
+    void write(ByteBuffer data) throws IOException {
+        if(channel == null) {
+            channel = new FileOutputStream(activeFile, true).getChannel();
+        }
+        while(data.hasRemaining()) {
+            channel.write(data);
+        }
+
+        if(channel.size() >= SEGMENT_SIZE) {
+            rotate();
+        }
+    }
+
+    /**
+     * Closes the active segment, if it is open.
+     */
+    void close() {
+        if(channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Deletes all segments.
+     */
+    void delete() {
+        close();
+        activeFile.delete();
+        for(int i = 1; i <= MAX_OLD_SEGMENTS; i++) {
+            segment(i, false).delete();
+            segment(i, true).delete();
+        }
+    }
+
+    /**
+     * Opens an {@link InputStream} reading all segments from the oldest to the newest,
+     * decompressing them as needed. The segments are only read while the stream is
+     * consumed, so the log is never held in memory as a whole. All segments are opened
+     * right away, so a rotation while reading does not affect the stream.
+     * @return The {@link InputStream}. Must be closed by the caller.
+     * @throws IOException If opening a segment fails
+     */
+    InputStream openInputStream() throws IOException {
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            for(int i = MAX_OLD_SEGMENTS; i >= 1; i--) {
+                if(segment(i, true).exists()) {
+                    streams.add(new GZIPInputStream(new FileInputStream(segment(i, true))));
+                } else if(segment(i, false).exists()) {
+                    streams.add(new FileInputStream(segment(i, false)));
+                }
+            }
+            if(activeFile.exists()) {
+                streams.add(new FileInputStream(activeFile));
+            }
+        } catch (IOException e) {
+            for(InputStream stream: streams) {
+                stream.close();
+            }
+            throw e;
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Turns the active segment into the newest older segment and drops the oldest one.
+     * If the segment cannot be compressed, it is kept uncompressed, so the next write
+     * does not find the active segment too large again.
+     */
+    private void rotate() {
+        close();
+
+        // Drop the oldest segment and shift the others by one
+        segment(MAX_OLD_SEGMENTS, false).delete();
+        segment(MAX_OLD_SEGMENTS, true).delete();
+        for(int i = MAX_OLD_SEGMENTS - 1; i >= 1; i--) {
+            segment(i, false).renameTo(segment(i + 1, false));
+            segment(i, true).renameTo(segment(i + 1, true));
+        }
+
+        // The active segment becomes the newest older segment
+        if(COMPRESS_SEGMENTS) {
+            try {
+                compress(activeFile, segment(1, true));
+                activeFile.delete();
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                segment(1, true).delete();
+            }
+        }
+
+        // As a last resort the segment is dropped, so the log does not grow without bounds
+        if(!activeFile.renameTo(segment(1, false))) {
+            activeFile.delete();
+        }
+    }
+
+    /**
+     * Returns the file of an older segment.
+     * @param index The number of the segment, '1' being the newest
+     * @param compressed Set if the compressed variant should be returned
+     * @return The {@link File} of the segment
+     */
+    private File segment(int index, boolean compressed) {
+        return new File(activeFile.getParentFile(), activeFile.getName() + "." + index + (compressed ? EXTENSION_GZIP : ""));
+    }
+
+    /**
+     * Compresses a file with gzip.
+     * @param source The file to compress
+     * @param target The compressed file
+     * @throws IOException If compressing fails
+     */
+    private static void compress(File source, File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        OutputStream out = null;
+        try {
+            out = new GZIPOutputStream(new FileOutputStream(target));
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            if(out != null) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+
+import de.timosl.bluetoothvolumeadjust.platform.PlaybackStarter;
+
+/**
+ * Plays silence on the {@link AudioManager#STREAM_MUSIC} stream, so the stream becomes
+ * active and its volume can be adjusted for the connected Bluetooth device.
+ * <p>
+ * The silence is a short buffer of zero samples in a static {@link AudioTrack}, which is
+ * looped until {@link #stop()} is called. The listener is notified once the first samples
+ * have been played and again every time the buffer has been played through. The track is created once ({@link #prime()})
+ * and reused for every playback, so starting it needs no decoding and no new native
+ * player. It is released after it has not been used for {@link #IDLE_TIMEOUT}
+ * milliseconds, or by calling {@link #release()}.
+ * <p>
+ * The engine is not thread-safe. It has to be used on the thread of the {@link Handler}
+ * it was created with, which is also the thread its listeners are called on.
+ */
+public class SilenceEngine implements PlaybackStarter {
+
+    /**
+     * The sample rate of the silence.
+     */
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * The number of frames in the looped buffer (about 90ms).
+     */
+    private static final int BUFFER_FRAMES = 4096;
+
+    /**
+     * The frame at which the {@link Listener} is notified.
+     */
+    private static final int MARKER_FRAME = 256;
+
+    /**
+     * The time in milliseconds after which an unused track is released.
+     */
+    private static final long IDLE_TIMEOUT = 5L * 60L * 1000L;
+
+    /**
+     * The {@link Handler} for callbacks and the idle timeout.
+     */
+    private final Handler handler;
+
+    /**
+     * The {@link AudioTrack} holding the silence, or 'null' if it has not been created yet.
+     */
+    private AudioTrack track;
+
+    /**
+     * The {@link PlaybackStarter.Listener} for the current playback, or 'null'.
+     */
+    private Listener listener;
+
+    /**
+     * Releases the track if it has not been used for a while.
+     */
+    private final Runnable idleRelease = new Runnable() {
+        @Override
+        public void run() {
+            L.i("(SilenceEngine) Releasing the unused silence track");
+            release();
+        }
+    };
+
+    /**
+     * Forwards the marker and the periodic notifications to the current {@link PlaybackStarter.Listener}.
+     */
+    private final AudioTrack.OnPlaybackPositionUpdateListener markerListener = new AudioTrack.OnPlaybackPositionUpdateListener() {
+        @Override
+        public void onMarkerReached(AudioTrack audioTrack) {
+            if(listener != null) {
+                listener.onPlaybackStarted();
+            }
+        }
+
+        @Override
+        public void onPeriodicNotification(AudioTrack audioTrack) {
+            if(listener != null) {
+                listener.onPlaybackProgress();
+            }
+        }
+    };
+
+    /**
+     * Creates a new {@link SilenceEngine}. The track is only created once it is needed.
+     * @param handler The {@link Handler} of the thread the engine is used on
+     */
+    public SilenceEngine(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Creates the track and fills it with silence, unless this has been done already.
+     * Call this ahead of time to avoid the creation delay when playing.
+     * @return Returns 'true' if the track is ready to be played
+     */
+    @Override
+    public boolean prime() {
+        scheduleIdleRelease();
+
+        if(track != null) {
+            return true;
+        }
+
+        AudioTrack newTrack = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, BUFFER_FRAMES * 2, AudioTrack.MODE_STATIC);
+
+        // A new array is all zeros, which is exactly the silence we need
+        newTrack.write(new short[BUFFER_FRAMES], 0, BUFFER_FRAMES);
+        if(newTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            L.w("(SilenceEngine) The silence track could not be initialized (state %d)",newTrack.getState());
+            newTrack.release();
+            return false;
+        }
+
+        newTrack.setPlaybackPositionUpdateListener(markerListener, handler);
+        track = newTrack;
+        return true;
+    }
+
+    /**
+     * Starts playing silence until {@link #stop()} is called.
+     * @param listener The {@link PlaybackStarter.Listener} to notify while the silence is being played, or 'null'
+     * @return Returns 'true' if the playback has been started
+     */
+    @Override
+    public boolean start(Listener listener) {
+        if(!prime()) {
+            return false;
+        }
+
+        // Rewind the track and loop it endlessly
+        track.stop();
+        track.reloadStaticData();
+        track.setLoopPoints(0, BUFFER_FRAMES, -1);
+        track.setNotificationMarkerPosition(MARKER_FRAME);
+
+        // The marker only fires once, so the looped buffer reports each pass
+        track.setPositionNotificationPeriod(BUFFER_FRAMES);
+        this.listener = listener;
+
+        try {
+            track.play();
+        } catch (IllegalStateException e) {
+            L.w("(SilenceEngine) The silence track could not be played: %s",e);
+            this.listener = null;
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops playing silence. The track stays ready for the next playback.
+     */
+    @Override
+    public void stop() {
+        listener = null;
+        if(track != null && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+            track.stop();
+        }
+        scheduleIdleRelease();
+    }
+
+    /**
+     * Releases the track. It is created again when it is needed next.
+     */
+    public void release() {
+        listener = null;
+        handler.removeCallbacks(idleRelease);
+        if(track != null) {
+            track.release();
+            track = null;
+        }
+    }
+
+    /**
+     * Restarts the timeout after which the unused track is released.
+     */
+    private void scheduleIdleRelease() {
+        handler.removeCallbacks(idleRelease);
+        handler.postDelayed(idleRelease, IDLE_TIMEOUT);
+    }
+}
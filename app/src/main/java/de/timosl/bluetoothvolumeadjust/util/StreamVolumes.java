@@ -0,0 +1,148 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+
+/**
+ * Applies {@link VolumeProfile}s to the audio streams. The maximum volume of each
+ * stream is only asked for once for the lifetime of this object, and streams that
+ * are already at their target volume are not touched, so applying a profile costs
+ * as few calls into the audio service as possible. The volumes of a profile are
+ * converted with the {@link VolumeCurve} the user has chosen. Not thread-safe.
+ */
+public class StreamVolumes {
+
+    /**
+     * The {@link AudioSink} whose volumes are changed.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * The applications {@link Context}.
+     */
+    private final Context context;
+
+    /**
+     * The maximum volume of each stream by stream index, or '-1' if it has not been asked for yet.
+     */
+    private final int[] maxVolumes = new int[VolumeProfile.STREAM_COUNT];
+
+    /**
+     * The {@link VolumeCurve} of each stream by stream index, or 'null' if it has not been computed yet.
+     */
+    private final VolumeCurve[] curves = new VolumeCurve[VolumeProfile.STREAM_COUNT];
+
+    /**
+     * Creates new {@link StreamVolumes}.
+     * @param context The applications {@link Context}
+     * @param audioSink The {@link AudioSink} whose volumes are changed
+     */
+    public StreamVolumes(Context context, AudioSink audioSink) {
+        this.context = context;
+        this.audioSink = audioSink;
+        for(int stream = 0; stream < VolumeProfile.STREAM_COUNT; stream++) {
+            maxVolumes[stream] = -1;
+        }
+    }
+
+    /**
+     * Returns the maximum volume of a stream.
+     * @param stream The stream index, one of the STREAM_ constants of {@link VolumeProfile}
+     * @return The maximum volume
+     */
+    public int getMaxVolume(int stream) {
+        int maxVolume = maxVolumes[stream];
+        if(maxVolume == -1) {
+            maxVolume = audioSink.getStreamMaxVolume(VolumeProfile.getStreamType(stream));
+            maxVolumes[stream] = maxVolume;
+        }
+        return maxVolume;
+    }
+
+    /**
+     * Returns the {@link VolumeCurve} of a stream, computing it if it has not been
+     * computed yet or the user has chosen another {@link VolumeCurve.Shape} since.
+     * @param stream The stream index, one of the STREAM_ constants of {@link VolumeProfile}
+     * @return The {@link VolumeCurve}
+     */
+    public VolumeCurve getCurve(int stream) {
+        VolumeCurve.Shape shape = Preferences.getVolumeCurve(context);
+        VolumeCurve curve = curves[stream];
+        if(curve == null || curve.getShape() != shape) {
+            curve = new VolumeCurve(shape, getMaxVolume(stream));
+            curves[stream] = curve;
+        }
+        return curve;
+    }
+
+    /**
+     * Asks for the maximum volumes and computes the curves of all streams, so
+     * converting the volumes of a profile later on does not need to.
+     */
+    public void prepare() {
+        for(int stream = 0; stream < VolumeProfile.STREAM_COUNT; stream++) {
+            getCurve(stream);
+        }
+    }
+
+    /**
+     * Converts the volume of a stream in a profile to the volume the {@link AudioManager} uses.
+     * @param profile The {@link VolumeProfile}
+     * @param stream The stream index, one of the STREAM_ constants of {@link VolumeProfile}
+     * @return The volume, or '-1' if the profile leaves the stream alone
+     */
+    public int getTargetVolume(VolumeProfile profile, int stream) {
+        if(!profile.isSet(stream)) {
+            return -1;
+        }
+        return getCurve(stream).getIndex(profile.getVolume(stream));
+    }
+
+    /**
+     * Converts a volume the {@link AudioManager} uses to the volume of a stream in a profile.
+     * @param volume The volume
+     * @param stream The stream index, one of the STREAM_ constants of {@link VolumeProfile}
+     * @return The volume in a range from 0.0 to 1.0
+     */
+    public float getProfileVolume(int volume, int stream) {
+        return getCurve(stream).getFraction(volume);
+    }
+
+    /**
+     * Sets all streams of a profile to their volumes in a single pass.
+     * @param profile The {@link VolumeProfile} to apply
+     * @param skippedStream A stream index to leave alone (e.g. because it is moved
+     *                      by a {@link VolumeRamp}), or '-1'
+     * @param flags The flags passed to {@link AudioSink#setStreamVolume(int, int, int)}
+     * @return The number of streams that have been changed
+     */
+    public int apply(VolumeProfile profile, int skippedStream, int flags) {
+        int changed = 0;
+        for(int stream = 0; stream < VolumeProfile.STREAM_COUNT; stream++) {
+            if(stream == skippedStream) {
+                continue;
+            }
+            int target = getTargetVolume(profile, stream);
+            if(target == -1) {
+                continue;
+            }
+
+            // Only touch streams that are not already where they should be
+            int streamType = VolumeProfile.getStreamType(stream);
+            if(audioSink.getStreamVolume(streamType) == target) {
+                continue;
+            }
+
+            // Changing the ring stream may require access to Do Not Disturb
+            try {
+                audioSink.setStreamVolume(streamType, target, flags);
+                changed++;
+            } catch (SecurityException e) {
+                L.w("(StreamVolumes) Not allowed to change the volume of stream %d: %s",streamType,e);
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,550 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records structured events into a binary trace file, alongside the text log of {@link L}.
+ * <p>
+ * Every event is a fixed-size record holding the time on the monotonic clock in nanoseconds,
+ * the event type, the MAC-Address of the device as a long (see
+ * {@link DeviceProfileStore#parseAddress(String)}) and three integer payloads. The records
+ * are kept in a ring in a preallocated, memory-mapped file: recording an event only copies
+ * a few values into memory, without allocating or calling into the kernel, and the oldest
+ * events are overwritten once the ring is full. {@link #decode(Writer)} renders the records
+ * as text for the problem report.
+ * <p>
+ * Together, the {@link #EVENT_BROADCAST} and {@link #EVENT_AUDIO} events capture everything
+ * the receiver logic got from the system, so a trace can be replayed later (see
+ * {@link #load(File)} and {@link #parse(BufferedReader)}) to reproduce timing issues
+ * reported by users.
+ * <p>
+ * The trace is only recorded once {@link #init(Context)} has been called, which should
+ * happen in the background and only if the user enabled debugging. Events recorded
+ * before are dropped.
+ */
+public class TraceRecorder {
+
+    /**
+     * A device changed its connection state. Payloads: the new state.
+     */
+    public static final int EVENT_STATE_CHANGED = 1;
+
+    /**
+     * A job was started after its settle window. Payloads: the state, '1' if the job starts a new connection.
+     */
+    public static final int EVENT_JOB_STARTED = 2;
+
+    /**
+     * A job has finished or was cancelled. Payloads: the state, the time in milliseconds
+     * since the broadcast was received.
+     */
+    public static final int EVENT_JOB_FINISHED = 3;
+
+    /**
+     * The silence has started playing. Payloads: the time waited in milliseconds.
+     */
+    public static final int EVENT_SILENCE_STARTED = 4;
+
+    /**
+     * Music was detected on the device. Payloads: the time waited in milliseconds.
+     */
+    public static final int EVENT_MUSIC_ACTIVE = 5;
+
+    /**
+     * No music was detected in time. Payloads: the time waited in milliseconds.
+     */
+    public static final int EVENT_MUSIC_TIMEOUT = 6;
+
+    /**
+     * The streams other than music were set. Payloads: the number of changed streams.
+     */
+    public static final int EVENT_STREAMS_APPLIED = 7;
+
+    /**
+     * The music volume is being set. Payloads: the target volume, the ramp duration in milliseconds.
+     */
+    public static final int EVENT_VOLUME_SET = 8;
+
+    /**
+     * The music volume has reached its target. Payloads: the volume.
+     */
+    public static final int EVENT_VOLUME_REACHED = 9;
+
+    /**
+     * A volume set by the user was learned. Payloads: the volume.
+     */
+    public static final int EVENT_VOLUME_LEARNED = 10;
+
+    /**
+     * A message on the main thread took too long. Recorded without a device.
+     * Payloads: the duration in milliseconds, the hash of the stack in the log.
+     */
+    public static final int EVENT_MAIN_THREAD_STALL = 11;
+
+    /**
+     * A connection state broadcast was received, before it is handed to the worker thread.
+     * Payloads: the new state, the previous state.
+     */
+    public static final int EVENT_BROADCAST = 12;
+
+    /**
+     * The audio system was asked or told something. Recorded without a device.
+     * Payloads: the operation (one of the AUDIO_ constants), the stream type, the value
+     * that was returned or set ('1' for 'true').
+     */
+    public static final int EVENT_AUDIO = 13;
+
+    /**
+     * The volume of a stream was read.
+     */
+    public static final int AUDIO_GET_VOLUME = 1;
+
+    /**
+     * The maximum volume of a stream was read.
+     */
+    public static final int AUDIO_GET_MAX_VOLUME = 2;
+
+    /**
+     * The volume of a stream was set.
+     */
+    public static final int AUDIO_SET_VOLUME = 3;
+
+    /**
+     * It was checked if music is active. The stream type is '-1'.
+     */
+    public static final int AUDIO_MUSIC_ACTIVE = 4;
+
+    /**
+     * It was checked if A2DP audio is on. The stream type is '-1'.
+     */
+    public static final int AUDIO_A2DP_ON = 5;
+
+    /**
+     * The names of the events for {@link #decode(Writer)}, by event type.
+     */
+    private static final String[] EVENT_NAMES = {
+            "UNKNOWN",
+            "STATE_CHANGED",
+            "JOB_STARTED",
+            "JOB_FINISHED",
+            "SILENCE_STARTED",
+            "MUSIC_ACTIVE",
+            "MUSIC_TIMEOUT",
+            "STREAMS_APPLIED",
+            "VOLUME_SET",
+            "VOLUME_REACHED",
+            "VOLUME_LEARNED",
+            "MAIN_STALL",
+            "BROADCAST",
+            "AUDIO"
+    };
+
+    /**
+     * The name of the trace file.
+     */
+    private static final String FILE_NAME = "trace.bin";
+
+    /**
+     * Identifies a trace file ('BVAT').
+     */
+    private static final int MAGIC = 0x42564154;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of records in the ring. A connection takes about 50 records
+     * including the calls to the audio system.
+     */
+    static final int CAPACITY = 8192;
+
+    /**
+     * The size of a record in bytes: timestamp (8), address (8), type (4) and three payloads (4 each).
+     */
+    static final int RECORD_SIZE = 32;
+
+    /**
+     * The size of the file header in bytes: magic (4), version (4), capacity (4),
+     * record size (4) and the sequence number of the next record (8), padded.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The position of the sequence number of the next record in the header.
+     */
+    private static final int HEADER_NEXT_SEQUENCE = 16;
+
+    /**
+     * The records of a trace, from the oldest to the newest.
+     */
+    public static final class Trace {
+
+        /**
+         * The time of each record on the monotonic clock in nanoseconds.
+         */
+        public final long[] timestamps;
+
+        /**
+         * The MAC-Address of each record as a long, or '-1'.
+         */
+        public final long[] addresses;
+
+        /**
+         * The event type of each record.
+         */
+        public final int[] types;
+
+        /**
+         * The three payloads of each record, one record after another.
+         */
+        private final int[] payloads;
+
+        private Trace(int count) {
+            timestamps = new long[count];
+            addresses = new long[count];
+            types = new int[count];
+            payloads = new int[count * 3];
+        }
+
+        /**
+         * Returns the number of records.
+         * @return The number of records
+         */
+        public int size() {
+            return types.length;
+        }
+
+        /**
+         * Returns a payload of a record.
+         * @param index The index of the record
+         * @param payload The payload, from 0 to 2
+         * @return The value of the payload
+         */
+        public int getPayload(int index, int payload) {
+            return payloads[index * 3 + payload];
+        }
+    }
+
+    /**
+     * Matches a record rendered by {@link #decode(Writer)}.
+     */
+    private static final Pattern DECODED_RECORD = Pattern.compile("\\[\\s*(\\d+)\\.(\\d{6})\\] (\\S+)\\s+(\\S+) (-?\\d+) (-?\\d+) (-?\\d+)");
+
+    /**
+     * The memory-mapped trace file, or 'null' if the trace is not recorded.
+     * Guarded by the class.
+     */
+    private static MappedByteBuffer buffer;
+
+    /**
+     * The trace file, or 'null' if the trace is not recorded. Guarded by the class.
+     */
+    private static File traceFile;
+
+    /**
+     * The sequence number of the next record. The record is stored in the
+     * slot 'nextSequence % CAPACITY'. Guarded by the class.
+     */
+    private static long nextSequence;
+
+    /**
+     * Opens the trace file and starts recording. Does I/O, so it should be
+     * called in the background.
+     * @param context The applications {@link Context}
+     */
+    public static void init(Context context) {
+        open(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Opens the given trace file, creating it if needed, and starts recording.
+     * @param file The trace file
+     */
+    static synchronized void open(File file) {
+        if(buffer != null) {
+            return;
+        }
+
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                // The mapping stays valid after the file has been closed
+                long size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+                randomAccessFile.setLength(size);
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                traceFile = file;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            L.w("(TraceRecorder) The trace file could not be opened: %s",e);
+            return;
+        }
+
+        // Continue the existing trace, or start over if the file is new or was
+        // written in another format
+        if(buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == CAPACITY && buffer.getInt(12) == RECORD_SIZE) {
+            nextSequence = buffer.getLong(HEADER_NEXT_SEQUENCE);
+        } else {
+            reset();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, CAPACITY);
+            buffer.putInt(12, RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Returns if events are recorded.
+     * @return Returns 'true' if the trace file is open
+     */
+    public static synchronized boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Records an event. Does not allocate.
+     * @param type The event type, one of the EVENT_ constants
+     * @param address The MAC-Address of the device as returned by
+     *                {@link DeviceProfileStore#parseAddress(String)}
+     * @param payload1 The first payload of the event
+     * @param payload2 The second payload of the event
+     * @param payload3 The third payload of the event
+     */
+    public static synchronized void record(int type, long address, int payload1, int payload2, int payload3) {
+        if(buffer == null) {
+            return;
+        }
+
+        int position = HEADER_SIZE + (int) (nextSequence % CAPACITY) * RECORD_SIZE;
+        buffer.putLong(position, System.nanoTime());
+        buffer.putLong(position + 8, address);
+        buffer.putInt(position + 16, type);
+        buffer.putInt(position + 20, payload1);
+        buffer.putInt(position + 24, payload2);
+        buffer.putInt(position + 28, payload3);
+
+        nextSequence++;
+        buffer.putLong(HEADER_NEXT_SEQUENCE, nextSequence);
+    }
+
+    /**
+     * Records an event with a single payload. Does not allocate.
+     * @param type The event type, one of the EVENT_ constants
+     * @param address The MAC-Address of the device as a long
+     * @param payload The payload of the event
+     */
+    public static void record(int type, long address, int payload) {
+        record(type, address, payload, 0, 0);
+    }
+
+    /**
+     * Removes all recorded events.
+     */
+    public static synchronized void clear() {
+        if(buffer != null) {
+            reset();
+        }
+    }
+
+    /**
+     * Stops recording and deletes the trace file, e.g. once the user has turned debugging off.
+     * The recorded events are wiped before, in case the file cannot be deleted. Recording
+     * starts again with {@link #init(Context)}.
+     */
+    public static synchronized void close() {
+        if(buffer == null) {
+            return;
+        }
+        reset();
+        buffer = null;
+        if(!traceFile.delete()) {
+            L.w("(TraceRecorder) The trace file could not be deleted");
+        }
+        traceFile = null;
+    }
+
+    /**
+     * Loads a trace file, e.g. one copied from a device for replaying it.
+     * @param file The trace file
+     * @return The {@link Trace}
+     * @throws IOException If the file could not be read or is not a trace file
+     */
+    public static Trace load(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.readFully(bytes);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        ByteBuffer fileBuffer = ByteBuffer.wrap(bytes);
+        if(bytes.length < HEADER_SIZE || fileBuffer.getInt(0) != MAGIC || fileBuffer.getInt(4) != VERSION || fileBuffer.getInt(12) != RECORD_SIZE) {
+            throw new IOException("Not a trace file: " + file);
+        }
+        int capacity = fileBuffer.getInt(8);
+        if(bytes.length < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+            throw new IOException("The trace file is truncated: " + file);
+        }
+        return copy(fileBuffer, capacity, fileBuffer.getLong(HEADER_NEXT_SEQUENCE));
+    }
+
+    /**
+     * Parses a trace rendered by {@link #decode(Writer)}, e.g. from a problem report.
+     * Lines that are not records, like the log before the trace, are skipped.
+     * The timestamps are only precise to the microsecond.
+     * @param reader The {@link BufferedReader} on the rendered trace
+     * @return The {@link Trace}
+     * @throws IOException If reading failed
+     */
+    public static Trace parse(BufferedReader reader) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        String line;
+        while((line = reader.readLine()) != null) {
+            Matcher matcher = DECODED_RECORD.matcher(line);
+            if(matcher.matches()) {
+                String[] groups = new String[matcher.groupCount()];
+                for(int group = 0; group < groups.length; group++) {
+                    groups[group] = matcher.group(group + 1);
+                }
+                records.add(groups);
+            }
+        }
+
+        Trace trace = new Trace(records.size());
+        for(int i = 0; i < records.size(); i++) {
+            String[] groups = records.get(i);
+            trace.timestamps[i] = Long.parseLong(groups[0]) * 1000000000L + Long.parseLong(groups[1]) * 1000L;
+            trace.types[i] = getEventType(groups[2]);
+            trace.addresses[i] = "-".equals(groups[3]) ? -1L : DeviceProfileStore.parseAddress(groups[3]);
+            trace.payloads[i * 3] = Integer.parseInt(groups[4]);
+            trace.payloads[i * 3 + 1] = Integer.parseInt(groups[5]);
+            trace.payloads[i * 3 + 2] = Integer.parseInt(groups[6]);
+        }
+        return trace;
+    }
+
+    /**
+     * Returns a copy of all recorded events, e.g. for comparing a replayed trace with the
+     * original one.
+     * @return The {@link Trace}, or 'null' if the trace is not recorded
+     */
+    public static synchronized Trace snapshot() {
+        if(buffer == null) {
+            return null;
+        }
+        return copy(buffer, CAPACITY, nextSequence);
+    }
+
+    /**
+     * Renders all recorded events as text, from the oldest to the newest. Times are
+     * given in seconds on the monotonic clock, which does not count deep sleep and
+     * starts over when the device is rebooted. Nothing is written if the trace is not recorded.
+     * @param out The {@link Writer} to render the events to
+     * @throws IOException If writing failed
+     */
+    public static void decode(Writer out) throws IOException {
+        // Copy the records, so we can render them without holding the lock
+        Trace trace = snapshot();
+        if(trace == null) {
+            return;
+        }
+        long now = System.nanoTime();
+
+        out.write(String.format(Locale.US, "Trace of %d events. The monotonic clock was at %.3fs on %s\n", trace.size(), now / 1e9, new Date()));
+        for(int i = 0; i < trace.size(); i++) {
+            int type = trace.types[i];
+            String name = type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : EVENT_NAMES[0];
+            out.write(String.format(Locale.US, "[%12.6f] %-15s %s %d %d %d\n",
+                    trace.timestamps[i] / 1e9, name, formatAddress(trace.addresses[i]),
+                    trace.getPayload(i, 0), trace.getPayload(i, 1), trace.getPayload(i, 2)));
+        }
+    }
+
+    /**
+     * Copies the records out of a ring, from the oldest to the newest.
+     * @param ring The buffer holding the header and the ring
+     * @param capacity The number of records in the ring
+     * @param next The sequence number of the next record
+     * @return The {@link Trace}
+     */
+    private static Trace copy(ByteBuffer ring, int capacity, long next) {
+        int count = (int) Math.min(next, capacity);
+        Trace trace = new Trace(count);
+        long first = next - count;
+        for(int i = 0; i < count; i++) {
+            int position = HEADER_SIZE + (int) ((first + i) % capacity) * RECORD_SIZE;
+            trace.timestamps[i] = ring.getLong(position);
+            trace.addresses[i] = ring.getLong(position + 8);
+            trace.types[i] = ring.getInt(position + 16);
+            trace.payloads[i * 3] = ring.getInt(position + 20);
+            trace.payloads[i * 3 + 1] = ring.getInt(position + 24);
+            trace.payloads[i * 3 + 2] = ring.getInt(position + 28);
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the event type with the given name.
+     * @param name The name as rendered by {@link #decode(Writer)}
+     * @return The event type, or '0' if the name is unknown
+     */
+    private static int getEventType(String name) {
+        for(int type = 1; type < EVENT_NAMES.length; type++) {
+            if(EVENT_NAMES[type].equals(name)) {
+                return type;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Removes all records and sets the next sequence number to zero.
+     */
+    private static void reset() {
+        for(int position = HEADER_SIZE; position < buffer.capacity(); position += 8) {
+            buffer.putLong(position, 0L);
+        }
+        nextSequence = 0;
+        buffer.putLong(HEADER_NEXT_SEQUENCE, 0L);
+    }
+
+    /**
+     * Formats a MAC-Address stored as a long in the format 'AA:BB:CC:DD:EE:FF'.
+     * @param address The MAC-Address as a long
+     * @return The formatted MAC-Address, or '-' if it is not valid
+     */
+    static String formatAddress(long address) {
+        if(address < 0) {
+            return "-";
+        }
+        StringBuilder builder = new StringBuilder(17);
+        for(int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (address >> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(octet >> 4, 16)));
+            builder.append(Character.toUpperCase(Character.forDigit(octet & 0xF, 16)));
+            if(shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+/**
+ * Maps the volume fractions stored for a device to the volume indices of an audio stream.
+ * <p>
+ * The mapping is computed once for a stream with a given maximum index: a table holds the
+ * index for every fraction in steps of 1/{@link #RESOLUTION}, rounded to the nearest index.
+ * Looking up an index afterwards is a single array read. The inverse mapping (from an index
+ * back to a fraction) is precomputed as well.
+ */
+public class VolumeCurve {
+
+    /**
+     * The number of steps the fractions are divided into.
+     */
+    static final int RESOLUTION = 1000;
+
+    /**
+     * How the fraction chosen by the user is mapped to the range of the stream.
+     */
+    public enum Shape {
+
+        /**
+         * Every step of the fraction changes the index by the same amount.
+         */
+        LINEAR("linear") {
+            @Override
+            double apply(double fraction) {
+                return fraction;
+            }
+        },
+
+        /**
+         * Like the log-taper potentiometer of an amplifier: the lower part of the range
+         * covers fewer indices, so quiet volumes can be chosen more precisely.
+         */
+        LOGARITHMIC("logarithmic") {
+            @Override
+            double apply(double fraction) {
+                return (Math.pow(LOGARITHMIC_BASE, fraction) - 1.0) / (LOGARITHMIC_BASE - 1.0);
+            }
+        };
+
+        /**
+         * The base of the {@link #LOGARITHMIC} shape. The middle of the range
+         * maps to about a quarter of the indices.
+         */
+        private static final double LOGARITHMIC_BASE = 10.0;
+
+        /**
+         * The value of this shape in the preferences.
+         */
+        private final String value;
+
+        Shape(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Maps a fraction to a share of the stream's range.
+         * @param fraction The fraction, from 0.0 to 1.0
+         * @return The share of the range, from 0.0 to 1.0
+         */
+        abstract double apply(double fraction);
+
+        /**
+         * Returns the shape with the given preference value.
+         * @param value The value stored in the preferences
+         * @return The {@link Shape}, or {@link #LINEAR} if the value is unknown
+         */
+        public static Shape fromValue(String value) {
+            for(Shape shape: values()) {
+                if(shape.value.equals(value)) {
+                    return shape;
+                }
+            }
+            return LINEAR;
+        }
+    }
+
+    /**
+     * The {@link Shape} of this curve.
+     */
+    private final Shape shape;
+
+    /**
+     * The maximum index of the stream.
+     */
+    private final int maxIndex;
+
+    /**
+     * The index for every fraction in steps of 1/{@link #RESOLUTION}.
+     */
+    private final short[] indices = new short[RESOLUTION + 1];
+
+    /**
+     * A fraction mapping to each index, from the middle of the fractions that do.
+     */
+    private final float[] fractions;
+
+    /**
+     * Creates a new {@link VolumeCurve} with one of the predefined shapes.
+     * @param shape The {@link Shape} of the curve
+     * @param maxIndex The maximum index of the stream
+     */
+    public VolumeCurve(Shape shape, int maxIndex) {
+        this.shape = shape;
+        this.maxIndex = maxIndex;
+        this.fractions = new float[maxIndex + 1];
+        for(int step = 0; step <= RESOLUTION; step++) {
+            indices[step] = toIndex(shape.apply((double) step / RESOLUTION));
+        }
+        computeFractions();
+    }
+
+    /**
+     * Returns the {@link Shape} of this curve.
+     * @return The {@link Shape}
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Returns the maximum index of the stream this curve was computed for.
+     * @return The maximum index
+     */
+    public int getMaxIndex() {
+        return maxIndex;
+    }
+
+    /**
+     * Returns the index of a fraction.
+     * @param fraction The fraction, from 0.0 to 1.0
+     * @return The index, from 0 to {@link #getMaxIndex()}
+     */
+    public int getIndex(float fraction) {
+        int step = Math.round(fraction * RESOLUTION);
+        return indices[Math.max(0, Math.min(step, RESOLUTION))];
+    }
+
+    /**
+     * Returns a fraction that maps to the given index, e.g. for storing
+     * an index the user has chosen.
+     * @param index The index, from 0 to {@link #getMaxIndex()}
+     * @return The fraction, from 0.0 to 1.0
+     */
+    public float getFraction(int index) {
+        return fractions[Math.max(0, Math.min(index, maxIndex))];
+    }
+
+    /**
+     * Converts a share of the stream's range to the nearest index.
+     */
+    private short toIndex(double share) {
+        long index = Math.round(Math.max(0.0, Math.min(share, 1.0)) * maxIndex);
+        return (short) index;
+    }
+
+    /**
+     * Fills {@link #fractions} from {@link #indices}. An index no fraction maps to
+     * gets the fraction of the next index below that is reached.
+     */
+    private void computeFractions() {
+        int step = 0;
+        for(int index = 0; index <= maxIndex; index++) {
+            int first = step;
+            while(step <= RESOLUTION && indices[step] == index) {
+                step++;
+            }
+            if(step > first) {
+                fractions[index] = (float) (first + step - 1) / (2 * RESOLUTION);
+            } else {
+                fractions[index] = index > 0 ? fractions[index - 1] : 0f;
+            }
+        }
+    }
+}
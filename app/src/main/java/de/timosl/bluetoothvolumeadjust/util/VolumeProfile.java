@@ -0,0 +1,188 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.media.AudioManager;
+
+import java.util.Arrays;
+
+/**
+ * The volumes set for a device, one for each of the audio streams the app manages.
+ * A volume is a fraction of the streams maximum volume in a range from 0.0 to 1.0,
+ * or {@link #UNSET} if the stream should be left alone. Profiles are immutable and
+ * stored as a single string per device (see {@link #encode()}).
+ */
+public final class VolumeProfile {
+
+    /**
+     * The index of the music stream.
+     */
+    public static final int STREAM_MUSIC = 0;
+
+    /**
+     * The index of the voice call stream.
+     */
+    public static final int STREAM_VOICE_CALL = 1;
+
+    /**
+     * The index of the ring stream.
+     */
+    public static final int STREAM_RING = 2;
+
+    /**
+     * The index of the notification stream.
+     */
+    public static final int STREAM_NOTIFICATION = 3;
+
+    /**
+     * The number of streams in a profile.
+     */
+    public static final int STREAM_COUNT = 4;
+
+    /**
+     * The volume of a stream that should not be changed.
+     */
+    public static final float UNSET = -1f;
+
+    /**
+     * A profile that leaves all streams alone.
+     */
+    public static final VolumeProfile EMPTY = new VolumeProfile(new float[] { UNSET, UNSET, UNSET, UNSET });
+
+    /**
+     * The {@link AudioManager} stream type of each stream index.
+     */
+    private static final int[] STREAM_TYPES = {
+            AudioManager.STREAM_MUSIC,
+            AudioManager.STREAM_VOICE_CALL,
+            AudioManager.STREAM_RING,
+            AudioManager.STREAM_NOTIFICATION
+    };
+
+    /**
+     * The separator between the volumes in {@link #encode()}.
+     */
+    private static final char SEPARATOR = ',';
+
+    /**
+     * The volume of each stream, by stream index. Never modified.
+     */
+    private final float[] volumes;
+
+    /**
+     * Creates a new {@link VolumeProfile}, taking ownership of the given array.
+     * @param volumes The volume of each stream
+     */
+    private VolumeProfile(float[] volumes) {
+        this.volumes = volumes;
+    }
+
+    /**
+     * Returns a profile that only sets the music stream.
+     * @param musicVolume The volume of the music stream, or {@link #UNSET}
+     * @return The {@link VolumeProfile}
+     */
+    public static VolumeProfile ofMusic(float musicVolume) {
+        return EMPTY.withVolume(STREAM_MUSIC, musicVolume);
+    }
+
+    /**
+     * Returns the {@link AudioManager} stream type of a stream index.
+     * @param stream The stream index, one of the STREAM_ constants
+     * @return The stream type
+     */
+    public static int getStreamType(int stream) {
+        return STREAM_TYPES[stream];
+    }
+
+    /**
+     * Returns the volume of a stream.
+     * @param stream The stream index, one of the STREAM_ constants
+     * @return The volume in a range from 0.0 to 1.0, or {@link #UNSET}
+     */
+    public float getVolume(int stream) {
+        return volumes[stream];
+    }
+
+    /**
+     * Returns if the volume of a stream should be changed.
+     * @param stream The stream index, one of the STREAM_ constants
+     * @return Returns 'true' if a volume is set for the stream
+     */
+    public boolean isSet(int stream) {
+        return volumes[stream] != UNSET;
+    }
+
+    /**
+     * Returns a copy of this profile with the volume of one stream changed.
+     * @param stream The stream index, one of the STREAM_ constants
+     * @param volume The volume in a range from 0.0 to 1.0, or {@link #UNSET}
+     * @return The changed {@link VolumeProfile}
+     */
+    public VolumeProfile withVolume(int stream, float volume) {
+        if(volume != UNSET && (volume < 0f || volume > 1f)) {
+            throw new IllegalArgumentException("The volume has to be between 0.0 and 1.0 (Found: "+volume+")");
+        }
+        float[] newVolumes = volumes.clone();
+        newVolumes[stream] = volume;
+        return new VolumeProfile(newVolumes);
+    }
+
+    /**
+     * Encodes this profile as the volumes of all streams separated by commas.
+     * @return The encoded profile
+     * @see #decode(String)
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder(STREAM_COUNT * 5);
+        for(int stream = 0; stream < STREAM_COUNT; stream++) {
+            if(stream > 0) {
+                builder.append(SEPARATOR);
+            }
+            builder.append(volumes[stream]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes a profile created by {@link #encode()}. Streams missing at the
+     * end (e.g. stored by an older version) are left {@link #UNSET}.
+     * @param encoded The encoded profile
+     * @return The {@link VolumeProfile}, or 'null' if the string is not valid
+     */
+    public static VolumeProfile decode(String encoded) {
+        if(encoded == null) {
+            return null;
+        }
+
+        float[] newVolumes = EMPTY.volumes.clone();
+        int start = 0;
+        for(int stream = 0; stream < STREAM_COUNT && start <= encoded.length(); stream++) {
+            int end = encoded.indexOf(SEPARATOR, start);
+            if(end == -1) {
+                end = encoded.length();
+            }
+            try {
+                float volume = Float.parseFloat(encoded.substring(start, end));
+                newVolumes[stream] = volume >= 0f && volume <= 1f ? volume : UNSET;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            start = end + 1;
+        }
+        return new VolumeProfile(newVolumes);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof VolumeProfile && Arrays.equals(volumes, ((VolumeProfile) other).volumes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(volumes);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
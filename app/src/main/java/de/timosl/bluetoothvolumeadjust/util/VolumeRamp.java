@@ -0,0 +1,207 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+/**
+ * Moves the volume of the {@link AudioManager#STREAM_MUSIC} stream from its current
+ * index to a target index over a given duration, instead of jumping there at once.
+ * <p>
+ * When the ramp starts, the time at which each index between the current and the target
+ * one is reached is computed from the {@link Curve}. Only these points in time are
+ * scheduled on the {@link Scheduler}, one after another,
+ * so the volume is set at most once per distinct index. If the thread falls behind,
+ * all steps that are due are coalesced into a single one.
+ */
+public class VolumeRamp {
+
+    /**
+     * The shape of a ramp over time.
+     */
+    public enum Curve {
+
+        /**
+         * Changes the volume at a constant rate.
+         */
+        LINEAR("linear") {
+            @Override
+            double timeOf(double progress) {
+                return progress;
+            }
+        },
+
+        /**
+         * Starts and ends slowly and changes the volume fastest in the middle of the ramp.
+         */
+        SMOOTH("smooth") {
+            @Override
+            double timeOf(double progress) {
+                // Inverse of the smoothstep function 3t^2 - 2t^3
+                return 0.5 - Math.sin(Math.asin(1.0 - 2.0 * progress) / 3.0);
+            }
+        };
+
+        /**
+         * The value of this curve in the preferences.
+         */
+        private final String value;
+
+        Curve(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the time at which the given progress is reached.
+         * @param progress The progress of the volume change, from 0.0 to 1.0
+         * @return The time as a fraction of the duration, from 0.0 to 1.0
+         */
+        abstract double timeOf(double progress);
+
+        /**
+         * Returns the curve with the given preference value.
+         * @param value The value stored in the preferences
+         * @return The {@link Curve}, or {@link #LINEAR} if the value is unknown
+         */
+        public static Curve fromValue(String value) {
+            for(Curve curve: values()) {
+                if(curve.value.equals(value)) {
+                    return curve;
+                }
+            }
+            return LINEAR;
+        }
+    }
+
+    /**
+     * The {@link AudioSink} whose volume is changed.
+     */
+    private final AudioSink audioSink;
+
+    /**
+     * The {@link Scheduler} the steps are scheduled on.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The index set by each step. Only valid while the ramp is running.
+     */
+    private int[] indices;
+
+    /**
+     * The uptime at which each step is due. Only valid while the ramp is running.
+     */
+    private long[] times;
+
+    /**
+     * The next step to execute.
+     */
+    private int nextStep;
+
+    /**
+     * The flags passed to {@link AudioSink#setStreamVolume(int, int, int)}.
+     */
+    private int flags;
+
+    /**
+     * Run once the target has been reached, or 'null' if the ramp is not running.
+     */
+    private Runnable onFinished;
+
+    /**
+     * Executes all steps that are due and schedules the next one.
+     */
+    private final Runnable stepTask = new Runnable() {
+        @Override
+        public void run() {
+            step();
+        }
+    };
+
+    /**
+     * Creates a new {@link VolumeRamp}.
+     * @param audioSink The {@link AudioSink} whose volume is changed
+     * @param scheduler The {@link Scheduler} of the thread the ramp is used on
+     */
+    public VolumeRamp(AudioSink audioSink, Scheduler scheduler) {
+        this.audioSink = audioSink;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts moving the volume to the given index. A ramp that is still running is cancelled.
+     * If the duration is zero or the volume is already at the target, it is set right away.
+     * @param target The volume index to move to
+     * @param duration The duration of the ramp in milliseconds
+     * @param curve The {@link Curve} of the ramp
+     * @param flags The flags for {@link AudioSink#setStreamVolume(int, int, int)}
+     * @param onFinished Run on the ramps thread once the target has been reached,
+     *                   unless the ramp is cancelled before
+     * @return Returns 'true' if the ramp is running and 'onFinished' will be run later,
+     * 'false' if the volume has already been set
+     */
+    public boolean start(int target, long duration, Curve curve, int flags, Runnable onFinished) {
+        cancel();
+
+        int current = audioSink.getStreamVolume(AudioManager.STREAM_MUSIC);
+        int distance = Math.abs(target - current);
+        if(duration <= 0 || distance <= 1) {
+            audioSink.setStreamVolume(AudioManager.STREAM_MUSIC, target, flags);
+            return false;
+        }
+
+        // Compute when each index on the way is reached
+        int direction = target > current ? 1 : -1;
+        long begin = scheduler.uptimeMillis();
+        indices = new int[distance];
+        times = new long[distance];
+        for(int i = 0; i < distance; i++) {
+            indices[i] = current + direction * (i + 1);
+            times[i] = begin + Math.round(duration * curve.timeOf((i + 1) / (double) distance));
+        }
+
+        this.nextStep = 0;
+        this.flags = flags;
+        this.onFinished = onFinished;
+        scheduler.postAtTime(stepTask, null, times[0]);
+        return true;
+    }
+
+    /**
+     * Stops the ramp at the index it has reached, without running its 'onFinished' task.
+     */
+    public void cancel() {
+        scheduler.removeCallbacks(stepTask);
+        onFinished = null;
+        indices = null;
+        times = null;
+    }
+
+    /**
+     * Sets the latest index that is due and schedules the next step, or finishes the ramp.
+     */
+    private void step() {
+        if(onFinished == null) {
+            return;
+        }
+
+        // Skip the steps that are overdue already
+        long now = scheduler.uptimeMillis();
+        int step = nextStep;
+        while(step + 1 < times.length && times[step + 1] <= now) {
+            step++;
+        }
+        audioSink.setStreamVolume(AudioManager.STREAM_MUSIC, indices[step], flags);
+        nextStep = step + 1;
+
+        if(nextStep < times.length) {
+            scheduler.postAtTime(stepTask, null, times[nextStep]);
+            return;
+        }
+
+        Runnable target = onFinished;
+        cancel();
+        target.run();
+    }
+}
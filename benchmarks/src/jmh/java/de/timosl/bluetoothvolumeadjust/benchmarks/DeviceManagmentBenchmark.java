@@ -0,0 +1,131 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
+
+/**
+ * Lookups and changes of managed devices through {@link DeviceManagment}.
+ * The store is a process-wide singleton, so every benchmark needs its own
+ * fork (which JMH does by default).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class DeviceManagmentBenchmark {
+
+    /**
+     * The number of managed (and bonded) devices.
+     */
+    @Param({"4", "64"})
+    public int deviceCount;
+
+    /**
+     * The {@link InMemoryContext} all devices are stored in.
+     */
+    private InMemoryContext context;
+
+    /**
+     * The MAC-Addresses of the managed devices.
+     */
+    private String[] addresses;
+
+    /**
+     * A MAC-Address that is not managed.
+     */
+    private String unknownAddress;
+
+    /**
+     * The index of the next address to use.
+     */
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = new InMemoryContext();
+        addresses = new String[deviceCount];
+        Set<BluetoothDevice> bonded = new HashSet<>();
+        for(int i = 0; i < deviceCount; i++) {
+            addresses[i] = address(i);
+            bonded.add(new BluetoothDevice(addresses[i], "Device " + i));
+            DeviceManagment.addDevice(context, addresses[i], (i % 100) / 100f);
+        }
+        unknownAddress = address(deviceCount);
+        BluetoothAdapter.getDefaultAdapter().setBondedDevices(bonded);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DeviceProfileStore.get(context).flush();
+        context.deleteFiles();
+    }
+
+    @Benchmark
+    public float getDeviceVolume() {
+        return DeviceManagment.getDeviceVolume(context, nextAddress());
+    }
+
+    @Benchmark
+    public float getDeviceVolumeUnknown() {
+        return DeviceManagment.getDeviceVolume(context, unknownAddress);
+    }
+
+    @Benchmark
+    public BluetoothDevice getDeviceByAddress() {
+        return DeviceManagment.getDeviceByAddress(nextAddress());
+    }
+
+    @Benchmark
+    public int getDevices() {
+        return DeviceManagment.getDevices(context).size();
+    }
+
+    @Benchmark
+    public void addDevice() {
+        // Only changes the volume, so the number of devices stays the same
+        DeviceManagment.addDevice(context, nextAddress(), (next % 100) / 100f);
+    }
+
+    @Benchmark
+    public void removeAndAddDevice() {
+        String address = nextAddress();
+        DeviceManagment.removeDevice(context, address);
+        DeviceManagment.addDevice(context, address, 0.5f);
+    }
+
+    /**
+     * Returns the next managed address, going through all of them in turn.
+     */
+    private String nextAddress() {
+        next = (next + 1) % addresses.length;
+        return addresses[next];
+    }
+
+    /**
+     * Builds a MAC-Address from a number.
+     */
+    private static String address(int i) {
+        return String.format(Locale.US, "00:11:22:33:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+    }
+}
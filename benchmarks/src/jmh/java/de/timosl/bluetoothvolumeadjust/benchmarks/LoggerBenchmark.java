@@ -0,0 +1,84 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.preference.PreferenceManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.timosl.bluetoothvolumeadjust.util.L;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+
+/**
+ * Logging through {@link L}, with the log file enabled and disabled.
+ * <p>
+ * {@link #log()} measures the cost on the calling thread. Since messages are only
+ * queued there, the queue is drained after every (short) iteration to keep it from
+ * growing without bound. {@link #logAndFlush()} measures the latency until a message
+ * has been written to the log file.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 20, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+public class LoggerBenchmark {
+
+    /**
+     * Set if logging into the log file is enabled.
+     */
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    /**
+     * The {@link InMemoryContext} the log file is written to.
+     */
+    private InMemoryContext context;
+
+    /**
+     * A changing value logged with every message.
+     */
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        context = new InMemoryContext();
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(Preferences.KEY_ENABLE_DEBUGGING, enabled)
+                .commit();
+        L.init(context);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        L.clearLog();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.deleteFiles();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+    public void log() {
+        L.i("(LoggerBenchmark) Storing current media volume: %d out of %d", counter++ & 15, 15);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void logAndFlush() {
+        L.i("(LoggerBenchmark) Storing current media volume: %d out of %d", counter++ & 15, 15);
+        L.flush();
+    }
+}
@@ -0,0 +1,89 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.RestoreStack;
+import de.timosl.bluetoothvolumeadjust.util.VolumeRamp;
+
+/**
+ * Reading and writing the user settings through {@link Preferences}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PreferencesBenchmark {
+
+    /**
+     * The {@link InMemoryContext} the settings are stored in.
+     */
+    private InMemoryContext context;
+
+    /**
+     * The stacks written by {@link #setRestoreStack()}, one per volume.
+     */
+    private final RestoreStack[] stacks = new RestoreStack[16];
+
+    /**
+     * The volume of the stack written next by {@link #setRestoreStack()}.
+     */
+    private int volume;
+
+    @Setup
+    public void setUp() {
+        context = new InMemoryContext();
+        for(int i = 0; i < stacks.length; i++) {
+            stacks[i] = RestoreStack.EMPTY.withSpeakerVolume(7).push("00:11:22:33:44:55", i);
+        }
+        Preferences.setRestoreStack(context, stacks[7]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.deleteFiles();
+    }
+
+    @Benchmark
+    public boolean getShowIndicatorEnabled() {
+        return Preferences.getShowIndicatorEnabled(context);
+    }
+
+    @Benchmark
+    public boolean getResetVolumeOnDisconnect() {
+        return Preferences.getResetVolumeOnDisconnect(context);
+    }
+
+    @Benchmark
+    public RestoreStack getRestoreStack() {
+        return Preferences.getRestoreStack(context);
+    }
+
+    @Benchmark
+    public boolean getEnableDebugging() {
+        return Preferences.getEnableDebugging(context);
+    }
+
+    @Benchmark
+    public VolumeRamp.Curve getRampCurve() {
+        return Preferences.getRampCurve(context);
+    }
+
+    @Benchmark
+    public void setRestoreStack() {
+        volume = (volume + 1) & 15;
+        Preferences.setRestoreStack(context, stacks[volume]);
+    }
+}
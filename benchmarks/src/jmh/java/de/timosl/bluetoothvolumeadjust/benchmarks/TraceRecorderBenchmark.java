@@ -0,0 +1,62 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.timosl.bluetoothvolumeadjust.util.DeviceProfileStore;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+
+/**
+ * Recording events with the {@link TraceRecorder}, compared to the text log
+ * measured by {@link LoggerBenchmark}. Recording should not allocate at all.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 20, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+public class TraceRecorderBenchmark {
+
+    /**
+     * The {@link InMemoryContext} the trace file is written to.
+     */
+    private InMemoryContext context;
+
+    /**
+     * The MAC-Address recorded with every event.
+     */
+    private long address;
+
+    /**
+     * A changing value recorded with every event.
+     */
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        context = new InMemoryContext();
+        address = DeviceProfileStore.parseAddress("00:11:22:33:44:55");
+        TraceRecorder.init(context);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TraceRecorder.clear();
+        context.deleteFiles();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+    public void record() {
+        TraceRecorder.record(TraceRecorder.EVENT_VOLUME_SET, address, counter++ & 15, 1000, 0);
+    }
+}
@@ -0,0 +1,30 @@
+package android.bluetooth;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. The bonded devices are set with {@link #setBondedDevices(Set)}.
+ */
+public final class BluetoothAdapter {
+
+    public static final String ACTION_STATE_CHANGED = "android.bluetooth.adapter.action.STATE_CHANGED";
+
+    private static final BluetoothAdapter DEFAULT_ADAPTER = new BluetoothAdapter();
+
+    private volatile Set<BluetoothDevice> bondedDevices = Collections.emptySet();
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return DEFAULT_ADAPTER;
+    }
+
+    public Set<BluetoothDevice> getBondedDevices() {
+        return new HashSet<>(bondedDevices);
+    }
+
+    public void setBondedDevices(Set<BluetoothDevice> devices) {
+        bondedDevices = new HashSet<>(devices);
+    }
+}
@@ -0,0 +1,48 @@
+package android.bluetooth;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. Only implements what the app uses.
+ */
+public final class BluetoothDevice {
+
+    public static final int ERROR = Integer.MIN_VALUE;
+
+    public static final int BOND_NONE = 10;
+
+    public static final int BOND_BONDING = 11;
+
+    public static final int BOND_BONDED = 12;
+
+    public static final String ACTION_BOND_STATE_CHANGED = "android.bluetooth.device.action.BOND_STATE_CHANGED";
+
+    public static final String ACTION_NAME_CHANGED = "android.bluetooth.device.action.NAME_CHANGED";
+
+    public static final String EXTRA_DEVICE = "android.bluetooth.device.extra.DEVICE";
+
+    public static final String EXTRA_NAME = "android.bluetooth.device.extra.NAME";
+
+    public static final String EXTRA_BOND_STATE = "android.bluetooth.device.extra.BOND_STATE";
+
+    private final String address;
+
+    private final String name;
+
+    public BluetoothDevice(String address, String name) {
+        this.address = address;
+        this.name = name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+}
@@ -0,0 +1,16 @@
+package android.bluetooth;
+
+/**
+ * Stand-in for the Android interface of the same name, so the receiver logic can be
+ * run on a plain JVM. Only declares what the app uses.
+ */
+public interface BluetoothProfile {
+
+    int STATE_DISCONNECTED = 0;
+
+    int STATE_CONNECTING = 1;
+
+    int STATE_CONNECTED = 2;
+
+    int STATE_DISCONNECTING = 3;
+}
@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. Only declares what the app uses.
+ */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+}
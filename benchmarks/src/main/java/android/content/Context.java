@@ -0,0 +1,28 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. Only declares what the app uses.
+ */
+public abstract class Context {
+
+    public static final String AUDIO_SERVICE = "audio";
+
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract File getFilesDir();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract Object getSystemService(String name);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+}
@@ -0,0 +1,42 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. Only implements what the app uses.
+ */
+public class Intent {
+
+    private final String action;
+
+    private final Map<String, Object> extras = new HashMap<>();
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Intent putExtra(String name, Object value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getParcelableExtra(String name) {
+        return (T) extras.get(name);
+    }
+
+    public String getStringExtra(String name) {
+        return (String) extras.get(name);
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+}
@@ -0,0 +1,30 @@
+package android.media;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * compiled on a plain JVM. The audio system is not available in benchmarks.
+ */
+public class AudioManager {
+
+    public static final int STREAM_VOICE_CALL = 0;
+
+    public static final int STREAM_RING = 2;
+
+    public static final int STREAM_MUSIC = 3;
+
+    public static final int STREAM_NOTIFICATION = 5;
+
+    public static final int FLAG_SHOW_UI = 1;
+
+    public int getStreamVolume(int streamType) {
+        throw new UnsupportedOperationException("Not available in benchmarks");
+    }
+
+    public int getStreamMaxVolume(int streamType) {
+        throw new UnsupportedOperationException("Not available in benchmarks");
+    }
+
+    public void setStreamVolume(int streamType, int index, int flags) {
+        throw new UnsupportedOperationException("Not available in benchmarks");
+    }
+}
@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * compiled on a plain JVM. There are no loopers in benchmarks.
+ */
+public class Handler {
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        throw new UnsupportedOperationException("Not available in benchmarks");
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        throw new UnsupportedOperationException("Not available in benchmarks");
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
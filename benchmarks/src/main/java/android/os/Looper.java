@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * compiled on a plain JVM. There are no loopers in benchmarks.
+ */
+public final class Looper {
+
+    public static Looper myLooper() {
+        return null;
+    }
+}
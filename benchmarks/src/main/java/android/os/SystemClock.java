@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM.
+ */
+public final class SystemClock {
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+}
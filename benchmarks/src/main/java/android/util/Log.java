@@ -0,0 +1,23 @@
+package android.util;
+
+/**
+ * Stand-in for the Android class of the same name, so the util package can be
+ * run on a plain JVM. Writes to the standard error stream.
+ */
+public final class Log {
+
+    public static int d(String tag, String msg) {
+        System.err.println("D/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        System.err.println("I/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,205 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.media.AudioManager;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+/**
+ * An {@link AudioSink} for the simulator, modelled on how Android handles the music
+ * stream of a Bluetooth device:
+ * <ul>
+ *     <li>The music stream has a volume for the speaker and one for the Bluetooth device.
+ *     Which one is used depends on whether A2DP is on.</li>
+ *     <li>While A2DP is on but nothing is playing, changes of the music volume end up
+ *     at the speaker. These are counted as misrouted.</li>
+ *     <li>Music is active while the user plays music, or once a started playback
+ *     has been routed to the device.</li>
+ * </ul>
+ * The other streams have a single volume each. Not thread-safe.
+ */
+public class InMemoryAudioSink implements AudioSink {
+
+    /**
+     * The maximum volume of the music stream.
+     */
+    static final int MAX_MUSIC_VOLUME = 15;
+
+    /**
+     * The maximum volume of all other streams.
+     */
+    static final int MAX_OTHER_VOLUME = 7;
+
+    /**
+     * The number of stream types.
+     */
+    private static final int STREAM_TYPES = 11;
+
+    /**
+     * The {@link Scheduler} providing the time.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The volume of each stream type other than music.
+     */
+    private final int[] volumes = new int[STREAM_TYPES];
+
+    /**
+     * The music volume of the speaker.
+     */
+    private int speakerVolume;
+
+    /**
+     * The music volume of the Bluetooth device.
+     */
+    private int bluetoothVolume;
+
+    /**
+     * Set while music is routed to a Bluetooth device.
+     */
+    private boolean bluetoothA2dpOn;
+
+    /**
+     * Set while the user plays music.
+     */
+    private boolean userMusicPlaying;
+
+    /**
+     * The time from which a started playback counts as active, or '-1' if none is playing.
+     */
+    private long playbackActiveAt = -1;
+
+    /**
+     * The number of changes of the music volume.
+     */
+    private int volumeChanges;
+
+    /**
+     * The number of changes of the music volume that ended up at the speaker instead
+     * of the Bluetooth device.
+     */
+    private int misroutedChanges;
+
+    /**
+     * Creates a new {@link InMemoryAudioSink}.
+     * @param scheduler The {@link Scheduler} providing the time
+     */
+    public InMemoryAudioSink(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public int getStreamVolume(int streamType) {
+        if(streamType == AudioManager.STREAM_MUSIC) {
+            return bluetoothA2dpOn ? bluetoothVolume : speakerVolume;
+        }
+        return volumes[streamType];
+    }
+
+    @Override
+    public int getStreamMaxVolume(int streamType) {
+        return streamType == AudioManager.STREAM_MUSIC ? MAX_MUSIC_VOLUME : MAX_OTHER_VOLUME;
+    }
+
+    @Override
+    public void setStreamVolume(int streamType, int index, int flags) {
+        if(streamType != AudioManager.STREAM_MUSIC) {
+            volumes[streamType] = index;
+            return;
+        }
+
+        volumeChanges++;
+        if(bluetoothA2dpOn && isMusicActive()) {
+            bluetoothVolume = index;
+        } else {
+            if(bluetoothA2dpOn) {
+                misroutedChanges++;
+            }
+            speakerVolume = index;
+        }
+    }
+
+    @Override
+    public boolean isMusicActive() {
+        return userMusicPlaying || (playbackActiveAt != -1 && scheduler.uptimeMillis() >= playbackActiveAt);
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        return bluetoothA2dpOn;
+    }
+
+    /**
+     * Sets if music is routed to a Bluetooth device.
+     * @param on Set if A2DP is on
+     */
+    public void setBluetoothA2dpOn(boolean on) {
+        bluetoothA2dpOn = on;
+    }
+
+    /**
+     * Sets if the user plays music.
+     * @param playing Set if music is playing
+     */
+    public void setUserMusicPlaying(boolean playing) {
+        userMusicPlaying = playing;
+    }
+
+    /**
+     * Sets when a started playback counts as active.
+     * @param time The virtual time, or '-1' if the playback has been stopped
+     */
+    void setPlaybackActiveAt(long time) {
+        playbackActiveAt = time;
+    }
+
+    /**
+     * Returns the music volume of the speaker.
+     * @return The volume index
+     */
+    public int getSpeakerVolume() {
+        return speakerVolume;
+    }
+
+    /**
+     * Sets the music volume of the speaker.
+     * @param volume The volume index
+     */
+    public void setSpeakerVolume(int volume) {
+        speakerVolume = volume;
+    }
+
+    /**
+     * Returns the music volume of the Bluetooth device.
+     * @return The volume index
+     */
+    public int getBluetoothVolume() {
+        return bluetoothVolume;
+    }
+
+    /**
+     * Sets the music volume the Bluetooth device starts at.
+     * @param volume The volume index
+     */
+    public void setBluetoothVolume(int volume) {
+        bluetoothVolume = volume;
+    }
+
+    /**
+     * Returns the number of changes of the music volume.
+     * @return The number of changes
+     */
+    public int getVolumeChanges() {
+        return volumeChanges;
+    }
+
+    /**
+     * Returns the number of changes of the music volume that ended up at the speaker
+     * while A2DP was on.
+     * @return The number of misrouted changes
+     */
+    public int getMisroutedChanges() {
+        return misroutedChanges;
+    }
+}
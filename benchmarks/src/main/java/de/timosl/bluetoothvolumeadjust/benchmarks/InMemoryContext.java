@@ -0,0 +1,102 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link Context} for running the util package on a plain JVM. Its preferences
+ * are {@link InMemorySharedPreferences} and its files directory is a temporary
+ * directory. Broadcasts are never delivered.
+ */
+public class InMemoryContext extends Context {
+
+    /**
+     * The package name of the app.
+     */
+    private static final String PACKAGE_NAME = "de.timosl.bluetoothvolumeadjust";
+
+    /**
+     * The files directory.
+     */
+    private final File filesDir;
+
+    /**
+     * The preferences by their name.
+     */
+    private final Map<String, SharedPreferences> preferences = new HashMap<>();
+
+    /**
+     * Creates a new {@link InMemoryContext} with an empty temporary files directory.
+     */
+    public InMemoryContext() {
+        try {
+            File dir = File.createTempFile("benchmark", "");
+            if(!dir.delete() || !dir.mkdir()) {
+                throw new IllegalStateException("Could not create " + dir);
+            }
+            filesDir = dir;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences result = preferences.get(name);
+        if(result == null) {
+            result = new InMemorySharedPreferences();
+            preferences.put(name, result);
+        }
+        return result;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+    }
+
+    /**
+     * Deletes the files directory and everything in it.
+     */
+    public void deleteFiles() {
+        File[] files = filesDir.listFiles();
+        if(files != null) {
+            for(File file: files) {
+                file.delete();
+            }
+        }
+        filesDir.delete();
+    }
+}
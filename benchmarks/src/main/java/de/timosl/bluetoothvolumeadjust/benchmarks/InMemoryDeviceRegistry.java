@@ -0,0 +1,31 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.timosl.bluetoothvolumeadjust.platform.DeviceRegistry;
+
+/**
+ * A {@link DeviceRegistry} for the simulator, holding the devices added with {@link #add(String, String)}.
+ */
+public class InMemoryDeviceRegistry implements DeviceRegistry {
+
+    /**
+     * The names of the bonded devices by their MAC-Address.
+     */
+    private final Map<String, String> names = new HashMap<>();
+
+    /**
+     * Adds a bonded device.
+     * @param address The MAC-Address of the device
+     * @param name The name of the device
+     */
+    public void add(String address, String name) {
+        names.put(address, name);
+    }
+
+    @Override
+    public String getName(String address) {
+        return names.get(address);
+    }
+}
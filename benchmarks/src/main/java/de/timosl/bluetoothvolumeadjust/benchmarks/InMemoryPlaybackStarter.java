@@ -0,0 +1,141 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import java.util.Random;
+
+import de.timosl.bluetoothvolumeadjust.platform.PlaybackStarter;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+/**
+ * A {@link PlaybackStarter} for the simulator. A started playback reports its first samples
+ * after a random start latency and becomes active on the {@link InMemoryAudioSink} after
+ * an additional random routing delay, which is usually short but sometimes takes much longer.
+ * While it is running, it reports its progress like the looped silence track of a device.
+ */
+public class InMemoryPlaybackStarter implements PlaybackStarter {
+
+    /**
+     * The longest time in milliseconds until the first samples are played.
+     */
+    private static final int MAX_START_LATENCY = 120;
+
+    /**
+     * The longest usual time in milliseconds from the first samples until the stream is active.
+     */
+    private static final int MAX_ROUTING_DELAY = 100;
+
+    /**
+     * The longest time in milliseconds from the first samples until the stream is active,
+     * for the playbacks that are slow to be routed.
+     */
+    private static final int MAX_SLOW_ROUTING_DELAY = 1000;
+
+    /**
+     * The share of playbacks that are slow to be routed.
+     */
+    private static final double SLOW_ROUTING_SHARE = 0.05;
+
+    /**
+     * The time in milliseconds between two progress notifications, the length of the
+     * looped buffer of the silence track.
+     */
+    private static final long PROGRESS_INTERVAL = 93L;
+
+    /**
+     * The {@link Scheduler} the listener is notified on.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The {@link InMemoryAudioSink} the playback becomes active on.
+     */
+    private final InMemoryAudioSink audioSink;
+
+    /**
+     * The source of the random latencies.
+     */
+    private final Random random;
+
+    /**
+     * The {@link Listener} of the current playback, or 'null'.
+     */
+    private Listener listener;
+
+    /**
+     * The number of playbacks started so far.
+     */
+    private int starts;
+
+    /**
+     * Notifies the listener once the first samples have been played.
+     */
+    private final Runnable startedTask = new Runnable() {
+        @Override
+        public void run() {
+            if(listener != null) {
+                scheduler.postDelayed(progressTask, PROGRESS_INTERVAL);
+                listener.onPlaybackStarted();
+            }
+        }
+    };
+
+    /**
+     * Notifies the listener every {@link #PROGRESS_INTERVAL} while the playback is running.
+     */
+    private final Runnable progressTask = new Runnable() {
+        @Override
+        public void run() {
+            if(listener != null) {
+                scheduler.postDelayed(this, PROGRESS_INTERVAL);
+                listener.onPlaybackProgress();
+            }
+        }
+    };
+
+    /**
+     * Creates a new {@link InMemoryPlaybackStarter}.
+     * @param scheduler The {@link Scheduler} the listener is notified on
+     * @param audioSink The {@link InMemoryAudioSink} the playback becomes active on
+     * @param random The source of the random latencies
+     */
+    public InMemoryPlaybackStarter(Scheduler scheduler, InMemoryAudioSink audioSink, Random random) {
+        this.scheduler = scheduler;
+        this.audioSink = audioSink;
+        this.random = random;
+    }
+
+    @Override
+    public boolean prime() {
+        return true;
+    }
+
+    @Override
+    public boolean start(Listener listener) {
+        stop();
+        starts++;
+
+        int startLatency = 1 + random.nextInt(MAX_START_LATENCY);
+        int routingDelay = random.nextDouble() < SLOW_ROUTING_SHARE
+                ? random.nextInt(MAX_SLOW_ROUTING_DELAY)
+                : random.nextInt(MAX_ROUTING_DELAY);
+        this.listener = listener;
+        scheduler.postDelayed(startedTask, startLatency);
+        audioSink.setPlaybackActiveAt(scheduler.uptimeMillis() + startLatency + routingDelay);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+        scheduler.removeCallbacks(startedTask);
+        scheduler.removeCallbacks(progressTask);
+        audioSink.setPlaybackActiveAt(-1);
+    }
+
+    /**
+     * Returns the number of playbacks started so far.
+     * @return The number of playbacks
+     */
+    public int getStarts() {
+        return starts;
+    }
+}
@@ -0,0 +1,423 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.bluetooth.BluetoothProfile;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import de.timosl.bluetoothvolumeadjust.platform.Platform;
+import de.timosl.bluetoothvolumeadjust.receivers.AdjustmentExecutor;
+import de.timosl.bluetoothvolumeadjust.receivers.AdjustmentJob;
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.LatencyHistogram;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.VolumeCurve;
+
+/**
+ * Drives the receiver logic through randomized sequences of connection state changes
+ * on virtual time, using the in-memory implementations of the {@link Platform}.
+ * <p>
+ * Every sequence connects one of the managed devices: its state walks randomly through
+ * CONNECTING, CONNECTED and DISCONNECTED with random gaps, as flaky car head units do,
+ * and ends up CONNECTED. Once all jobs are done, the music volume of the device must be
+ * the one set for it. The device is then disconnected, after which the speaker volume
+ * must be back at the value from before the sequence.
+ * <p>
+ * In some sequences another device is connected first and disconnects at a random point
+ * of the walk, while the jobs of the device may still be waiting for music. Since the
+ * device connected last, it keeps its volume, and the speaker volume is restored once
+ * both have disconnected.
+ * <p>
+ * Reports how many broadcasts are simulated per second of real time, the latency from
+ * the last CONNECTED broadcast until its job is done in virtual time, and the sequences
+ * that ended up with the wrong volume. Run it with
+ * {@code ./gradlew :benchmarks:simulate -PsimulatorArgs="<sequences> <seed>"}.
+ */
+public class ReceiverSimulator {
+
+    /**
+     * The number of sequences if none is given.
+     */
+    private static final int DEFAULT_SEQUENCES = 2000;
+
+    /**
+     * The number of managed devices.
+     */
+    private static final int DEVICE_COUNT = 8;
+
+    /**
+     * The largest number of state changes before the final CONNECTED state.
+     */
+    private static final int MAX_STEPS = 6;
+
+    /**
+     * The longest gap in milliseconds between two state changes of a sequence.
+     */
+    private static final int MAX_GAP = 2500;
+
+    /**
+     * The time in milliseconds after which the jobs of a sequence must be done.
+     */
+    private static final long MAX_SEQUENCE_TIME = 60000L;
+
+    /**
+     * The share of sequences in which the user already plays music.
+     */
+    private static final double USER_MUSIC_SHARE = 0.2;
+
+    /**
+     * The share of sequences in which another device is connected first.
+     */
+    private static final double OVERLAP_SHARE = 0.25;
+
+    /**
+     * The number of failed sequences that are listed in the report.
+     */
+    private static final int MAX_LISTED_FAILURES = 10;
+
+    /**
+     * The {@link InMemoryContext} the preferences are stored in.
+     */
+    private final InMemoryContext context = new InMemoryContext();
+
+    /**
+     * The source of all random decisions.
+     */
+    private final Random random;
+
+    /**
+     * The {@link VirtualScheduler} all jobs run on.
+     */
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+
+    /**
+     * The {@link InMemoryAudioSink} whose volumes are adjusted.
+     */
+    private final InMemoryAudioSink audioSink = new InMemoryAudioSink(scheduler);
+
+    /**
+     * The {@link InMemoryPlaybackStarter} playing the silence.
+     */
+    private final InMemoryPlaybackStarter playbackStarter;
+
+    /**
+     * The {@link InMemoryDeviceRegistry} of the managed devices.
+     */
+    private final InMemoryDeviceRegistry deviceRegistry = new InMemoryDeviceRegistry();
+
+    /**
+     * The {@link AdjustmentExecutor} under test.
+     */
+    private final AdjustmentExecutor executor;
+
+    /**
+     * The MAC-Addresses of the managed devices.
+     */
+    private final String[] addresses = new String[DEVICE_COUNT];
+
+    /**
+     * The volumes set for the managed devices.
+     */
+    private final float[] volumes = new float[DEVICE_COUNT];
+
+    /**
+     * The latencies of the final CONNECTED broadcasts.
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * The sequences after which the device did not have its volume.
+     */
+    private final List<String> connectFailures = new ArrayList<>();
+
+    /**
+     * The sequences after which the speaker volume was not restored.
+     */
+    private final List<String> restoreFailures = new ArrayList<>();
+
+    /**
+     * The MAC-Addresses of the devices that are CONNECTED.
+     */
+    private final Set<String> connectedDevices = new HashSet<>();
+
+    /**
+     * The number of sequences in which another device was connected first.
+     */
+    private int overlappingSequences;
+
+    /**
+     * The number of broadcasts sent so far.
+     */
+    private int broadcasts;
+
+    /**
+     * The number of broadcasts whose job has not finished yet.
+     */
+    private int pendingBroadcasts;
+
+    /**
+     * A broadcast sent to the receiver.
+     */
+    private final class Broadcast implements Runnable {
+
+        /**
+         * The virtual time the broadcast was sent at.
+         */
+        final long sentAt = scheduler.uptimeMillis();
+
+        /**
+         * The virtual time its job finished at, or '-1' if it has not finished yet.
+         */
+        long finishedAt = -1;
+
+        @Override
+        public void run() {
+            finishedAt = scheduler.uptimeMillis();
+            pendingBroadcasts--;
+        }
+    }
+
+    /**
+     * Creates a new {@link ReceiverSimulator} with the managed devices and the preferences
+     * the sequences rely on.
+     * @param seed The seed of all random decisions
+     */
+    private ReceiverSimulator(long seed) {
+        random = new Random(seed);
+        playbackStarter = new InMemoryPlaybackStarter(scheduler, audioSink, random);
+        executor = new AdjustmentExecutor(context, new Platform(audioSink, playbackStarter, deviceRegistry, scheduler));
+
+        // Must be set before the preferences are loaded for the first time. Learning
+        // the volume is left off, since the simulated user never changes the volume.
+        // The speaker volume is known from the single volume an older version stored
+        audioSink.setSpeakerVolume(random.nextInt(InMemoryAudioSink.MAX_MUSIC_VOLUME + 1));
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        preferences.edit()
+                .putInt(Preferences.KEY_LAST_MEDIA_VOLUME, audioSink.getSpeakerVolume())
+                .putBoolean(Preferences.KEY_RESET_VOLUME_ON_DISCONNECT, true)
+                .putBoolean(Preferences.KEY_LEARN_VOLUME, false)
+                .putString(Preferences.KEY_RAMP_DURATION, String.valueOf(Preferences.DEFAULT_RAMP_DURATION))
+                .putString(Preferences.KEY_SETTLE_WINDOW, String.valueOf(Preferences.DEFAULT_SETTLE_WINDOW))
+                .commit();
+
+        for(int i = 0; i < DEVICE_COUNT; i++) {
+            addresses[i] = String.format(Locale.US, "00:11:22:33:44:%02X", i);
+            volumes[i] = random.nextFloat();
+            deviceRegistry.add(addresses[i], "Device " + i);
+            DeviceManagment.addDevice(context, addresses[i], volumes[i]);
+        }
+    }
+
+    /**
+     * Runs the simulator.
+     * @param args The number of sequences and the seed, both optional
+     */
+    public static void main(String[] args) {
+        int sequences = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SEQUENCES;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+
+        ReceiverSimulator simulator = new ReceiverSimulator(seed);
+        long start = System.nanoTime();
+        for(int sequence = 0; sequence < sequences; sequence++) {
+            simulator.runSequence(sequence);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        boolean failed = simulator.report(sequences, seed, elapsed);
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Runs a single sequence and checks the volumes it ends up with.
+     * @param sequence The number of the sequence, for the report
+     */
+    private void runSequence(int sequence) {
+        int device = random.nextInt(DEVICE_COUNT);
+        String address = addresses[device];
+        int speakerVolume = audioSink.getSpeakerVolume();
+        StringBuilder walk = new StringBuilder();
+
+        // Connect another device first, which owns the music stream until this one is CONNECTED
+        String other = null;
+        if(random.nextDouble() < OVERLAP_SHARE) {
+            int otherDevice = (device + 1 + random.nextInt(DEVICE_COUNT - 1)) % DEVICE_COUNT;
+            other = addresses[otherDevice];
+            overlappingSequences++;
+            audioSink.setBluetoothVolume(random.nextInt(InMemoryAudioSink.MAX_MUSIC_VOLUME + 1));
+            send(other, BluetoothProfile.STATE_CONNECTING, walk);
+            send(other, BluetoothProfile.STATE_CONNECTED, walk);
+            settle();
+            checkVolume(sequence, other, otherDevice, walk);
+        } else {
+            audioSink.setBluetoothVolume(random.nextInt(InMemoryAudioSink.MAX_MUSIC_VOLUME + 1));
+        }
+        audioSink.setUserMusicPlaying(random.nextDouble() < USER_MUSIC_SHARE);
+
+        // Walk through the states until the device ends up CONNECTED. The other
+        // device disconnects at a random point of the walk
+        int state = BluetoothProfile.STATE_DISCONNECTED;
+        Broadcast connected = null;
+        int steps = random.nextInt(MAX_STEPS);
+        int otherStep = random.nextInt(steps + 1);
+        for(int step = 0; step < steps; step++) {
+            if(other != null && step == otherStep) {
+                send(other, BluetoothProfile.STATE_DISCONNECTED, walk);
+            }
+            state = nextState(state);
+            connected = send(address, state, walk);
+        }
+        if(state != BluetoothProfile.STATE_CONNECTED) {
+            connected = send(address, BluetoothProfile.STATE_CONNECTED, walk);
+        }
+        if(other != null && otherStep == steps) {
+            send(other, BluetoothProfile.STATE_DISCONNECTED, walk);
+        }
+        settle();
+
+        if(connected.finishedAt != -1) {
+            latencies.record(connected.finishedAt - connected.sentAt);
+        }
+        checkVolume(sequence, address, device, walk);
+
+        // Disconnect it again
+        advance();
+        submit(address, BluetoothProfile.STATE_DISCONNECTED, new Broadcast());
+        audioSink.setUserMusicPlaying(false);
+        settle();
+        if(audioSink.getSpeakerVolume() != speakerVolume) {
+            restoreFailures.add(String.format(Locale.US, "#%d %s: %d instead of %d [%s]",
+                    sequence, address, audioSink.getSpeakerVolume(), speakerVolume, walk));
+            audioSink.setSpeakerVolume(speakerVolume);
+        }
+    }
+
+    /**
+     * Checks that a connected device has the music volume set for it.
+     * @param sequence The number of the sequence, for the report
+     * @param address The MAC-Address of the device
+     * @param device The index of the device
+     * @param walk The states of the sequence so far, for the report
+     */
+    private void checkVolume(int sequence, String address, int device, StringBuilder walk) {
+        int expectedVolume = new VolumeCurve(Preferences.getVolumeCurve(context), InMemoryAudioSink.MAX_MUSIC_VOLUME).getIndex(volumes[device]);
+        if(audioSink.getBluetoothVolume() != expectedVolume) {
+            connectFailures.add(String.format(Locale.US, "#%d %s: %d instead of %d [%s]",
+                    sequence, address, audioSink.getBluetoothVolume(), expectedVolume, walk));
+        }
+    }
+
+    /**
+     * Returns a random state a device may change to from the given one.
+     * @param state The current {@link BluetoothProfile} state
+     * @return The next {@link BluetoothProfile} state
+     */
+    private int nextState(int state) {
+        switch(state) {
+            case BluetoothProfile.STATE_DISCONNECTED:
+                return random.nextBoolean() ? BluetoothProfile.STATE_CONNECTING : BluetoothProfile.STATE_CONNECTED;
+            case BluetoothProfile.STATE_CONNECTING:
+                return random.nextBoolean() ? BluetoothProfile.STATE_CONNECTED : BluetoothProfile.STATE_DISCONNECTED;
+            default:
+                return BluetoothProfile.STATE_DISCONNECTED;
+        }
+    }
+
+    /**
+     * Sends a broadcast for a state change after a random gap.
+     * @param address The MAC-Address of the device
+     * @param state The new {@link BluetoothProfile} state
+     * @param walk Collects the states of the sequence for the report
+     * @return The {@link Broadcast} that was sent
+     */
+    private Broadcast send(String address, int state, StringBuilder walk) {
+        if(walk.length() > 0) {
+            walk.append(' ');
+        }
+        walk.append(address.substring(address.length() - 2)).append(':').append(state);
+        advance();
+        Broadcast broadcast = new Broadcast();
+        submit(address, state, broadcast);
+        return broadcast;
+    }
+
+    /**
+     * Lets a random gap of virtual time pass.
+     */
+    private void advance() {
+        scheduler.runUntil(scheduler.uptimeMillis() + random.nextInt(MAX_GAP));
+    }
+
+    /**
+     * Routes the music stream for the new state and hands the broadcast to the receiver
+     * logic, the way the {@link de.timosl.bluetoothvolumeadjust.receivers.BluetoothIntentReceiver} does.
+     * @param address The MAC-Address of the device
+     * @param state The new {@link BluetoothProfile} state
+     * @param broadcast The {@link Broadcast} to finish once its job is done
+     */
+    private void submit(String address, int state, Broadcast broadcast) {
+        if(state == BluetoothProfile.STATE_CONNECTED) {
+            connectedDevices.add(address);
+        } else if(state == BluetoothProfile.STATE_DISCONNECTED) {
+            connectedDevices.remove(address);
+        }
+        audioSink.setBluetoothA2dpOn(!connectedDevices.isEmpty());
+        broadcasts++;
+        if(!AdjustmentJob.isHandledState(state)) {
+            return;
+        }
+        pendingBroadcasts++;
+        executor.submit(new AdjustmentJob(executor, address, state, broadcast), Preferences.getSettleWindow(context));
+    }
+
+    /**
+     * Runs the scheduled work until all broadcasts are finished, but at most
+     * for {@link #MAX_SEQUENCE_TIME} milliseconds.
+     */
+    private void settle() {
+        long limit = scheduler.uptimeMillis() + MAX_SEQUENCE_TIME;
+        while(pendingBroadcasts > 0 && scheduler.uptimeMillis() < limit) {
+            scheduler.runUntil(Math.min(scheduler.uptimeMillis() + MAX_GAP, limit));
+        }
+    }
+
+    /**
+     * Prints the report.
+     * @param sequences The number of sequences that were run
+     * @param seed The seed of the random decisions
+     * @param elapsedNanos The real time the sequences took in nanoseconds
+     * @return Returns 'true' if any sequence failed
+     */
+    private boolean report(int sequences, long seed, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.US, "Sequences:   %d (seed %d, %d devices, %d with another device connected first)%n", sequences, seed, DEVICE_COUNT, overlappingSequences);
+        System.out.printf(Locale.US, "Broadcasts:  %d in %.2fs (%.0f per second)%n", broadcasts, seconds, broadcasts / seconds);
+        System.out.printf(Locale.US, "Virtual time: %.1f hours, %d tasks run%n", scheduler.uptimeMillis() / 3600000.0, scheduler.getExecutedCount());
+        System.out.printf(Locale.US, "Latency:     p50 %dms, p90 %dms, p99 %dms (last CONNECTED until its job is done)%n",
+                latencies.getPercentile(50), latencies.getPercentile(90), latencies.getPercentile(99));
+        System.out.printf(Locale.US, "Silence:     %d playbacks started%n", playbackStarter.getStarts());
+        System.out.printf(Locale.US, "Misrouted:   %d of %d music volume changes went to the speaker while A2DP was on%n",
+                audioSink.getMisroutedChanges(), audioSink.getVolumeChanges());
+        System.out.printf(Locale.US, "Unfinished:  %d broadcasts%n", pendingBroadcasts);
+        printFailures("Wrong device volume", connectFailures);
+        printFailures("Speaker volume not restored", restoreFailures);
+        return !connectFailures.isEmpty() || !restoreFailures.isEmpty() || pendingBroadcasts > 0;
+    }
+
+    /**
+     * Prints the number of failed sequences and the first ones of them.
+     * @param title The kind of failure
+     * @param failures The failed sequences
+     */
+    private static void printFailures(String title, List<String> failures) {
+        System.out.printf(Locale.US, "%s: %d%n", title, failures.size());
+        for(int i = 0; i < Math.min(failures.size(), MAX_LISTED_FAILURES); i++) {
+            System.out.println("    " + failures.get(i));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.media.AudioManager;
+
+import java.util.Arrays;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+
+/**
+ * An {@link AudioSink} that answers the way the audio system did in a recorded trace:
+ * every answer is the last one recorded for the same question at or before the current
+ * virtual time. The volume of a stream is the one set during the replay, unless a newer
+ * volume was recorded for it. Not thread-safe.
+ */
+public class ReplayAudioSink implements AudioSink {
+
+    /**
+     * The number of stream types.
+     */
+    private static final int STREAM_TYPES = 11;
+
+    /**
+     * The maximum volume of the music stream, if none was recorded.
+     */
+    private static final int DEFAULT_MAX_MUSIC_VOLUME = 15;
+
+    /**
+     * The maximum volume of all other streams, if none was recorded.
+     */
+    private static final int DEFAULT_MAX_OTHER_VOLUME = 7;
+
+    /**
+     * The answers recorded for one question, in the order of their virtual time.
+     */
+    private static final class Answers {
+
+        /**
+         * The virtual times of the answers.
+         */
+        private long[] times = new long[16];
+
+        /**
+         * The answers.
+         */
+        private int[] values = new int[16];
+
+        /**
+         * The number of answers.
+         */
+        private int count;
+
+        /**
+         * Adds an answer that was recorded after all others.
+         */
+        void add(long time, int value) {
+            if(count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = time;
+            values[count] = value;
+            count++;
+        }
+
+        /**
+         * Returns the index of the last answer at or before the given time, or '-1'.
+         */
+        int indexAt(long time) {
+            int index = Arrays.binarySearch(times, 0, count, time);
+            if(index < 0) {
+                return -index - 2;
+            }
+
+            // Take the last of several answers at the same time
+            while(index + 1 < count && times[index + 1] == time) {
+                index++;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The {@link Scheduler} providing the virtual time.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * The recorded volumes of each stream type.
+     */
+    private final Answers[] volumes = new Answers[STREAM_TYPES];
+
+    /**
+     * The recorded maximum volumes of each stream type.
+     */
+    private final Answers[] maxVolumes = new Answers[STREAM_TYPES];
+
+    /**
+     * The recorded answers if music is active.
+     */
+    private final Answers musicActive = new Answers();
+
+    /**
+     * The recorded answers if A2DP audio is on.
+     */
+    private final Answers bluetoothA2dpOn = new Answers();
+
+    /**
+     * The volume last set during the replay for each stream type.
+     */
+    private final int[] setVolumes = new int[STREAM_TYPES];
+
+    /**
+     * The virtual time each stream type was last set during the replay, or '-1'.
+     */
+    private final long[] setTimes = new long[STREAM_TYPES];
+
+    /**
+     * The number of volume changes during the replay.
+     */
+    private int volumeChanges;
+
+    /**
+     * Creates a new {@link ReplayAudioSink} without any recorded answers.
+     * @param scheduler The {@link Scheduler} providing the virtual time
+     */
+    public ReplayAudioSink(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        for(int stream = 0; stream < STREAM_TYPES; stream++) {
+            volumes[stream] = new Answers();
+            maxVolumes[stream] = new Answers();
+        }
+        Arrays.fill(setTimes, -1L);
+    }
+
+    /**
+     * Adds a recorded {@link TraceRecorder#EVENT_AUDIO} event. Must be called in the
+     * order of the virtual times.
+     * @param time The virtual time of the event
+     * @param operation The operation, one of the AUDIO_ constants of {@link TraceRecorder}
+     * @param streamType The stream type, or '-1'
+     * @param value The value that was returned or set
+     */
+    public void addRecorded(long time, int operation, int streamType, int value) {
+        switch(operation) {
+            case TraceRecorder.AUDIO_GET_VOLUME:
+            case TraceRecorder.AUDIO_SET_VOLUME:
+                if(isStreamType(streamType)) {
+                    volumes[streamType].add(time, value);
+                }
+                break;
+            case TraceRecorder.AUDIO_GET_MAX_VOLUME:
+                if(isStreamType(streamType)) {
+                    maxVolumes[streamType].add(time, value);
+                }
+                break;
+            case TraceRecorder.AUDIO_MUSIC_ACTIVE:
+                musicActive.add(time, value);
+                break;
+            case TraceRecorder.AUDIO_A2DP_ON:
+                bluetoothA2dpOn.add(time, value);
+                break;
+        }
+    }
+
+    @Override
+    public int getStreamVolume(int streamType) {
+        long now = scheduler.uptimeMillis();
+        Answers answers = volumes[streamType];
+        int index = answers.indexAt(now);
+        if(index >= 0 && answers.times[index] > setTimes[streamType]) {
+            return answers.values[index];
+        }
+        return setTimes[streamType] != -1 ? setVolumes[streamType] : 0;
+    }
+
+    @Override
+    public int getStreamMaxVolume(int streamType) {
+        Answers answers = maxVolumes[streamType];
+        if(answers.count > 0) {
+            return answers.values[Math.max(0, answers.indexAt(scheduler.uptimeMillis()))];
+        }
+        return streamType == AudioManager.STREAM_MUSIC ? DEFAULT_MAX_MUSIC_VOLUME : DEFAULT_MAX_OTHER_VOLUME;
+    }
+
+    @Override
+    public void setStreamVolume(int streamType, int index, int flags) {
+        setVolumes[streamType] = index;
+        setTimes[streamType] = scheduler.uptimeMillis();
+        volumeChanges++;
+    }
+
+    @Override
+    public boolean isMusicActive() {
+        return answerAt(musicActive);
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        return answerAt(bluetoothA2dpOn);
+    }
+
+    /**
+     * Returns the number of volume changes during the replay.
+     * @return The number of changes
+     */
+    public int getVolumeChanges() {
+        return volumeChanges;
+    }
+
+    /**
+     * Returns the last recorded yes/no answer at the current virtual time.
+     * @param answers The recorded answers
+     * @return The answer, 'false' if there is none yet
+     */
+    private boolean answerAt(Answers answers) {
+        int index = answers.indexAt(scheduler.uptimeMillis());
+        return index >= 0 && answers.values[index] != 0;
+    }
+
+    /**
+     * Returns if a stream type can be replayed.
+     */
+    private static boolean isStreamType(int streamType) {
+        return streamType >= 0 && streamType < STREAM_TYPES;
+    }
+}
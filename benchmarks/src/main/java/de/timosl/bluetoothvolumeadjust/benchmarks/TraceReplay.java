@@ -0,0 +1,486 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import android.bluetooth.BluetoothProfile;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.preference.PreferenceManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import de.timosl.bluetoothvolumeadjust.platform.Platform;
+import de.timosl.bluetoothvolumeadjust.platform.PlaybackStarter;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+import de.timosl.bluetoothvolumeadjust.receivers.AdjustmentExecutor;
+import de.timosl.bluetoothvolumeadjust.receivers.AdjustmentJob;
+import de.timosl.bluetoothvolumeadjust.util.DeviceManagment;
+import de.timosl.bluetoothvolumeadjust.util.LatencyHistogram;
+import de.timosl.bluetoothvolumeadjust.util.Preferences;
+import de.timosl.bluetoothvolumeadjust.util.TraceRecorder;
+import de.timosl.bluetoothvolumeadjust.util.VolumeCurve;
+
+/**
+ * Replays a trace recorded on a device through the receiver logic on virtual time, to
+ * reproduce timing issues reported by users and to compare fixes against real traces.
+ * <p>
+ * The {@link TraceRecorder#EVENT_BROADCAST} events are handed to the
+ * {@link AdjustmentExecutor} at their original times, divided by the speed. The audio
+ * system answers as recorded in the {@link TraceRecorder#EVENT_AUDIO} events (see
+ * {@link ReplayAudioSink}). The devices are managed with the volumes that were set for
+ * them in the trace. The replay records a trace of its own, and the jobs, latencies and
+ * volumes of both traces are compared in the report.
+ * <p>
+ * The trace can be the binary trace file of a device or the trace at the end of a problem
+ * report, gzipped or not. If the device was rebooted during the trace, only the part
+ * after the last reboot is replayed. Run it with
+ * {@code ./gradlew :benchmarks:replay -PreplayArgs="<trace> <speed>"}.
+ */
+public class TraceReplay {
+
+    /**
+     * The time in milliseconds the jobs may take after the last broadcast.
+     */
+    private static final long MAX_SETTLE_TIME = 60000L;
+
+    /**
+     * The time in milliseconds until the silence starts playing.
+     */
+    private static final long SILENCE_START_LATENCY = 50L;
+
+    /**
+     * The time in milliseconds between two progress notifications of the silence.
+     */
+    private static final long SILENCE_PROGRESS_INTERVAL = 93L;
+
+    /**
+     * The number of differing volumes that are listed in the report.
+     */
+    private static final int MAX_LISTED_DIFFERENCES = 10;
+
+    /**
+     * A {@link PlaybackStarter} whose playback starts after {@link #SILENCE_START_LATENCY}
+     * and then reports its progress every {@link #SILENCE_PROGRESS_INTERVAL}. If music
+     * becomes active is up to the recorded answers of the {@link ReplayAudioSink}.
+     */
+    private static final class SilenceStarter implements PlaybackStarter {
+
+        /**
+         * The {@link Scheduler} the listener is notified on.
+         */
+        private final Scheduler scheduler;
+
+        /**
+         * The {@link Listener} of the current playback, or 'null'.
+         */
+        private Listener listener;
+
+        /**
+         * Notifies the listener once the playback has started.
+         */
+        private final Runnable startedTask = new Runnable() {
+            @Override
+            public void run() {
+                if(listener != null) {
+                    scheduler.postDelayed(progressTask, SILENCE_PROGRESS_INTERVAL);
+                    listener.onPlaybackStarted();
+                }
+            }
+        };
+
+        /**
+         * Notifies the listener while the playback is running.
+         */
+        private final Runnable progressTask = new Runnable() {
+            @Override
+            public void run() {
+                if(listener != null) {
+                    scheduler.postDelayed(this, SILENCE_PROGRESS_INTERVAL);
+                    listener.onPlaybackProgress();
+                }
+            }
+        };
+
+        SilenceStarter(Scheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public boolean prime() {
+            return true;
+        }
+
+        @Override
+        public boolean start(Listener listener) {
+            this.listener = listener;
+            scheduler.removeCallbacks(startedTask);
+            scheduler.removeCallbacks(progressTask);
+            scheduler.postDelayed(startedTask, SILENCE_START_LATENCY);
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+            scheduler.removeCallbacks(startedTask);
+            scheduler.removeCallbacks(progressTask);
+        }
+    }
+
+    /**
+     * What the jobs of a trace did.
+     */
+    private static final class Summary {
+
+        /**
+         * The number of jobs for a CONNECTED state that were run.
+         */
+        int connectedJobs;
+
+        /**
+         * The number of jobs for a DISCONNECTED state that were run.
+         */
+        int disconnectedJobs;
+
+        /**
+         * The number of times no music was detected in time.
+         */
+        int musicTimeouts;
+
+        /**
+         * The time from receiving the broadcast until the job was done, for the CONNECTED jobs.
+         */
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The volumes that were reached, in order, as 'address=volume'.
+         */
+        final List<String> volumes = new ArrayList<>();
+
+        /**
+         * Adds up the events of a trace.
+         * @param trace The {@link TraceRecorder.Trace}
+         * @param from The index of the first record
+         */
+        Summary(TraceRecorder.Trace trace, int from) {
+            for(int i = from; i < trace.size(); i++) {
+                switch(trace.types[i]) {
+                    case TraceRecorder.EVENT_JOB_FINISHED:
+                        if(trace.getPayload(i, 0) == BluetoothProfile.STATE_CONNECTED) {
+                            connectedJobs++;
+                            latencies.record(trace.getPayload(i, 1));
+                        } else if(trace.getPayload(i, 0) == BluetoothProfile.STATE_DISCONNECTED) {
+                            disconnectedJobs++;
+                        }
+                        break;
+                    case TraceRecorder.EVENT_MUSIC_TIMEOUT:
+                        musicTimeouts++;
+                        break;
+                    case TraceRecorder.EVENT_VOLUME_REACHED:
+                        volumes.add(formatAddress(trace.addresses[i]) + "=" + trace.getPayload(i, 0));
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@link InMemoryContext} the preferences and the replayed trace are stored in.
+     */
+    private final InMemoryContext context = new InMemoryContext();
+
+    /**
+     * The {@link VirtualScheduler} all jobs run on.
+     */
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+
+    /**
+     * The {@link ReplayAudioSink} answering as recorded.
+     */
+    private final ReplayAudioSink audioSink = new ReplayAudioSink(scheduler);
+
+    /**
+     * The {@link AdjustmentExecutor} the broadcasts are replayed through.
+     */
+    private final AdjustmentExecutor executor;
+
+    /**
+     * The recorded trace.
+     */
+    private final TraceRecorder.Trace trace;
+
+    /**
+     * The index of the first record that is replayed.
+     */
+    private final int first;
+
+    /**
+     * The speed the trace is replayed at.
+     */
+    private final double speed;
+
+    /**
+     * The monotonic time in nanoseconds of the first replayed broadcast.
+     */
+    private long start = -1;
+
+    /**
+     * The virtual time of the last replayed broadcast.
+     */
+    private long lastBroadcast;
+
+    /**
+     * The number of broadcasts that were replayed.
+     */
+    private int broadcasts;
+
+    /**
+     * The number of broadcasts whose job has not finished yet.
+     */
+    private int pendingBroadcasts;
+
+    /**
+     * Finishes a replayed broadcast.
+     */
+    private final Runnable broadcastFinished = new Runnable() {
+        @Override
+        public void run() {
+            pendingBroadcasts--;
+        }
+    };
+
+    /**
+     * Creates a new {@link TraceReplay}.
+     * @param trace The recorded {@link TraceRecorder.Trace}
+     * @param speed The speed the trace is replayed at, '1.0' for the original speed
+     */
+    private TraceReplay(TraceRecorder.Trace trace, double speed) {
+        this.trace = trace;
+        this.speed = speed;
+        this.executor = new AdjustmentExecutor(context, new Platform(audioSink, new SilenceStarter(scheduler),
+                new InMemoryDeviceRegistry(), scheduler));
+
+        // The monotonic clock starts over when the device is rebooted
+        int segmentStart = 0;
+        for(int i = 1; i < trace.size(); i++) {
+            if(trace.timestamps[i] < trace.timestamps[i - 1]) {
+                segmentStart = i;
+            }
+        }
+        first = segmentStart;
+        for(int i = first; i < trace.size() && start == -1; i++) {
+            if(trace.types[i] == TraceRecorder.EVENT_BROADCAST) {
+                start = trace.timestamps[i];
+            }
+        }
+    }
+
+    /**
+     * Runs the replay.
+     * @param args The trace file and the speed, which is optional
+     * @throws IOException If the trace could not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: TraceReplay <trace> [speed]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        if(speed <= 0.0) {
+            throw new IllegalArgumentException("The speed has to be positive (Found: " + speed + ")");
+        }
+
+        TraceReplay replay = new TraceReplay(read(new File(args[0])), speed);
+        if(replay.start == -1) {
+            System.err.println("The trace does not contain any broadcasts. Was it recorded by an older version?");
+            System.exit(2);
+        }
+
+        long begin = System.nanoTime();
+        replay.run();
+        long elapsed = System.nanoTime() - begin;
+        replay.report(elapsed);
+        System.exit(0);
+    }
+
+    /**
+     * Reads a trace, either a binary trace file or a rendered trace.
+     * @param file The file holding the trace
+     * @return The {@link TraceRecorder.Trace}
+     * @throws IOException If the file could not be read
+     */
+    private static TraceRecorder.Trace read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            // A problem report is gzipped
+            in.mark(2);
+            boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            if(gzipped) {
+                return TraceRecorder.parse(new BufferedReader(new InputStreamReader(new GZIPInputStream(in), "UTF-8")));
+            }
+
+            try {
+                return TraceRecorder.load(file);
+            } catch (IOException e) {
+                return TraceRecorder.parse(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Sets up the devices and preferences as found in the trace and replays all
+     * broadcasts until their jobs are done.
+     */
+    private void run() {
+        // Find out which devices were managed with which volume, and the settings that
+        // can be told from the trace. The rest keeps its default
+        Map<Long, Integer> jobStates = new HashMap<>();
+        Map<Long, Integer> targetVolumes = new HashMap<>();
+        boolean resetOnDisconnect = false;
+        int rampDuration = Preferences.DEFAULT_RAMP_DURATION;
+        boolean rampDurationFound = false;
+        for(int i = first; i < trace.size(); i++) {
+            long address = trace.addresses[i];
+            switch(trace.types[i]) {
+                case TraceRecorder.EVENT_AUDIO:
+                    audioSink.addRecorded(toVirtualTime(trace.timestamps[i]), trace.getPayload(i, 0), trace.getPayload(i, 1), trace.getPayload(i, 2));
+                    break;
+                case TraceRecorder.EVENT_JOB_STARTED:
+                    jobStates.put(address, trace.getPayload(i, 0));
+                    break;
+                case TraceRecorder.EVENT_VOLUME_SET:
+                    Integer jobState = jobStates.get(address);
+                    if(jobState != null && jobState == BluetoothProfile.STATE_CONNECTED && !targetVolumes.containsKey(address)) {
+                        targetVolumes.put(address, trace.getPayload(i, 0));
+                    }
+                    if(jobState != null && jobState == BluetoothProfile.STATE_DISCONNECTED) {
+                        resetOnDisconnect = true;
+                    }
+                    if(!rampDurationFound) {
+                        rampDuration = trace.getPayload(i, 1);
+                        rampDurationFound = true;
+                    }
+                    break;
+            }
+        }
+
+        // Must be set before the preferences are loaded for the first time
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        preferences.edit()
+                .putBoolean(Preferences.KEY_RESET_VOLUME_ON_DISCONNECT, resetOnDisconnect)
+                .putBoolean(Preferences.KEY_LEARN_VOLUME, false)
+                .putString(Preferences.KEY_RAMP_DURATION, String.valueOf(rampDuration))
+                .commit();
+        VolumeCurve curve = new VolumeCurve(Preferences.getVolumeCurve(context), audioSink.getStreamMaxVolume(AudioManager.STREAM_MUSIC));
+        for(Map.Entry<Long, Integer> entry: targetVolumes.entrySet()) {
+            DeviceManagment.addDevice(context, formatAddress(entry.getKey()), curve.getFraction(entry.getValue()));
+        }
+
+        // Record the replay, so it can be compared with the original
+        TraceRecorder.init(context);
+
+        for(int i = first; i < trace.size(); i++) {
+            if(trace.types[i] != TraceRecorder.EVENT_BROADCAST) {
+                continue;
+            }
+            lastBroadcast = toVirtualTime(trace.timestamps[i]);
+            scheduler.runUntil(lastBroadcast);
+            broadcasts++;
+            int state = trace.getPayload(i, 0);
+            if(AdjustmentJob.isHandledState(state)) {
+                pendingBroadcasts++;
+                AdjustmentJob job = new AdjustmentJob(executor, formatAddress(trace.addresses[i]), state, broadcastFinished);
+                executor.submit(job, Preferences.getSettleWindow(context));
+            }
+        }
+        scheduler.runUntil(lastBroadcast + MAX_SETTLE_TIME);
+    }
+
+    /**
+     * Prints the report comparing the recorded trace with the replayed one.
+     * @param elapsedNanos The real time the replay took in nanoseconds
+     */
+    private void report(long elapsedNanos) {
+        Summary recorded = new Summary(trace, first);
+        Summary replayed = new Summary(TraceRecorder.snapshot(), 0);
+
+        System.out.printf(Locale.US, "Trace:       %d records, %d skipped from before a reboot%n", trace.size() - first, first);
+        System.out.printf(Locale.US, "Replayed:    %d broadcasts over %.1fs at %.2fx speed in %.0fms%n",
+                broadcasts, lastBroadcast / 1000.0, speed, elapsedNanos / 1e6);
+        System.out.printf(Locale.US, "Unfinished:  %d broadcasts%n", pendingBroadcasts);
+        System.out.printf(Locale.US, "%-28s %10s %10s%n", "", "recorded", "replayed");
+        printRow("CONNECTED jobs", recorded.connectedJobs, replayed.connectedJobs);
+        printRow("DISCONNECTED jobs", recorded.disconnectedJobs, replayed.disconnectedJobs);
+        printRow("Music timeouts", recorded.musicTimeouts, replayed.musicTimeouts);
+        printRow("CONNECTED latency p50 (ms)", recorded.latencies.getPercentile(50), replayed.latencies.getPercentile(50));
+        printRow("CONNECTED latency p90 (ms)", recorded.latencies.getPercentile(90), replayed.latencies.getPercentile(90));
+        printRow("CONNECTED latency p99 (ms)", recorded.latencies.getPercentile(99), replayed.latencies.getPercentile(99));
+        printRow("Volumes reached", recorded.volumes.size(), replayed.volumes.size());
+        printRow("Volume changes", -1, audioSink.getVolumeChanges());
+
+        // List where the volumes reached differ
+        int differences = 0;
+        int count = Math.max(recorded.volumes.size(), replayed.volumes.size());
+        for(int i = 0; i < count; i++) {
+            String recordedVolume = i < recorded.volumes.size() ? recorded.volumes.get(i) : "-";
+            String replayedVolume = i < replayed.volumes.size() ? replayed.volumes.get(i) : "-";
+            if(!recordedVolume.equals(replayedVolume)) {
+                if(differences < MAX_LISTED_DIFFERENCES) {
+                    System.out.printf(Locale.US, "    #%d: recorded %s, replayed %s%n", i, recordedVolume, replayedVolume);
+                }
+                differences++;
+            }
+        }
+        System.out.printf(Locale.US, "Differing volumes: %d%n", differences);
+    }
+
+    /**
+     * Prints a row of the comparison.
+     * @param title The title of the row
+     * @param recorded The recorded value, or '-1' if it is not known
+     * @param replayed The replayed value, or '-1' if it is not known
+     */
+    private static void printRow(String title, long recorded, long replayed) {
+        System.out.printf(Locale.US, "%-28s %10s %10s%n", title,
+                recorded != -1 ? String.valueOf(recorded) : "-",
+                replayed != -1 ? String.valueOf(replayed) : "-");
+    }
+
+    /**
+     * Converts a time of the trace to the virtual time of the replay.
+     * @param timestamp The time on the monotonic clock of the device in nanoseconds
+     * @return The virtual time in milliseconds, '0' for times before the first broadcast
+     */
+    private long toVirtualTime(long timestamp) {
+        return Math.max(0L, Math.round((timestamp - start) / 1e6 / speed));
+    }
+
+    /**
+     * Formats a MAC-Address stored as a long in the format 'AA:BB:CC:DD:EE:FF'.
+     * @param address The MAC-Address as a long
+     * @return The formatted MAC-Address
+     */
+    private static String formatAddress(long address) {
+        StringBuilder builder = new StringBuilder(17);
+        for(int shift = 40; shift >= 0; shift -= 8) {
+            builder.append(String.format(Locale.US, "%02X", (address >> shift) & 0xFF));
+            if(shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString();
+    }
+}
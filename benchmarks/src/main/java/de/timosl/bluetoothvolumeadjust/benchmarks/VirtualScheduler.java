@@ -0,0 +1,189 @@
+package de.timosl.bluetoothvolumeadjust.benchmarks;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+/**
+ * A {@link Scheduler} running on virtual time, for the simulator. Nothing happens on its own:
+ * the tasks are run one after another by {@link #runUntil(long)} or {@link #runUntilIdle(long)},
+ * and the clock jumps to the time of each task as it is run. Frames begin every
+ * {@link #FRAME_INTERVAL} milliseconds. Not thread-safe.
+ */
+public class VirtualScheduler implements Scheduler {
+
+    /**
+     * The time between two display frames in milliseconds.
+     */
+    static final long FRAME_INTERVAL = 16L;
+
+    /**
+     * A pending task.
+     */
+    private static final class Task implements Comparable<Task> {
+
+        /**
+         * The time the task is due.
+         */
+        final long time;
+
+        /**
+         * The order in which the tasks were posted, for tasks due at the same time.
+         */
+        final long order;
+
+        /**
+         * The task to run.
+         */
+        final Runnable runnable;
+
+        /**
+         * The token the task was posted with, or 'null'.
+         */
+        final Object token;
+
+        /**
+         * Set if the task waits for the next frame.
+         */
+        final boolean frame;
+
+        Task(long time, long order, Runnable runnable, Object token, boolean frame) {
+            this.time = time;
+            this.order = order;
+            this.runnable = runnable;
+            this.token = token;
+            this.frame = frame;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if(time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * The pending tasks, ordered by the time they are due.
+     */
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+
+    /**
+     * The current virtual time.
+     */
+    private long now;
+
+    /**
+     * The number of tasks posted so far.
+     */
+    private long posted;
+
+    /**
+     * The number of tasks run so far.
+     */
+    private long executed;
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postAtTime(task, null, now);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        postAtTime(task, null, now + Math.max(0L, delayMillis));
+    }
+
+    @Override
+    public void postAtTime(Runnable task, Object token, long uptimeMillis) {
+        tasks.add(new Task(Math.max(now, uptimeMillis), posted++, task, token, false));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        remove(task, null, false);
+    }
+
+    @Override
+    public void removeCallbacksAndMessages(Object token) {
+        remove(null, token, false);
+    }
+
+    @Override
+    public void postFrameCallback(Runnable task) {
+        long nextFrame = (now / FRAME_INTERVAL + 1) * FRAME_INTERVAL;
+        tasks.add(new Task(nextFrame, posted++, task, null, true));
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable task) {
+        remove(task, null, true);
+    }
+
+    /**
+     * Runs all tasks that are due until the given time, including the ones they post,
+     * and then moves the clock to that time.
+     * @param time The virtual time to run until
+     */
+    public void runUntil(long time) {
+        while(!tasks.isEmpty() && tasks.peek().time <= time) {
+            runNext();
+        }
+        now = Math.max(now, time);
+    }
+
+    /**
+     * Runs tasks until none are left, but not beyond the given time.
+     * @param limit The virtual time after which no more tasks are run
+     * @return Returns 'true' if no tasks are left
+     */
+    public boolean runUntilIdle(long limit) {
+        while(!tasks.isEmpty() && tasks.peek().time <= limit) {
+            runNext();
+        }
+        return tasks.isEmpty();
+    }
+
+    /**
+     * Returns the number of tasks run so far.
+     * @return The number of tasks
+     */
+    public long getExecutedCount() {
+        return executed;
+    }
+
+    /**
+     * Runs the next task and moves the clock to its time.
+     */
+    private void runNext() {
+        Task task = tasks.poll();
+        now = task.time;
+        executed++;
+        task.runnable.run();
+    }
+
+    /**
+     * Removes the pending tasks matching the given task or token.
+     * @param runnable The task to remove, or 'null' to match by token
+     * @param token The token to remove the tasks of, if no task is given
+     * @param frame Set to remove frame callbacks instead of other tasks
+     */
+    private void remove(Runnable runnable, Object token, boolean frame) {
+        Iterator<Task> iterator = tasks.iterator();
+        while(iterator.hasNext()) {
+            Task task = iterator.next();
+            if(task.frame != frame) {
+                continue;
+            }
+            if(runnable != null ? task.runnable == runnable : task.token == token) {
+                iterator.remove();
+            }
+        }
+    }
+}
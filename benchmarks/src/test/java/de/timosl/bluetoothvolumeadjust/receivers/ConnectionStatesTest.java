@@ -0,0 +1,105 @@
+package de.timosl.bluetoothvolumeadjust.receivers;
+
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.Test;
+
+import de.timosl.bluetoothvolumeadjust.receivers.ConnectionStates.Phase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The transitions of the devices through the {@link Phase}s of {@link ConnectionStates}.
+ */
+public class ConnectionStatesTest {
+
+    /**
+     * The first device of the tests.
+     */
+    private static final String FIRST = "AA:BB:CC:DD:EE:FF";
+
+    /**
+     * The second device of the tests.
+     */
+    private static final String SECOND = "00:11:22:33:44:55";
+
+    /**
+     * The states under test.
+     */
+    private final ConnectionStates states = new ConnectionStates();
+
+    @Test
+    public void unseenDeviceIsIdle() {
+        assertEquals(Phase.IDLE, states.getPhase(FIRST));
+        assertFalse(states.isRestoring());
+    }
+
+    @Test
+    public void connectAndAdjust() {
+        assertEquals(Phase.IDLE, states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED));
+        assertEquals(Phase.CONNECTING, states.getPhase(FIRST));
+
+        assertTrue(states.transition(FIRST, Phase.CONNECTING, Phase.ADJUSTING));
+        assertTrue(states.transition(FIRST, Phase.ADJUSTING, Phase.ACTIVE));
+        assertEquals(Phase.ACTIVE, states.getPhase(FIRST));
+        assertEquals(Phase.IDLE, states.getPhase(SECOND));
+    }
+
+    @Test
+    public void connectingStateStartsConnection() {
+        assertEquals(Phase.IDLE, states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTING));
+        assertEquals(Phase.CONNECTING, states.getPhase(FIRST));
+
+        // The following CONNECTED broadcast keeps the device connecting
+        assertEquals(Phase.CONNECTING, states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED));
+        assertEquals(Phase.CONNECTING, states.getPhase(FIRST));
+    }
+
+    @Test
+    public void transitionFromWrongPhaseFails() {
+        states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED);
+        assertFalse(states.transition(FIRST, Phase.ADJUSTING, Phase.ACTIVE));
+        assertEquals(Phase.CONNECTING, states.getPhase(FIRST));
+
+        assertFalse(states.transition(SECOND, Phase.CONNECTING, Phase.ADJUSTING));
+        assertEquals(Phase.IDLE, states.getPhase(SECOND));
+    }
+
+    @Test
+    public void disconnectRestores() {
+        states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED);
+        states.transition(FIRST, Phase.CONNECTING, Phase.ADJUSTING);
+        states.transition(FIRST, Phase.ADJUSTING, Phase.ACTIVE);
+
+        assertEquals(Phase.ACTIVE, states.onBroadcast(FIRST, BluetoothProfile.STATE_DISCONNECTED));
+        assertEquals(Phase.RESTORING, states.getPhase(FIRST));
+        assertTrue(states.isRestoring());
+
+        assertTrue(states.transition(FIRST, Phase.RESTORING, Phase.IDLE));
+        assertFalse(states.isRestoring());
+    }
+
+    @Test
+    public void disconnectOvertakesRunningJob() {
+        states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED);
+        assertTrue(states.transition(FIRST, Phase.CONNECTING, Phase.ADJUSTING));
+
+        // The device disconnects while its job is still setting the volumes
+        assertEquals(Phase.ADJUSTING, states.onBroadcast(FIRST, BluetoothProfile.STATE_DISCONNECTED));
+        assertFalse(states.transition(FIRST, Phase.ADJUSTING, Phase.ACTIVE));
+        assertEquals(Phase.RESTORING, states.getPhase(FIRST));
+    }
+
+    @Test
+    public void reconnectOvertakesRestore() {
+        states.onBroadcast(FIRST, BluetoothProfile.STATE_DISCONNECTED);
+        assertEquals(Phase.RESTORING, states.onBroadcast(FIRST, BluetoothProfile.STATE_CONNECTED));
+
+        // The restoring job must not mark the reconnected device as IDLE
+        assertFalse(states.transition(FIRST, Phase.RESTORING, Phase.IDLE));
+        assertEquals(Phase.CONNECTING, states.getPhase(FIRST));
+        assertFalse(states.isRestoring());
+    }
+}
@@ -0,0 +1,227 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import de.timosl.bluetoothvolumeadjust.benchmarks.InMemorySharedPreferences;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Parsing MAC-Addresses with {@link DeviceProfileStore#parseAddress(String)}, and applying
+ * and persisting the transactions of a {@link DeviceProfileStore}.
+ */
+public class DeviceProfileStoreTest {
+
+    /**
+     * The first device of the tests.
+     */
+    private static final String FIRST = "AA:BB:CC:DD:EE:FF";
+
+    /**
+     * The second device of the tests.
+     */
+    private static final String SECOND = "00:11:22:33:44:55";
+
+    /**
+     * The {@link SharedPreferences} the store is persisted to.
+     */
+    private InMemorySharedPreferences preferences;
+
+    /**
+     * The keys written to the {@link #preferences} since the last {@link #flush()}.
+     */
+    private final Set<String> writtenKeys = new HashSet<>();
+
+    /**
+     * Records the keys written to the {@link #preferences}. Kept in a field, since
+     * the preferences only hold a weak reference to it.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener keyRecorder = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            writtenKeys.add(key);
+        }
+    };
+
+    /**
+     * The store under test.
+     */
+    private DeviceProfileStore store;
+
+    @Before
+    public void setUp() {
+        preferences = new InMemorySharedPreferences();
+        preferences.registerOnSharedPreferenceChangeListener(keyRecorder);
+        store = new DeviceProfileStore(preferences);
+    }
+
+    @Test
+    public void parseAddress() {
+        assertEquals(0xAABBCCDDEEFFL, DeviceProfileStore.parseAddress("AA:BB:CC:DD:EE:FF"));
+        assertEquals(0xAABBCCDDEEFFL, DeviceProfileStore.parseAddress("aa:bb:cc:dd:ee:ff"));
+        assertEquals(0x001122334455L, DeviceProfileStore.parseAddress("00:11:22:33:44:55"));
+        assertEquals(0L, DeviceProfileStore.parseAddress("00:00:00:00:00:00"));
+        assertEquals(0xFFFFFFFFFFFFL, DeviceProfileStore.parseAddress("FF:FF:FF:FF:FF:FF"));
+    }
+
+    @Test
+    public void parseInvalidAddress() {
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress(null));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress(""));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress("AA:BB:CC:DD:EE"));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress("AA:BB:CC:DD:EE:FF:"));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress("AA-BB-CC-DD-EE-FF"));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress("GA:BB:CC:DD:EE:FF"));
+        assertEquals(DeviceProfileStore.INVALID_ADDRESS, DeviceProfileStore.parseAddress("AABB:CC:DD:EE:FF:"));
+    }
+
+    @Test
+    public void commitAppliesAllChanges() {
+        DeviceProfileStore.Transaction transaction = store.edit()
+                .putDevice(FIRST, 0.5f)
+                .putDevice(SECOND, 0.25f);
+
+        // Nothing is visible before the commit
+        assertEquals(Collections.<String>emptySet(), store.getDevices());
+        assertNull(store.getProfile(FIRST));
+
+        transaction.commit();
+        assertEquals(new HashSet<>(Arrays.asList(FIRST, SECOND)), store.getDevices());
+        assertEquals(0.5f, store.getVolume(FIRST), 0f);
+        assertEquals(0.25f, store.getVolume(SECOND), 0f);
+    }
+
+    @Test
+    public void putDeviceKeepsOtherStreams() {
+        store.edit().putDevice(FIRST, VolumeProfile.ofMusic(0.5f).withVolume(VolumeProfile.STREAM_RING, 0.75f)).commit();
+        store.edit().putDevice(FIRST, 0.25f).commit();
+
+        VolumeProfile profile = store.getProfile(FIRST);
+        assertEquals(0.25f, profile.getVolume(VolumeProfile.STREAM_MUSIC), 0f);
+        assertEquals(0.75f, profile.getVolume(VolumeProfile.STREAM_RING), 0f);
+    }
+
+    @Test
+    public void removeDevice() {
+        store.edit().putDevice(FIRST, 0.5f).putDevice(SECOND, 0.25f).commit();
+        store.edit().removeDevice(FIRST).commit();
+
+        assertEquals(Collections.singleton(SECOND), store.getDevices());
+        assertNull(store.getProfile(FIRST));
+        assertEquals(-1f, store.getVolume(FIRST), 0f);
+        assertEquals(0.25f, store.getVolume(SECOND), 0f);
+    }
+
+    @Test
+    public void concurrentCommitsAreAllApplied() throws InterruptedException {
+        // Every thread adds its own devices, so a lost update shows as a missing device
+        final int threadCount = 8;
+        final int devicesPerThread = 50;
+        Thread[] threads = new Thread[threadCount];
+        for(int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < devicesPerThread; i++) {
+                        store.edit().putDevice(String.format(Locale.US, "00:00:00:00:%02X:%02X", thread, i), 0.5f).commit();
+                    }
+                }
+            });
+        }
+        for(Thread thread: threads) {
+            thread.start();
+        }
+        for(Thread thread: threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * devicesPerThread, store.getDevices().size());
+        assertEquals(0.5f, store.getVolume("00:00:00:00:07:31"), 0f);
+    }
+
+    @Test
+    public void flushWritesChanges() {
+        store.edit().putDevice(FIRST, 0.5f).commit();
+        flush();
+
+        assertEquals(Collections.singleton(FIRST), preferences.getStringSet(DeviceProfileStore.KEY_DEVICES, null));
+        assertEquals("0.5,-1.0,-1.0,-1.0", preferences.getString(DeviceProfileStore.PREFIX_PROFILES + FIRST, null));
+
+        // A new store loads what has been written
+        DeviceProfileStore loaded = new DeviceProfileStore(preferences);
+        assertEquals(VolumeProfile.ofMusic(0.5f), loaded.getProfile(FIRST));
+    }
+
+    @Test
+    public void flushOnlyWritesDifferences() {
+        store.edit().putDevice(FIRST, 0.5f).putDevice(SECOND, 0.25f).commit();
+        flush();
+
+        // Only the changed profile is written, along with dropping its old music volume
+        store.edit().putDevice(SECOND, 0.75f).commit();
+        assertEquals(new HashSet<>(Arrays.asList(
+                DeviceProfileStore.PREFIX_PROFILES + SECOND,
+                DeviceProfileStore.PREFIX_DEVICES + SECOND)), flush());
+
+        // Nothing has changed since
+        assertEquals(Collections.<String>emptySet(), flush());
+    }
+
+    @Test
+    public void flushWritesRemovedDevices() {
+        store.edit().putDevice(FIRST, 0.5f).putDevice(SECOND, 0.25f).commit();
+        flush();
+
+        store.edit().removeDevice(FIRST).commit();
+        assertEquals(new HashSet<>(Arrays.asList(
+                DeviceProfileStore.KEY_DEVICES,
+                DeviceProfileStore.PREFIX_PROFILES + FIRST,
+                DeviceProfileStore.PREFIX_DEVICES + FIRST)), flush());
+        assertFalse(preferences.contains(DeviceProfileStore.PREFIX_PROFILES + FIRST));
+    }
+
+    @Test
+    public void flushWritesRestoreStack() {
+        store.edit().setRestoreStack(RestoreStack.EMPTY.withSpeakerVolume(7).push(FIRST, 5)).commit();
+        assertEquals(new HashSet<>(Arrays.asList(
+                Preferences.KEY_RESTORE_STACK,
+                Preferences.KEY_LAST_MEDIA_VOLUME)), flush());
+        assertEquals("7;AA:BB:CC:DD:EE:FF=5", preferences.getString(Preferences.KEY_RESTORE_STACK, null));
+    }
+
+    @Test
+    public void loadOlderVersions() {
+        // Older versions stored a music volume per device and a single volume to restore
+        preferences.edit()
+                .putStringSet(DeviceProfileStore.KEY_DEVICES, Collections.singleton(FIRST))
+                .putFloat(DeviceProfileStore.PREFIX_DEVICES + FIRST, 0.4f)
+                .putInt(Preferences.KEY_LAST_MEDIA_VOLUME, 9)
+                .commit();
+
+        DeviceProfileStore loaded = new DeviceProfileStore(preferences);
+        assertEquals(VolumeProfile.ofMusic(0.4f), loaded.getProfile(FIRST));
+        assertEquals(RestoreStack.EMPTY.withSpeakerVolume(9), loaded.getRestoreStack());
+    }
+
+    /**
+     * Writes the pending changes of the {@link #store}.
+     * @return The keys that were written
+     */
+    private Set<String> flush() {
+        writtenKeys.clear();
+        store.flush();
+        return new HashSet<>(writtenKeys);
+    }
+}
@@ -0,0 +1,91 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The buckets of a {@link LatencyHistogram} and the percentiles computed from them.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallDurationsHaveABucketEach() {
+        for(int millis = 0; millis < 16; millis++) {
+            assertEquals(millis, LatencyHistogram.bucketOf(millis));
+            assertEquals(millis, LatencyHistogram.upperBoundOf(millis));
+        }
+    }
+
+    @Test
+    public void largerDurationsShareBuckets() {
+        // 16 to 31 milliseconds are split into 8 buckets of 2
+        assertEquals(16, LatencyHistogram.bucketOf(16));
+        assertEquals(16, LatencyHistogram.bucketOf(17));
+        assertEquals(17, LatencyHistogram.bucketOf(18));
+
+        // 48 to 51 milliseconds and 96 to 103 milliseconds
+        assertEquals(28, LatencyHistogram.bucketOf(50));
+        assertEquals(51, LatencyHistogram.upperBoundOf(28));
+        assertEquals(36, LatencyHistogram.bucketOf(100));
+        assertEquals(103, LatencyHistogram.upperBoundOf(36));
+    }
+
+    @Test
+    public void outOfRangeDurationsAreClamped() {
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(LatencyHistogram.MAX_VALUE));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(1000000));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void bucketsAreAdjacent() {
+        for(int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upperBound));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(upperBound + 1));
+
+            // The width of a bucket stays within an eighth of its durations
+            long lowerBound = bucket == 0 ? 0 : LatencyHistogram.upperBoundOf(bucket - 1) + 1;
+            assertTrue((upperBound - lowerBound + 1) * 8 <= Math.max(8, lowerBound));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getPercentile(50));
+
+        for(int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(51, histogram.getPercentile(50));
+        assertEquals(103, histogram.getPercentile(99));
+        assertEquals(103, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void clear() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(2000);
+
+        assertEquals(1, copy.getCount());
+        assertEquals(10, copy.getPercentile(100));
+        assertEquals(2, histogram.getCount());
+    }
+}
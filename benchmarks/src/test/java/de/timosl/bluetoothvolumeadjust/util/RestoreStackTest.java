@@ -0,0 +1,95 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encoding, decoding and removing the entries of a {@link RestoreStack}.
+ */
+public class RestoreStackTest {
+
+    /**
+     * The device connected first, at the bottom of the stack.
+     */
+    private static final String BOTTOM = "AA:BB:CC:DD:EE:FF";
+
+    /**
+     * The device connected last, on top of the stack.
+     */
+    private static final String TOP = "00:11:22:33:44:55";
+
+    /**
+     * A stack with a speaker volume and two entries.
+     */
+    private static final RestoreStack STACK = RestoreStack.EMPTY.withSpeakerVolume(7).push(BOTTOM, 5).push(TOP, 12);
+
+    @Test
+    public void encode() {
+        assertEquals("-1;", RestoreStack.EMPTY.encode());
+        assertEquals("7;AA:BB:CC:DD:EE:FF=5,00:11:22:33:44:55=12", STACK.encode());
+    }
+
+    @Test
+    public void decode() {
+        RestoreStack stack = RestoreStack.decode("7;AA:BB:CC:DD:EE:FF=5,00:11:22:33:44:55=12");
+        assertEquals(STACK, stack);
+        assertEquals(2, stack.size());
+        assertEquals(7, stack.getSpeakerVolume());
+        assertEquals(TOP, stack.getTop());
+        assertEquals(5, stack.getVolume(BOTTOM));
+        assertEquals(12, stack.getVolume(TOP));
+    }
+
+    @Test
+    public void decodeEmpty() {
+        RestoreStack stack = RestoreStack.decode("-1;");
+        assertEquals(RestoreStack.EMPTY, stack);
+        assertTrue(stack.isEmpty());
+        assertNull(stack.getTop());
+    }
+
+    @Test
+    public void decodeInvalid() {
+        assertNull(RestoreStack.decode(null));
+        assertNull(RestoreStack.decode("7"));
+        assertNull(RestoreStack.decode("x;"));
+        assertNull(RestoreStack.decode("7;AA:BB:CC:DD:EE:FF"));
+        assertNull(RestoreStack.decode("7;AA:BB:CC:DD:EE:FF="));
+        assertNull(RestoreStack.decode("7;AA:BB:CC:DD:EE:FF=x"));
+    }
+
+    @Test
+    public void pushKeepsExistingEntry() {
+        RestoreStack stack = STACK.push(BOTTOM, 9);
+        assertSame(STACK, stack);
+        assertEquals(5, stack.getVolume(BOTTOM));
+        assertEquals(TOP, stack.getTop());
+    }
+
+    @Test
+    public void withoutTop() {
+        RestoreStack stack = STACK.without(TOP);
+        assertEquals("7;AA:BB:CC:DD:EE:FF=5", stack.encode());
+        assertFalse(stack.contains(TOP));
+        assertEquals(-1, stack.getVolume(TOP));
+    }
+
+    @Test
+    public void withoutBottom() {
+        // The entry above takes over the volume from before the bottom device connected
+        RestoreStack stack = STACK.without(BOTTOM);
+        assertEquals("7;00:11:22:33:44:55=5", stack.encode());
+        assertEquals(5, stack.getVolume(TOP));
+    }
+
+    @Test
+    public void withoutUnknown() {
+        assertSame(STACK, STACK.without("12:34:56:78:9A:BC"));
+        assertEquals(RestoreStack.EMPTY, STACK.without(TOP).without(BOTTOM).withSpeakerVolume(-1));
+    }
+}
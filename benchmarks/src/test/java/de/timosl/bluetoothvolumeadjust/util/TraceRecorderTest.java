@@ -0,0 +1,137 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recording events with the {@link TraceRecorder} and reading them back from the
+ * rendered text, as done when replaying a problem report.
+ */
+public class TraceRecorderTest {
+
+    /**
+     * The MAC-Address of the device in the recorded events.
+     */
+    private static final long ADDRESS = 0xAABBCCDDEEFFL;
+
+    /**
+     * The trace file the events are recorded into.
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("trace", ".bin");
+        TraceRecorder.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        TraceRecorder.close();
+        file.delete();
+    }
+
+    @Test
+    public void parse() throws IOException {
+        String text = "Some line of the log before the trace\n"
+                + "Trace of 3 events. The monotonic clock was at 9.000s on today\n"
+                + "[    1.500000] BROADCAST       AA:BB:CC:DD:EE:FF 2 0 0\n"
+                + "[    2.000250] AUDIO           - 3 0 -7\n"
+                + "[   12.000001] NOT_AN_EVENT    00:11:22:33:44:55 1 2 3\n";
+        TraceRecorder.Trace trace = TraceRecorder.parse(new BufferedReader(new StringReader(text)));
+
+        assertEquals(3, trace.size());
+        assertEquals(1500000000L, trace.timestamps[0]);
+        assertEquals(TraceRecorder.EVENT_BROADCAST, trace.types[0]);
+        assertEquals(ADDRESS, trace.addresses[0]);
+        assertEquals(2, trace.getPayload(0, 0));
+
+        assertEquals(2000250000L, trace.timestamps[1]);
+        assertEquals(TraceRecorder.EVENT_AUDIO, trace.types[1]);
+        assertEquals(-1L, trace.addresses[1]);
+        assertEquals(3, trace.getPayload(1, 0));
+        assertEquals(-7, trace.getPayload(1, 2));
+
+        // Unknown event names are kept as type '0'
+        assertEquals(12000001000L, trace.timestamps[2]);
+        assertEquals(0, trace.types[2]);
+        assertEquals(0x001122334455L, trace.addresses[2]);
+        assertEquals(3, trace.getPayload(2, 2));
+    }
+
+    @Test
+    public void decodeAndParse() throws IOException {
+        TraceRecorder.record(TraceRecorder.EVENT_BROADCAST, ADDRESS, 2, 0, 0);
+        TraceRecorder.record(TraceRecorder.EVENT_AUDIO, -1L, TraceRecorder.AUDIO_SET_VOLUME, 3, 11);
+        TraceRecorder.record(TraceRecorder.EVENT_VOLUME_SET, ADDRESS, 11);
+        TraceRecorder.Trace recorded = TraceRecorder.snapshot();
+
+        StringWriter out = new StringWriter();
+        TraceRecorder.decode(out);
+        TraceRecorder.Trace parsed = TraceRecorder.parse(new BufferedReader(new StringReader(out.toString())));
+
+        assertEquals(3, parsed.size());
+        assertEquals(TraceRecorder.EVENT_BROADCAST, parsed.types[0]);
+        assertEquals(TraceRecorder.EVENT_AUDIO, parsed.types[1]);
+        assertEquals(TraceRecorder.EVENT_VOLUME_SET, parsed.types[2]);
+        assertEquals(ADDRESS, parsed.addresses[0]);
+        assertEquals(-1L, parsed.addresses[1]);
+        assertEquals(ADDRESS, parsed.addresses[2]);
+        assertEquals(TraceRecorder.AUDIO_SET_VOLUME, parsed.getPayload(1, 0));
+        assertEquals(3, parsed.getPayload(1, 1));
+        assertEquals(11, parsed.getPayload(1, 2));
+        assertEquals(11, parsed.getPayload(2, 0));
+        assertEquals(0, parsed.getPayload(2, 1));
+
+        // The rendered times are rounded to the microsecond
+        for(int i = 0; i < parsed.size(); i++) {
+            assertEquals(recorded.timestamps[i], parsed.timestamps[i], 500.0);
+        }
+    }
+
+    @Test
+    public void formatAddress() {
+        assertEquals("AA:BB:CC:DD:EE:FF", TraceRecorder.formatAddress(ADDRESS));
+        assertEquals("00:11:22:33:44:55", TraceRecorder.formatAddress(0x001122334455L));
+        assertEquals("-", TraceRecorder.formatAddress(DeviceProfileStore.INVALID_ADDRESS));
+        assertEquals(ADDRESS, DeviceProfileStore.parseAddress(TraceRecorder.formatAddress(ADDRESS)));
+    }
+
+    @Test
+    public void clear() {
+        TraceRecorder.record(TraceRecorder.EVENT_JOB_STARTED, ADDRESS, 0);
+        TraceRecorder.clear();
+        assertEquals(0, TraceRecorder.snapshot().size());
+    }
+
+    @Test
+    public void close() {
+        TraceRecorder.record(TraceRecorder.EVENT_JOB_STARTED, ADDRESS, 0);
+        TraceRecorder.close();
+
+        assertFalse(TraceRecorder.isEnabled());
+        assertFalse(file.exists());
+        assertNull(TraceRecorder.snapshot());
+
+        // Recording after closing is a no-op
+        TraceRecorder.record(TraceRecorder.EVENT_JOB_FINISHED, ADDRESS, 0);
+        assertNull(TraceRecorder.snapshot());
+
+        // Opening again starts a new trace
+        TraceRecorder.open(file);
+        assertTrue(TraceRecorder.isEnabled());
+        assertEquals(0, TraceRecorder.snapshot().size());
+    }
+}
@@ -0,0 +1,69 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Mapping fractions to indices and back with a {@link VolumeCurve}.
+ */
+public class VolumeCurveTest {
+
+    /**
+     * The maximum music volume index of most devices.
+     */
+    private static final int MAX_INDEX = 15;
+
+    @Test
+    public void linearIndex() {
+        VolumeCurve curve = new VolumeCurve(VolumeCurve.Shape.LINEAR, MAX_INDEX);
+        assertEquals(0, curve.getIndex(0f));
+        assertEquals(4, curve.getIndex(0.25f));
+        assertEquals(8, curve.getIndex(0.5f));
+        assertEquals(15, curve.getIndex(1f));
+    }
+
+    @Test
+    public void logarithmicIndex() {
+        VolumeCurve curve = new VolumeCurve(VolumeCurve.Shape.LOGARITHMIC, MAX_INDEX);
+        assertEquals(0, curve.getIndex(0f));
+        assertEquals(1, curve.getIndex(0.25f));
+        assertEquals(4, curve.getIndex(0.5f));
+        assertEquals(15, curve.getIndex(1f));
+    }
+
+    @Test
+    public void indexOutOfRange() {
+        VolumeCurve curve = new VolumeCurve(VolumeCurve.Shape.LINEAR, MAX_INDEX);
+        assertEquals(0, curve.getIndex(-0.5f));
+        assertEquals(15, curve.getIndex(1.5f));
+        assertEquals(curve.getFraction(0), curve.getFraction(-1), 0f);
+        assertEquals(curve.getFraction(15), curve.getFraction(16), 0f);
+    }
+
+    @Test
+    public void linearFraction() {
+        // The middle of the fractions 0.5 to 0.566 that map to index 8
+        VolumeCurve curve = new VolumeCurve(VolumeCurve.Shape.LINEAR, MAX_INDEX);
+        assertEquals(0.0165f, curve.getFraction(0), 1e-6f);
+        assertEquals(0.533f, curve.getFraction(8), 1e-6f);
+        assertEquals(0.9835f, curve.getFraction(15), 1e-6f);
+    }
+
+    @Test
+    public void roundTrip() {
+        for(VolumeCurve.Shape shape : VolumeCurve.Shape.values()) {
+            VolumeCurve curve = new VolumeCurve(shape, MAX_INDEX);
+            for(int index = 0; index <= MAX_INDEX; index++) {
+                assertEquals(shape + " index " + index, index, curve.getIndex(curve.getFraction(index)));
+            }
+        }
+    }
+
+    @Test
+    public void fromValue() {
+        assertEquals(VolumeCurve.Shape.LINEAR, VolumeCurve.Shape.fromValue("linear"));
+        assertEquals(VolumeCurve.Shape.LOGARITHMIC, VolumeCurve.Shape.fromValue("logarithmic"));
+        assertEquals(VolumeCurve.Shape.LINEAR, VolumeCurve.Shape.fromValue("unknown"));
+    }
+}
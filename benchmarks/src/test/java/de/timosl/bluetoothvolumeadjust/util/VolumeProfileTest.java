@@ -0,0 +1,69 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encoding and decoding a {@link VolumeProfile}, including the values stored by older versions.
+ */
+public class VolumeProfileTest {
+
+    @Test
+    public void encode() {
+        assertEquals("-1.0,-1.0,-1.0,-1.0", VolumeProfile.EMPTY.encode());
+        assertEquals("0.5,-1.0,-1.0,-1.0", VolumeProfile.ofMusic(0.5f).encode());
+        assertEquals("0.5,0.25,-1.0,1.0", VolumeProfile.ofMusic(0.5f)
+                .withVolume(VolumeProfile.STREAM_VOICE_CALL, 0.25f)
+                .withVolume(VolumeProfile.STREAM_NOTIFICATION, 1f).encode());
+    }
+
+    @Test
+    public void decode() {
+        VolumeProfile profile = VolumeProfile.decode("0.5,0.25,-1.0,1.0");
+        assertEquals(0.5f, profile.getVolume(VolumeProfile.STREAM_MUSIC), 0f);
+        assertEquals(0.25f, profile.getVolume(VolumeProfile.STREAM_VOICE_CALL), 0f);
+        assertFalse(profile.isSet(VolumeProfile.STREAM_RING));
+        assertEquals(1f, profile.getVolume(VolumeProfile.STREAM_NOTIFICATION), 0f);
+    }
+
+    @Test
+    public void decodeMusicOnly() {
+        // Older versions only stored the music volume
+        VolumeProfile profile = VolumeProfile.decode("0.75");
+        assertEquals(VolumeProfile.ofMusic(0.75f), profile);
+        assertTrue(profile.isSet(VolumeProfile.STREAM_MUSIC));
+        assertFalse(profile.isSet(VolumeProfile.STREAM_VOICE_CALL));
+        assertFalse(profile.isSet(VolumeProfile.STREAM_RING));
+        assertFalse(profile.isSet(VolumeProfile.STREAM_NOTIFICATION));
+    }
+
+    @Test
+    public void decodeMissingStreams() {
+        VolumeProfile profile = VolumeProfile.decode("0.5,0.25");
+        assertEquals(VolumeProfile.ofMusic(0.5f).withVolume(VolumeProfile.STREAM_VOICE_CALL, 0.25f), profile);
+        assertFalse(profile.isSet(VolumeProfile.STREAM_RING));
+    }
+
+    @Test
+    public void decodeOutOfRange() {
+        assertEquals(VolumeProfile.EMPTY, VolumeProfile.decode("1.5"));
+        assertEquals(VolumeProfile.EMPTY, VolumeProfile.decode("-0.5"));
+    }
+
+    @Test
+    public void decodeInvalid() {
+        assertNull(VolumeProfile.decode(null));
+        assertNull(VolumeProfile.decode(""));
+        assertNull(VolumeProfile.decode("loud"));
+        assertNull(VolumeProfile.decode("0.5,,0.5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withVolumeOutOfRange() {
+        VolumeProfile.EMPTY.withVolume(VolumeProfile.STREAM_MUSIC, 1.5f);
+    }
+}
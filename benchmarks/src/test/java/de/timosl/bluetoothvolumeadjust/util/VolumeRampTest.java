@@ -0,0 +1,318 @@
+package de.timosl.bluetoothvolumeadjust.util;
+
+import android.media.AudioManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.timosl.bluetoothvolumeadjust.platform.AudioSink;
+import de.timosl.bluetoothvolumeadjust.platform.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stepping the volume with a {@link VolumeRamp}, including coalescing the steps
+ * that are overdue when the thread falls behind.
+ */
+public class VolumeRampTest {
+
+    /**
+     * The music volume index when a test starts.
+     */
+    private static final int START_VOLUME = 2;
+
+    /**
+     * The music volume indices set by the ramp, in order.
+     */
+    private final List<Integer> setVolumes = new ArrayList<>();
+
+    /**
+     * The current music volume index.
+     */
+    private int volume;
+
+    /**
+     * The number of times the ramp has finished.
+     */
+    private int finished;
+
+    /**
+     * Records the volumes set by the ramp.
+     */
+    private final AudioSink audioSink = new AudioSink() {
+        @Override
+        public int getStreamVolume(int streamType) {
+            return volume;
+        }
+
+        @Override
+        public int getStreamMaxVolume(int streamType) {
+            return 15;
+        }
+
+        @Override
+        public void setStreamVolume(int streamType, int index, int flags) {
+            assertEquals(AudioManager.STREAM_MUSIC, streamType);
+            volume = index;
+            setVolumes.add(index);
+        }
+
+        @Override
+        public boolean isMusicActive() {
+            return true;
+        }
+
+        @Override
+        public boolean isBluetoothA2dpOn() {
+            return true;
+        }
+    };
+
+    /**
+     * A {@link Scheduler} whose clock is moved by the tests. The ramp only ever has
+     * a single step pending.
+     */
+    private final ManualScheduler scheduler = new ManualScheduler();
+
+    /**
+     * Counts how often the ramp has finished.
+     */
+    private final Runnable onFinished = new Runnable() {
+        @Override
+        public void run() {
+            finished++;
+        }
+    };
+
+    /**
+     * The ramp under test.
+     */
+    private VolumeRamp ramp;
+
+    @Before
+    public void setUp() {
+        volume = START_VOLUME;
+        ramp = new VolumeRamp(audioSink, scheduler);
+    }
+
+    @Test
+    public void linearRampSetsEachIndexOnce() {
+        assertTrue(ramp.start(6, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished));
+        assertEquals(Collections.<Integer>emptyList(), setVolumes);
+
+        scheduler.runUntil(100L);
+        assertEquals(Arrays.asList(3), setVolumes);
+        scheduler.runUntil(250L);
+        assertEquals(Arrays.asList(3, 4), setVolumes);
+        assertEquals(0, finished);
+
+        scheduler.runUntil(400L);
+        assertEquals(Arrays.asList(3, 4, 5, 6), setVolumes);
+        assertEquals(1, finished);
+        assertFalse(scheduler.hasPending());
+    }
+
+    @Test
+    public void rampDown() {
+        volume = 10;
+        assertTrue(ramp.start(7, 300L, VolumeRamp.Curve.LINEAR, 0, onFinished));
+        scheduler.runUntil(300L);
+        assertEquals(Arrays.asList(9, 8, 7), setVolumes);
+        assertEquals(1, finished);
+    }
+
+    @Test
+    public void overdueStepsAreCoalesced() {
+        ramp.start(6, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished);
+
+        // The thread was busy until after the steps at 100, 200 and 300ms were due
+        scheduler.setTime(350L);
+        scheduler.runPending();
+        assertEquals(Arrays.asList(5), setVolumes);
+        assertEquals(0, finished);
+
+        scheduler.runUntil(400L);
+        assertEquals(Arrays.asList(5, 6), setVolumes);
+        assertEquals(1, finished);
+    }
+
+    @Test
+    public void allOverdueStepsFinishAtOnce() {
+        ramp.start(6, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished);
+        scheduler.setTime(1000L);
+        scheduler.runPending();
+        assertEquals(Arrays.asList(6), setVolumes);
+        assertEquals(1, finished);
+    }
+
+    @Test
+    public void shortRampSetsVolumeAtOnce() {
+        // A single step or no duration leaves nothing to fade
+        assertFalse(ramp.start(3, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished));
+        assertFalse(ramp.start(9, 0L, VolumeRamp.Curve.LINEAR, 0, onFinished));
+        assertEquals(Arrays.asList(3, 9), setVolumes);
+        assertEquals(0, finished);
+        assertFalse(scheduler.hasPending());
+    }
+
+    @Test
+    public void cancelKeepsReachedVolume() {
+        ramp.start(6, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished);
+        scheduler.runUntil(200L);
+        ramp.cancel();
+        scheduler.runUntil(400L);
+
+        assertEquals(Arrays.asList(3, 4), setVolumes);
+        assertEquals(4, volume);
+        assertEquals(0, finished);
+    }
+
+    @Test
+    public void restartCancelsRunningRamp() {
+        ramp.start(6, 400L, VolumeRamp.Curve.LINEAR, 0, onFinished);
+        scheduler.runUntil(100L);
+
+        // The new ramp starts at the reached volume and only it finishes
+        ramp.start(1, 200L, VolumeRamp.Curve.LINEAR, 0, onFinished);
+        scheduler.runUntil(300L);
+        assertEquals(Arrays.asList(3, 2, 1), setVolumes);
+        assertEquals(1, finished);
+    }
+
+    @Test
+    public void smoothCurve() {
+        assertEquals(0.0, VolumeRamp.Curve.SMOOTH.timeOf(0.0), 1e-9);
+        assertEquals(0.5, VolumeRamp.Curve.SMOOTH.timeOf(0.5), 1e-9);
+        assertEquals(1.0, VolumeRamp.Curve.SMOOTH.timeOf(1.0), 1e-9);
+
+        // A quarter of the time covers 3/16 - 2/64 of the change
+        assertEquals(0.25, VolumeRamp.Curve.SMOOTH.timeOf(0.15625), 1e-9);
+    }
+
+    @Test
+    public void smoothRampIsSlowAtTheEnds() {
+        ramp.start(6, 400L, VolumeRamp.Curve.SMOOTH, 0, onFinished);
+        scheduler.runUntil(100L);
+        assertEquals(Collections.<Integer>emptyList(), setVolumes);
+        scheduler.runUntil(200L);
+        assertEquals(Arrays.asList(3, 4), setVolumes);
+    }
+
+    @Test
+    public void curveFromValue() {
+        assertEquals(VolumeRamp.Curve.LINEAR, VolumeRamp.Curve.fromValue("linear"));
+        assertEquals(VolumeRamp.Curve.SMOOTH, VolumeRamp.Curve.fromValue("smooth"));
+        assertEquals(VolumeRamp.Curve.LINEAR, VolumeRamp.Curve.fromValue(null));
+    }
+
+    /**
+     * A {@link Scheduler} for a single pending task, run when the tests move the clock.
+     */
+    private static final class ManualScheduler implements Scheduler {
+
+        /**
+         * The current time.
+         */
+        private long now;
+
+        /**
+         * The pending task, or 'null'.
+         */
+        private Runnable task;
+
+        /**
+         * The time the pending task is due.
+         */
+        private long taskTime;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            postAtTime(task, null, now);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            postAtTime(task, null, now + delayMillis);
+        }
+
+        @Override
+        public void postAtTime(Runnable task, Object token, long uptimeMillis) {
+            assertFalse("Only one task may be pending", hasPending());
+            this.task = task;
+            this.taskTime = uptimeMillis;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            if(task == this.task) {
+                this.task = null;
+            }
+        }
+
+        @Override
+        public void removeCallbacksAndMessages(Object token) {
+            task = null;
+        }
+
+        @Override
+        public void postFrameCallback(Runnable task) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeFrameCallback(Runnable task) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Returns if a task is pending.
+         * @return Returns 'true' if a task is pending
+         */
+        boolean hasPending() {
+            return task != null;
+        }
+
+        /**
+         * Moves the clock without running anything, like a thread that is busy.
+         * @param time The new time
+         */
+        void setTime(long time) {
+            now = time;
+        }
+
+        /**
+         * Runs the pending task if it is due, once.
+         */
+        void runPending() {
+            if(task != null && taskTime <= now) {
+                Runnable target = task;
+                task = null;
+                target.run();
+            }
+        }
+
+        /**
+         * Runs the tasks that become due until the given time, each at its own time.
+         * @param time The time to run until
+         */
+        void runUntil(long time) {
+            while(task != null && taskTime <= time) {
+                now = Math.max(now, taskTime);
+                runPending();
+            }
+            now = time;
+        }
+    }
+}